@@ -0,0 +1,81 @@
+package com.criteo.nosql.casspoke.cassandra;
+
+import com.criteo.nosql.casspoke.discovery.Service;
+import com.datastax.driver.core.FakeHosts;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Cost of one tick of metrics updates for a fleet of clusters, i.e. what each poke adds on top of the probes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class CassandraMetricsBenchmark {
+
+    @Param({"10", "100", "1000"})
+    private int hostCount;
+
+    @Param({"100"})
+    private int clusterCount;
+
+    @Param({"summary", "histogram"})
+    private String latencyBackend;
+
+    private List<CassandraMetrics> metrics;
+    private Map<CassandraNode, Long> latencies;
+    private Map<CassandraNode, Boolean> availabilities;
+
+    @Setup
+    public void setup() {
+        CassandraMetrics.UP.clear();
+        CassandraMetrics.LATENCY.clear();
+
+        final Random rnd = new Random(42);
+        latencies = new HashMap<>();
+        availabilities = new HashMap<>();
+        for (CassandraNode node : FakeHosts.newHosts(hostCount).stream().map(CassandraNode::of).collect(Collectors.toList())) {
+            latencies.put(node, TimeUnit.MICROSECONDS.toNanos(200 + rnd.nextInt(5000)));
+            availabilities.put(node, rnd.nextInt(100) > 0);
+        }
+
+        metrics = new ArrayList<>(clusterCount);
+        for (int i = 0; i < clusterCount; i++) {
+            metrics.add(new CassandraMetrics(new Service("cluster" + i, Collections.emptyList()),
+                    LatencyBackend.fromName(latencyBackend)));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        CassandraMetrics.UP.clear();
+        CassandraMetrics.LATENCY.clear();
+    }
+
+    @Benchmark
+    public void updateGetLatency() {
+        for (CassandraMetrics m : metrics) {
+            m.updateGetLatency(latencies);
+        }
+    }
+
+    @Benchmark
+    public void updateSetLatency() {
+        for (CassandraMetrics m : metrics) {
+            m.updateSetLatency(latencies);
+        }
+    }
+
+    @Benchmark
+    public void updateAvailability() {
+        for (CassandraMetrics m : metrics) {
+            m.updateAvailability(availabilities);
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.criteo.nosql.casspoke.cassandra;
+
+import com.criteo.nosql.casspoke.discovery.Service;
+import com.datastax.driver.core.FakeHosts;
+import io.prometheus.client.Collector;
+import io.prometheus.client.exporter.common.TextFormat;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Cost of a Prometheus scrape of the latencies. With the summary backend, quantiles are computed while serializing.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class ScrapeBenchmark {
+
+    @Param({"10", "100", "1000"})
+    private int hostCount;
+
+    @Param({"100"})
+    private int clusterCount;
+
+    @Param({"summary", "histogram"})
+    private String latencyBackend;
+
+    @Param({"10"})
+    private int ticks;
+
+    @Setup
+    public void setup() {
+        CassandraMetrics.UP.clear();
+        CassandraMetrics.LATENCY.clear();
+
+        final Random rnd = new Random(42);
+        final List<CassandraNode> nodes = FakeHosts.newHosts(hostCount).stream().map(CassandraNode::of).collect(Collectors.toList());
+        for (int i = 0; i < clusterCount; i++) {
+            final CassandraMetrics metrics = new CassandraMetrics(new Service("cluster" + i, Collections.emptyList()),
+                    LatencyBackend.fromName(latencyBackend));
+            for (int tick = 0; tick < ticks; tick++) {
+                final Map<CassandraNode, Long> latencies = new HashMap<>();
+                nodes.forEach(node -> latencies.put(node, TimeUnit.MICROSECONDS.toNanos(200 + rnd.nextInt(5000))));
+                metrics.updateGetLatency(latencies);
+                metrics.updateSetLatency(latencies);
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        CassandraMetrics.UP.clear();
+        CassandraMetrics.LATENCY.clear();
+    }
+
+    @Benchmark
+    public int scrapeLatency() throws IOException {
+        final StringWriter writer = new StringWriter(1 << 20);
+        final Collector latencies = "summary".equals(latencyBackend) ? CassandraMetrics.LATENCY : LatencyHistogram.get();
+        TextFormat.write004(writer, Collections.enumeration(latencies.collect()));
+        return writer.getBuffer().length();
+    }
+}
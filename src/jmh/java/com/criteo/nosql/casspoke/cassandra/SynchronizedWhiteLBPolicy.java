@@ -0,0 +1,69 @@
+package com.criteo.nosql.casspoke.cassandra;
+
+import com.datastax.driver.core.Cluster;
+import com.datastax.driver.core.Host;
+import com.datastax.driver.core.HostDistance;
+import com.datastax.driver.core.Statement;
+import com.datastax.driver.core.policies.LoadBalancingPolicy;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The former WhiteLBPolicy, every call synchronized over an ArrayList.
+ * Only kept as a baseline for {@link WhiteLBPolicyBenchmark}.
+ */
+public class SynchronizedWhiteLBPolicy implements LoadBalancingPolicy {
+
+    private final List<Host> liveHosts = new ArrayList<>();
+    private final AtomicInteger index = new AtomicInteger();
+
+    @Override
+    synchronized public void init(Cluster cluster, Collection<Host> hosts) {
+        this.liveHosts.addAll(hosts);
+        this.index.set(0);
+    }
+
+    @Override
+    public HostDistance distance(Host host) {
+        return HostDistance.LOCAL;
+    }
+
+    @Override
+    synchronized public Iterator<Host> newQueryPlan(String loggedKeyspace, Statement statement) {
+        final int startIdx = index.getAndIncrement();
+        // Overflow protection
+        if (startIdx > Integer.MAX_VALUE - 10000)
+            index.set(0);
+
+        final Host host = liveHosts.get(startIdx % liveHosts.size());
+        return Collections.singleton(host).iterator();
+    }
+
+    @Override
+    synchronized public void onUp(Host host) {
+        if (!liveHosts.contains(host)) {
+            liveHosts.add(host);
+        }
+    }
+
+    @Override
+    synchronized public void onDown(Host host) {
+        liveHosts.remove(host);
+    }
+
+    @Override
+    public void onAdd(Host host) {
+        onUp(host);
+    }
+
+    @Override
+    public void onRemove(Host host) {
+        onDown(host);
+    }
+
+    @Override
+    public void close() {
+        // nothing to do
+    }
+}
@@ -0,0 +1,77 @@
+package com.criteo.nosql.casspoke.cassandra;
+
+import com.datastax.driver.core.FakeHosts;
+import com.datastax.driver.core.Host;
+import com.datastax.driver.core.SimpleStatement;
+import com.datastax.driver.core.Statement;
+import com.datastax.driver.core.policies.LoadBalancingPolicy;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compare query plan generation of the lock-free WhiteLBPolicy against the former synchronized one.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WhiteLBPolicyBenchmark {
+
+    @Param({"10", "100", "1000"})
+    private int hostCount;
+
+    private final Statement statement = new SimpleStatement("SELECT * FROM system.local LIMIT 1");
+    private LoadBalancingPolicy lockFree;
+    private LoadBalancingPolicy synchronizedPolicy;
+
+    @Setup
+    public void setup() {
+        final List<Host> hosts = FakeHosts.newHosts(hostCount);
+        lockFree = new WhiteLBPolicy(host -> {
+        });
+        lockFree.init(null, hosts);
+        synchronizedPolicy = new SynchronizedWhiteLBPolicy();
+        synchronizedPolicy.init(null, hosts);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Iterator<Host> lockFree_1thread() {
+        return lockFree.newQueryPlan(null, statement);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public Iterator<Host> lockFree_8threads() {
+        return lockFree.newQueryPlan(null, statement);
+    }
+
+    @Benchmark
+    @Threads(64)
+    public Iterator<Host> lockFree_64threads() {
+        return lockFree.newQueryPlan(null, statement);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Iterator<Host> synchronized_1thread() {
+        return synchronizedPolicy.newQueryPlan(null, statement);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public Iterator<Host> synchronized_8threads() {
+        return synchronizedPolicy.newQueryPlan(null, statement);
+    }
+
+    @Benchmark
+    @Threads(64)
+    public Iterator<Host> synchronized_64threads() {
+        return synchronizedPolicy.newQueryPlan(null, statement);
+    }
+}
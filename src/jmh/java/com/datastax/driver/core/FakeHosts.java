@@ -0,0 +1,36 @@
+package com.datastax.driver.core;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Build driver {@link Host} without connecting to any Cassandra.
+ * It lives in the driver package because Host constructors are package-private.
+ */
+public final class FakeHosts {
+
+    private static final Cluster CLUSTER = Cluster.builder().addContactPoint("127.0.0.1").build();
+
+    private FakeHosts() {
+    }
+
+    public static Host newHost(final String address, final String datacenter, final String rack) {
+        final Host host = new Host(new TranslatedAddressEndPoint(new InetSocketAddress(address, 9042)),
+                new ConvictionPolicy.DefaultConvictionPolicy.Factory(),
+                CLUSTER.manager);
+        host.setLocationInfo(datacenter, rack);
+        return host;
+    }
+
+    /**
+     * @return {@code count} hosts spread over 3 racks of a single datacenter
+     */
+    public static List<Host> newHosts(final int count) {
+        final List<Host> hosts = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            hosts.add(newHost("10." + (i >> 16 & 0xFF) + "." + (i >> 8 & 0xFF) + "." + (i & 0xFF), "dc1", "rack" + i % 3));
+        }
+        return hosts;
+    }
+}
@@ -4,10 +4,15 @@ import com.criteo.nosql.casspoke.cassandra.CassandraRunner;
 import com.criteo.nosql.casspoke.config.Config;
 import com.criteo.nosql.casspoke.discovery.ConsulDiscovery;
 import com.criteo.nosql.casspoke.discovery.IDiscovery;
+import com.criteo.nosql.casspoke.exporter.CachedScrapeServer;
+import com.criteo.nosql.casspoke.exporter.PushExporter;
+import io.prometheus.client.CollectorRegistry;
 import io.prometheus.client.exporter.HTTPServer;
+import io.prometheus.client.hotspot.DefaultExports;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.util.List;
 
 public class Main {
@@ -31,11 +36,17 @@ public class Main {
         // Get the discovery
         final IDiscovery discovery = getDiscovery(cfg);
 
+        // JVM metrics: memory, GC, threads, ...
+        DefaultExports.initialize();
+
         // Start an http server to allow Prometheus scrapping
         // daemon=true, so if the scheduler is stopped, the JVM does not wait for http server termination
-        final int httpServerPort = Integer.parseInt(cfg.getApp().getOrDefault("httpServerPort", "8080"));
-        logger.info("Starting an http server on port {}", httpServerPort);
-        final HTTPServer server = new HTTPServer(httpServerPort, true);
+        final Runnable stopServer = startHttpServer(cfg);
+
+        // Push the metrics for the environments that cannot scrape us, once per measurement
+        final long measurementPeriodInMs = Long.parseLong(cfg.getApp().getOrDefault("measurementPeriodInSec", "30")) * 1000L;
+        final List<PushExporter> exporters = PushExporter.fromConfig(cfg.getPush(), CollectorRegistry.defaultRegistry, measurementPeriodInMs);
+        exporters.forEach(PushExporter::start);
 
         // Get the runner depending on the configuration
         final String runnerType = "CassandraRunner";
@@ -52,13 +63,31 @@ public class Main {
                 } catch (Error e) {
                     logger.error("An unexpected error was thrown, that indicates serious problems. The program will exit", e);
                     discovery.close();
-                    server.stop();
+                    stopServer.run();
+                    exporters.forEach(PushExporter::close);
                     throw e;
                 }
             }
         }
     }
 
+    /**
+     * @return how to stop the http server
+     */
+    private static Runnable startHttpServer(Config cfg) throws IOException {
+        final int httpServerPort = Integer.parseInt(cfg.getApp().getOrDefault("httpServerPort", "8080"));
+        logger.info("Starting an http server on port {}", httpServerPort);
+
+        // The metrics are rendered once per measurement, so a scrape does not compute the quantiles again
+        if (Boolean.parseBoolean(cfg.getApp().getOrDefault("cachedScrape", "false"))) {
+            final long renderPeriodInMs = Long.parseLong(cfg.getApp().getOrDefault("measurementPeriodInSec", "30")) * 1000L;
+            final CachedScrapeServer server = new CachedScrapeServer(httpServerPort, CollectorRegistry.defaultRegistry, renderPeriodInMs);
+            return server::stop;
+        }
+        final HTTPServer server = new HTTPServer(httpServerPort, true);
+        return server::stop;
+    }
+
     private static IDiscovery getDiscovery(Config cfg) {
         final Config.ConsulDiscovery consulCfg = cfg.getDiscovery().getConsul();
         final List<Config.DnsEntry> dnsCfg = cfg.getDiscovery().getDns();
@@ -0,0 +1,100 @@
+package com.criteo.nosql.casspoke.cassandra;
+
+import com.criteo.nosql.casspoke.config.Config;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Timeout of the probes of each node, derived from its recent latencies: a multiple of their p99, within a floor and a ceiling.
+ * <p/>
+ * Until a node has enough successful probes, and when adaptive timeouts are disabled, the ceiling is used.
+ * Each consecutive failure of a node doubles its timeout, so a node that became slower is not failed forever.
+ */
+public final class AdaptiveTimeouts {
+
+    private static final int WINDOW_SIZE = 100;
+    private static final int MIN_SAMPLES = 10;
+
+    private final boolean enabled;
+    private final double multiplier;
+    private final int floorInMs;
+    private final int ceilingInMs;
+    private final Map<CassandraNode, Window> windows = new ConcurrentHashMap<>();
+
+    public AdaptiveTimeouts(final boolean enabled, final double multiplier, final int floorInMs, final int ceilingInMs) {
+        this.enabled = enabled;
+        this.multiplier = multiplier;
+        this.floorInMs = Math.min(floorInMs, ceilingInMs);
+        this.ceilingInMs = ceilingInMs;
+    }
+
+    public static AdaptiveTimeouts fromConfig(final Config cfg) {
+        final int timeoutInMs = Integer.parseInt(cfg.getApp().getOrDefault("timeoutInSec", "60")) * 1000;
+        return new AdaptiveTimeouts(
+                Boolean.parseBoolean(cfg.getApp().getOrDefault("adaptiveTimeouts", "false")),
+                Double.parseDouble(cfg.getApp().getOrDefault("adaptiveTimeoutMultiplier", "5")),
+                Integer.parseInt(cfg.getApp().getOrDefault("adaptiveTimeoutFloorInMs", "100")),
+                timeoutInMs);
+    }
+
+    /**
+     * @return the timeout of the next probe of the node
+     */
+    public int timeoutInMs(final CassandraNode node) {
+        if (!enabled) {
+            return ceilingInMs;
+        }
+        final Window window = windows.get(node);
+        return window == null ? ceilingInMs : window.timeoutInMs();
+    }
+
+    public void recordSuccess(final CassandraNode node, final long latencyInNs) {
+        if (enabled) {
+            windows.computeIfAbsent(node, n -> new Window()).success(latencyInNs);
+        }
+    }
+
+    public void recordFailure(final CassandraNode node) {
+        if (enabled) {
+            windows.computeIfAbsent(node, n -> new Window()).failure();
+        }
+    }
+
+    public void remove(final CassandraNode node) {
+        windows.remove(node);
+    }
+
+    /**
+     * The last latencies of a node, and its timeout computed from them
+     */
+    private final class Window {
+        private final long[] latenciesInNs = new long[WINDOW_SIZE];
+        private int count;
+        private int consecutiveFailures;
+        private int baseTimeoutInMs = ceilingInMs;
+
+        private synchronized void success(final long latencyInNs) {
+            latenciesInNs[count % WINDOW_SIZE] = latencyInNs;
+            count++;
+            consecutiveFailures = 0;
+            if (count >= MIN_SAMPLES) {
+                final long[] sorted = Arrays.copyOf(latenciesInNs, Math.min(count, WINDOW_SIZE));
+                Arrays.sort(sorted);
+                final long p99InNs = sorted[(int) Math.ceil(0.99 * sorted.length) - 1];
+                final long timeoutInMs = (long) Math.ceil(multiplier * p99InNs / TimeUnit.MILLISECONDS.toNanos(1));
+                baseTimeoutInMs = (int) Math.max(floorInMs, Math.min(ceilingInMs, timeoutInMs));
+            }
+        }
+
+        private synchronized void failure() {
+            consecutiveFailures++;
+        }
+
+        private synchronized int timeoutInMs() {
+            return (int) Math.min(ceilingInMs, (long) baseTimeoutInMs << Math.min(consecutiveFailures, 30));
+        }
+    }
+}
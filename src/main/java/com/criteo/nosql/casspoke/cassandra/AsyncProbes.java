@@ -0,0 +1,155 @@
+package com.criteo.nosql.casspoke.cassandra;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+/**
+ * Send the probes of every target at once, at most maxInFlightProbes of them are pending at the same time,
+ * and gather the latencies as they complete.
+ * <p/>
+ * Probes still pending after the timeout are cancelled and reported as failed with a TimeoutException. Each probe
+ * completes once, so their late callbacks are ignored and do not touch the next poke nor a closed monitor.
+ */
+final class AsyncProbes {
+    private static final Logger logger = LoggerFactory.getLogger(AsyncProbes.class);
+
+    private final Semaphore inFlightProbes;
+    private final long timeoutInMs;
+
+    AsyncProbes(final int maxInFlightProbes, final long timeoutInMs) {
+        this.inFlightProbes = new Semaphore(maxInFlightProbes);
+        this.timeoutInMs = timeoutInMs;
+    }
+
+    /**
+     * Notified of the outcome of each probe, before collect returns
+     */
+    interface Listener<T> {
+        void onSuccess(T target, long latencyInNs);
+
+        void onFailure(T target, Throwable error);
+    }
+
+    /**
+     * @param send starts the probe of a target
+     * @return the latencies in nanoseconds of the probes that succeeded in time
+     */
+    <T> Map<T, Long> collect(final String name, final List<T> targets,
+                             final Function<T, ListenableFuture<?>> send, final Listener<T> listener) {
+        final Map<T, Long> latencies = new ConcurrentHashMap<>(targets.size());
+        final List<Probe<T>> probes = new ArrayList<>(targets.size());
+        final CountDownLatch pending = new CountDownLatch(targets.size());
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutInMs);
+
+        try {
+            for (int i = 0; i < targets.size(); i++) {
+                if (!inFlightProbes.tryAcquire(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                    logger.warn("Too many probes in flight for {}, {} targets were skipped", name, targets.size() - i);
+                    break;
+                }
+
+                final T target = targets.get(i);
+                final long start = System.nanoTime();
+                final ListenableFuture<?> future;
+                try {
+                    future = send.apply(target);
+                } catch (Exception e) {
+                    inFlightProbes.release();
+                    throw e;
+                }
+                final Probe<T> probe = new Probe<>(target, start, future, latencies, pending, listener);
+                probes.add(probe);
+                Futures.addCallback(future, probe, MoreExecutors.directExecutor());
+            }
+
+            if (!pending.await(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                logger.warn("Some probes of {} did not complete in time", name);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            logger.error("Error while probing {}", name, e);
+        } finally {
+            probes.forEach(Probe::expire);
+        }
+        return new HashMap<>(latencies);
+    }
+
+    /**
+     * @return the permits not held by a pending probe
+     */
+    int availablePermits() {
+        return inFlightProbes.availablePermits();
+    }
+
+    /**
+     * A probe completed once: either by its callback or by the end of the collect
+     */
+    private final class Probe<T> implements FutureCallback<Object> {
+        private final T target;
+        private final long start;
+        private final ListenableFuture<?> future;
+        private final Map<T, Long> latencies;
+        private final CountDownLatch pending;
+        private final Listener<T> listener;
+        private final AtomicBoolean completed = new AtomicBoolean();
+
+        private Probe(final T target, final long start, final ListenableFuture<?> future, final Map<T, Long> latencies,
+                      final CountDownLatch pending, final Listener<T> listener) {
+            this.target = target;
+            this.start = start;
+            this.future = future;
+            this.latencies = latencies;
+            this.pending = pending;
+            this.listener = listener;
+        }
+
+        @Override
+        public void onSuccess(Object result) {
+            if (complete()) {
+                final long duration = System.nanoTime() - start;
+                listener.onSuccess(target, duration);
+                latencies.put(target, duration);
+                pending.countDown();
+            }
+        }
+
+        @Override
+        public void onFailure(Throwable t) {
+            if (complete()) {
+                listener.onFailure(target, t);
+                pending.countDown();
+            }
+        }
+
+        /**
+         * Cancel the probe if it is still pending when the collect returns, its permit is given back at once
+         */
+        private void expire() {
+            if (complete()) {
+                future.cancel(true);
+                listener.onFailure(target, new TimeoutException("No response from " + target + " in " + timeoutInMs + " ms"));
+            }
+        }
+
+        /**
+         * @return true for the first completion only, which releases the permit of the probe
+         */
+        private boolean complete() {
+            if (!completed.compareAndSet(false, true)) {
+                return false;
+            }
+            inFlightProbes.release();
+            return true;
+        }
+    }
+}
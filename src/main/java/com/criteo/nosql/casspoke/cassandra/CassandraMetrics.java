@@ -1,12 +1,14 @@
 package com.criteo.nosql.casspoke.cassandra;
 
 import com.criteo.nosql.casspoke.discovery.Service;
+import io.prometheus.client.Counter;
 import io.prometheus.client.Gauge;
 import io.prometheus.client.Summary;
-import com.datastax.driver.core.Host;
 
-import java.net.InetSocketAddress;
+import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class CassandraMetrics implements AutoCloseable
 {
@@ -29,42 +31,222 @@ public class CassandraMetrics implements AutoCloseable
             .quantile(0.99, 0.001)
             .register();
 
+    public static final Summary RANGE_LATENCY = Summary.build()
+            .name("cassandra_range_latency")
+            .help("latencies observed by instance, command and token-range bucket, the instance being its replica")
+            .labelNames("cluster", "instance", "rack", "command", "datacenter", "range")
+            .maxAgeSeconds(5 * 60)
+            .ageBuckets(5)
+            .quantile(0.5, 0.05)
+            .quantile(0.9, 0.01)
+            .quantile(0.99, 0.001)
+            .register();
+
+    public static final Counter PROBE_ERRORS = Counter.build()
+            .name("cassandra_probe_errors_total")
+            .help("Probes that failed, by instance, command and kind of error")
+            .labelNames("cluster", "instance", "command", "error")
+            .register();
+
     private final String clusterName;
+    private final LatencyBackend latencyBackend;
+    // Index of the series registered by this instance, so they can be removed without touching other clusters
+    private final Map<CassandraNode, HostSeries> series = new ConcurrentHashMap<>();
+    // Guarded by this, no series is created once closed
+    private boolean closed;
 
     public CassandraMetrics(final Service service) {
+        this(service, LatencyBackend.SUMMARY);
+    }
+
+    public CassandraMetrics(final Service service, final LatencyBackend latencyBackend) {
         this.clusterName = service.getClusterName();
+        this.latencyBackend = latencyBackend;
     }
 
-    public void updateAvailability(Map<Host, Boolean> availabilities) {
+    public void updateAvailability(Map<CassandraNode, Boolean> availabilities) {
         availabilities.forEach((host, availability) -> {
-            UP      .labels(clusterName, host.getAddress().getHostAddress(), host.getRack(), host.getDatacenter())
-                    .set(availability ? 1 : 0);
+            seriesOf(host).setUp(availability);
         });
     }
 
-    public void updateGetLatency(final Map<Host, Long> latencies)
+    public void updateGetLatency(final Map<CassandraNode, Long> latencies)
     {
         latencies.forEach((host, latency) -> {
-            LATENCY .labels(clusterName, host.getAddress().getHostAddress(), host.getRack(), "get", host.getDatacenter())
-                    .observe(latency);
+            seriesOf(host).observeGet(latency);
         });
     }
 
-    public void updateSetLatency(final Map<Host, Long> latencies)
+    public void updateSetLatency(final Map<CassandraNode, Long> latencies)
     {
         latencies.forEach((host, latency) -> {
-            LATENCY .labels(clusterName, host.getAddress().getHostAddress(), host.getRack(), "set", host.getDatacenter())
-                    .observe(latency);
+            seriesOf(host).observeSet(latency);
         });
     }
 
-    public void close() {
-        // FIXME we should remove only metrics with the label cluster=clustername
-        clear();
+    public void recordError(final CassandraNode host, final String command, final Throwable error) {
+        seriesOf(host).incError(command, ProbeError.classify(error));
+    }
+
+    public void recordRangeLatency(final CassandraNode host, final String command, final int bucket, final long latencyInNs) {
+        seriesOf(host).observeRange(command, bucket, latencyInNs);
+    }
+
+    /**
+     * Remove the series of a host that left the cluster, the other hosts keep their history
+     */
+    public void removeHost(final CassandraNode host) {
+        final HostSeries s = series.remove(host);
+        if (s != null) {
+            s.remove();
+        }
+    }
+
+    /**
+     * Remove the series of the hosts that are not in the given ones
+     */
+    public void retainHosts(final Set<CassandraNode> hosts) {
+        for (CassandraNode host : series.keySet()) {
+            if (!hosts.contains(host)) {
+                removeHost(host);
+            }
+        }
+    }
+
+    private HostSeries seriesOf(final CassandraNode host) {
+        final HostSeries s = series.get(host);
+        if (s != null && s.isLabelledAs(host)) {
+            return s;
+        }
+        return newSeries(host);
+    }
+
+    private synchronized HostSeries newSeries(final CassandraNode host) {
+        final HostSeries s = series.get(host);
+        if (s != null && s.isLabelledAs(host)) {
+            return s;
+        }
+        final HostSeries newSeries = new HostSeries(clusterName, latencyBackend, host);
+        if (closed) {
+            // Observations of a poke still running are dropped
+            newSeries.remove();
+            return newSeries;
+        }
+        // The host moved to another rack or datacenter, its former series are dropped
+        if (s != null) {
+            s.remove();
+        }
+        series.put(host, newSeries);
+        return newSeries;
+    }
+
+    /**
+     * Remove the series of this cluster only, the observations that come after are dropped
+     */
+    public synchronized void close() {
+        closed = true;
+        series.keySet().forEach(this::removeHost);
     }
 
-    public static void clear() {
-        UP.clear();
-        LATENCY.clear();
+    /**
+     * The children of a host, resolved on first use, so observations do not format labels nor look up the collectors.
+     * It keeps the label values it registered, the host may have changed since.
+     * The pokes and the removal of the host by the driver race on it: once removed, observations are dropped, as
+     * they would register children that nothing removes.
+     */
+    private static final class HostSeries {
+        private final String cluster;
+        private final LatencyBackend latencyBackend;
+        private final String instance;
+        private final String rack;
+        private final String datacenter;
+
+        // Guarded by this
+        private Gauge.Child up;
+        private LatencyBackend.LatencyRecorder get;
+        private LatencyBackend.LatencyRecorder set;
+        private final Map<String, Counter.Child> errors = new HashMap<>();
+        private final Map<String, LatencyBackend.LatencyRecorder> ranges = new HashMap<>();
+        private boolean removed;
+
+        private HostSeries(final String cluster, final LatencyBackend latencyBackend, final CassandraNode host) {
+            this.cluster = cluster;
+            this.latencyBackend = latencyBackend;
+            this.instance = host.getAddress().getAddress().getHostAddress();
+            this.rack = host.getRack();
+            this.datacenter = host.getDatacenter();
+        }
+
+        private boolean isLabelledAs(final CassandraNode host) {
+            return host.isLabelledAs(datacenter, rack);
+        }
+
+        private synchronized void setUp(final boolean availability) {
+            if (removed) {
+                return;
+            }
+            if (up == null) {
+                up = UP.labels(cluster, instance, rack, datacenter);
+            }
+            up.set(availability ? 1 : 0);
+        }
+
+        private synchronized void observeGet(final long latencyInNs) {
+            if (removed) {
+                return;
+            }
+            if (get == null) {
+                get = latencyBackend.recorder(cluster, instance, rack, "get", datacenter);
+            }
+            get.observe(latencyInNs);
+        }
+
+        private synchronized void observeSet(final long latencyInNs) {
+            if (removed) {
+                return;
+            }
+            if (set == null) {
+                set = latencyBackend.recorder(cluster, instance, rack, "set", datacenter);
+            }
+            set.observe(latencyInNs);
+        }
+
+        private synchronized void incError(final String command, final ProbeError error) {
+            if (removed) {
+                return;
+            }
+            errors.computeIfAbsent(command + '/' + error.getLabel(),
+                    key -> PROBE_ERRORS.labels(cluster, instance, command, error.getLabel())).inc();
+        }
+
+        private synchronized void observeRange(final String command, final int bucket, final long latencyInNs) {
+            if (removed) {
+                return;
+            }
+            ranges.computeIfAbsent(command + '/' + bucket,
+                    key -> latencyBackend.rangeRecorder(cluster, instance, rack, command, datacenter, String.valueOf(bucket)))
+                    .observe(latencyInNs);
+        }
+
+        private synchronized void remove() {
+            removed = true;
+            ranges.keySet().forEach(key -> {
+                final int separator = key.indexOf('/');
+                latencyBackend.removeRange(cluster, instance, rack, key.substring(0, separator), datacenter, key.substring(separator + 1));
+            });
+            errors.keySet().forEach(key -> {
+                final int separator = key.indexOf('/');
+                PROBE_ERRORS.remove(cluster, instance, key.substring(0, separator), key.substring(separator + 1));
+            });
+            if (up != null) {
+                UP.remove(cluster, instance, rack, datacenter);
+            }
+            if (get != null) {
+                latencyBackend.remove(cluster, instance, rack, "get", datacenter);
+            }
+            if (set != null) {
+                latencyBackend.remove(cluster, instance, rack, "set", datacenter);
+            }
+        }
     }
-}
\ No newline at end of file
+}
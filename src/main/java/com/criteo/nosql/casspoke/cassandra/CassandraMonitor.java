@@ -9,54 +9,134 @@ import org.slf4j.LoggerFactory;
 
 import java.net.InetSocketAddress;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
+import java.util.function.Function;
 
-public class CassandraMonitor implements AutoCloseable {
+public class CassandraMonitor implements IMonitor {
     private static final Logger logger = LoggerFactory.getLogger(CassandraMonitor.class);
 
+    /**
+     * Driver profile keeping only the hosts of the cluster: no schema, no token map and no driver metrics
+     */
+    public static final String MONITORING_PROFILE = "monitoring";
+
     private final Service service;
     private final Cluster cluster;
     private final WhiteLBPolicy lbPolicy;
+    private final boolean useSsl;
     private final int timeoutInMs;
+    private final AdaptiveTimeouts timeouts;
+    private final CircuitBreakers breakers;
+    private final ErrorListener onProbeError;
+    private final RangeLatencyListener onRangeLatency;
+    private final RateLimitedLog errorLog = new RateLimitedLog(logger);
+    // Empty when the probes are sent one after another
+    private final Optional<AsyncProbes> asyncProbes;
     private final Session session;
     private final UUID sessionId = UUIDs.random();
-    private final BoundStatement setRequest;
-    private final BoundStatement getRequest;
+    private final Optional<ProbeTable> probeTable;
+    private final PreparedStatement setRequest;
+    private final PreparedStatement getRequest;
+    private final Optional<PreparedStatement> replicaGetRequest;
+    private final int tokenRangeBuckets;
+    // Rebuilt when the tokens of the ring change
+    private Map<Host, Set<Token>> ringTokens = Collections.emptyMap();
+    private ReplicaKeys<Host, Token> replicaKeys;
+    private long replicaRound;
+    // The reads probe the rows of the last writes, so they are served from data
+    private Map<Host, ReplicaKeys.Key> writtenKeys = Collections.emptyMap();
+    // The nodes of the hosts, so the metrics keys are not allocated on every poke
+    private final Map<Host, CassandraNode> nodes;
 
-    private CassandraMonitor(final Service service, final Cluster cluster, final WhiteLBPolicy lbPolicy, final int timeoutInMs) {
+    private CassandraMonitor(final Config cfg, final Service service, final Cluster cluster, final WhiteLBPolicy lbPolicy,
+                             final boolean useSsl, final Map<Host, CassandraNode> nodes, final AdaptiveTimeouts timeouts,
+                             final CircuitBreakers breakers, final ErrorListener onProbeError,
+                             final RangeLatencyListener onRangeLatency, final Optional<ProbeTable> probeTable) {
         this.service = service;
+        this.nodes = nodes;
+        this.useSsl = useSsl;
         this.cluster = cluster;
         this.lbPolicy = lbPolicy;
-        this.timeoutInMs = timeoutInMs;
+        this.timeoutInMs = getTimeoutInMs(cfg);
+        this.timeouts = timeouts;
+        this.breakers = breakers;
+        this.onProbeError = onProbeError;
+        this.onRangeLatency = onRangeLatency;
+        if ("async".equalsIgnoreCase(cfg.getApp().getOrDefault("probeMode", "sync"))) {
+            this.asyncProbes = Optional.of(new AsyncProbes(
+                    Integer.parseInt(cfg.getApp().getOrDefault("maxInFlightProbes", "64")), timeoutInMs));
+        } else {
+            this.asyncProbes = Optional.empty();
+        }
         this.session = cluster.connect();
-        this.setRequest = this.session.prepare("INSERT INTO system_traces.events (session_id, event_id, activity, source)" +
-                                                "VALUES (?, now(), 'casspoke set latency measure', '127.0.0.1' ) USING TTL 60 ;")
-                .setConsistencyLevel(ConsistencyLevel.ONE)
-                .bind(this.sessionId);
+        this.probeTable = probeTable;
+        if (probeTable.isPresent()) {
+            for (String statement : probeTable.get().schemaStatements()) {
+                session.execute(statement);
+            }
+            this.setRequest = this.session.prepare(probeTable.get().insertStatement())
+                    .setConsistencyLevel(probeTable.get().getConsistency());
+        } else {
+            this.setRequest = this.session.prepare("INSERT INTO system_traces.events (session_id, event_id, activity, source)" +
+                                                    "VALUES (?, now(), 'casspoke set latency measure', '127.0.0.1' ) USING TTL 60 ;")
+                    .setConsistencyLevel(ConsistencyLevel.ONE);
+        }
 
         this.getRequest = this.session.prepare("SELECT * FROM system.local LIMIT 1")
-                .setConsistencyLevel(ConsistencyLevel.ONE)
-                .bind();
+                .setConsistencyLevel(ConsistencyLevel.ONE);
+
+        if (probeTable.isPresent() && isProbingReplicas(cfg)) {
+            this.replicaGetRequest = Optional.of(this.session.prepare(probeTable.get().selectStatement())
+                    .setConsistencyLevel(probeTable.get().getConsistency()));
+        } else {
+            this.replicaGetRequest = Optional.empty();
+        }
+        this.tokenRangeBuckets = Integer.parseInt(cfg.getApp().getOrDefault("tokenRangeBuckets", "4"));
+    }
+
+    private static boolean isProbingReplicas(final Config cfg) {
+        return Boolean.parseBoolean(cfg.getApp().getOrDefault("replicaProbes", "false"));
     }
 
-    public static Optional<CassandraMonitor> fromNodes(boolean useSsl,
+    private static int getTimeoutInMs(final Config cfg) {
+        return Integer.parseInt(cfg.getApp().getOrDefault("timeoutInSec", "60")) * 1000;
+    }
+
+    public static Optional<CassandraMonitor> fromNodes(final Config cfg,
+                                                       boolean useSsl,
                                                        final Service service,
                                                        Set<InetSocketAddress> endPoints,
-                                                       int timeoutInMs, Consumer<Host> onHostRemoval,
-                                                       Optional<AuthProvider> authProvider) {
+                                                       Consumer<CassandraNode> onHostRemoval,
+                                                       ErrorListener onProbeError,
+                                                       RangeLatencyListener onRangeLatency,
+                                                       Optional<ProbeTable> probeTable,
+                                                       Optional<AuthProvider> authProvider,
+                                                       Optional<SharedDriverResources> sharedResources) {
         if (endPoints.isEmpty()) {
             return Optional.empty();
         }
 
         try {
+            final int timeoutInMs = getTimeoutInMs(cfg);
+
             final PoolingOptions poolingOptions = new PoolingOptions()
                     .setConnectionsPerHost(HostDistance.LOCAL, 1, 2)
                     .setConnectionsPerHost(HostDistance.REMOTE, 1, 2)
                     .setHeartbeatIntervalSeconds(20)
                     .setPoolTimeoutMillis((int) TimeUnit.SECONDS.toMillis(30));
 
-            final WhiteLBPolicy lbPolicy = new WhiteLBPolicy(onHostRemoval);
+            final Map<Host, CassandraNode> nodes = new ConcurrentHashMap<>();
+            final AdaptiveTimeouts timeouts = AdaptiveTimeouts.fromConfig(cfg);
+            final CircuitBreakers breakers = CircuitBreakers.fromConfig(cfg, service);
+            final WhiteLBPolicy lbPolicy = new WhiteLBPolicy(host -> {
+                final CassandraNode node = nodes.remove(host);
+                final CassandraNode removed = node != null ? node : CassandraNode.of(host);
+                timeouts.remove(removed);
+                breakers.remove(removed);
+                onHostRemoval.accept(removed);
+            });
 
             final Cluster.Builder clusterBuilder = Cluster.builder()
                     .addContactPointsWithPorts(endPoints)
@@ -79,8 +159,26 @@ public class CassandraMonitor implements AutoCloseable {
                 clusterBuilder.withSSL();
             }
 
+            if (MONITORING_PROFILE.equalsIgnoreCase(cfg.getApp().getOrDefault("driverProfile", "full"))) {
+                withMonitoringProfile(clusterBuilder, Integer.parseInt(cfg.getApp().getOrDefault("topologyDebounceInMs", "5000")),
+                        isProbingReplicas(cfg));
+            }
+
+            if (sharedResources.isPresent()) {
+                clusterBuilder.withNettyOptions(sharedResources.get().getNettyOptions())
+                        .withThreadingOptions(sharedResources.get().getThreadingOptions());
+            }
+
             final Cluster cluster = clusterBuilder.build();
-            return Optional.of(new CassandraMonitor(service, cluster, lbPolicy, timeoutInMs));
+            try {
+                return Optional.of(new CassandraMonitor(cfg, service, cluster, lbPolicy, useSsl, nodes, timeouts, breakers,
+                        onProbeError, onRangeLatency, probeTable));
+            } catch (Exception e) {
+                // The session, the schema or a prepare failed, the Cluster and its threads would leak on every retry
+                cluster.close();
+                breakers.close();
+                throw e;
+            }
         } catch (Exception e) {
             logger.error("Cannot create connection to cluster", e);
             return Optional.empty();
@@ -88,61 +186,222 @@ public class CassandraMonitor implements AutoCloseable {
 
     }
 
-    public Map<Host, Boolean> collectAvailability() {
+    /**
+     * The probes only need the hosts, their datacenter and their rack. The driver then reads system.local and
+     * system.peers but neither the schema nor the tokens, and coalesces the topology events of a node or of
+     * the node list that arrive within debounceInMs into a single refresh.
+     * The replica probes still need the tokens, which the driver only reads along with the schema.
+     */
+    static Cluster.Builder withMonitoringProfile(final Cluster.Builder clusterBuilder, final int debounceInMs,
+                                                 final boolean withTokens) {
+        return clusterBuilder
+                .withQueryOptions(new QueryOptions()
+                        .setMetadataEnabled(withTokens)
+                        .setRefreshNodeIntervalMillis(debounceInMs)
+                        .setRefreshNodeListIntervalMillis(debounceInMs)
+                        .setRefreshSchemaIntervalMillis(debounceInMs))
+                .withoutMetrics()
+                .withoutJMXReporting();
+    }
+
+    @Override
+    public boolean usesSsl() {
+        return useSsl;
+    }
+
+    /**
+     * @return true if the session is open and the driver sees at least one node up
+     */
+    @Override
+    public boolean isReachable() {
+        if (session.isClosed()) {
+            return false;
+        }
+        for (Host host : cluster.getMetadata().getAllHosts()) {
+            if (host.isUp()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public Map<CassandraNode, Boolean> collectAvailability() {
 
-        final Map<Host, Boolean> availabilities = new HashMap<>();
+        final Map<CassandraNode, Boolean> availabilities = new HashMap<>();
 
         final Session.State state = session.getState();
         for (Host host : cluster.getMetadata().getAllHosts()) {
             final int connections = state.getOpenConnections(host);
-            availabilities.put(host, connections > 0);
+            availabilities.put(nodeOf(host), connections > 0);
             logger.debug("%s connections=%d\n", host, connections);
         }
 
         return availabilities;
     }
 
-    public Map<Host, Long> collectGetLatencies() {
-        final Map<Host, Long> getLatencies = new HashMap<>();
-        for (int count = cluster.getMetadata().getAllHosts().size(); count > 0; count--) {
+    @Override
+    public Map<CassandraNode, Long> collectGetLatencies() {
+        final Function<Host, Statement> request = host -> getRequest.bind().setHost(host);
+        if (!replicaGetRequest.isPresent()) {
+            return collectLatencies(getProbedHosts(), request, "get", "reading from");
+        }
+        getReplicaKeys();
+        return collectReplicaLatencies(writtenKeys, replicaGetRequest.get(), request, "get", "reading from");
+    }
 
-            long duration = timeoutInMs;
-            try {
-                final long start = System.nanoTime();
-                session.execute(getRequest);
-                duration = System.nanoTime() - start;
-            } catch (Exception e) {
-                logger.error("Error while reading from {} ", lbPolicy.theLastTargetedHost.get(), e);
+    @Override
+    public Map<CassandraNode, Long> collectSetLatencies() {
+        final long tickInMs = System.currentTimeMillis();
+        final Function<Host, Statement> request = probeTable.isPresent()
+                ? host -> setRequest.bind(ProbeTable.key(nodeOf(host), tickInMs)).setHost(host)
+                : host -> setRequest.bind(sessionId).setHost(host);
+        if (!replicaGetRequest.isPresent()) {
+            return collectLatencies(getProbedHosts(), request, "set", "writing to");
+        }
+        // Each write lands in a new partition, the keys of the previous rounds are never rewritten
+        writtenKeys = getReplicaKeys().pick(replicaRound++, tickInMs);
+        return collectReplicaLatencies(writtenKeys, setRequest, request, "set", "writing to");
+    }
+
+    /**
+     * Probe each host with a key of one of its primary ranges, so it serves the probe as a replica and not only as
+     * a coordinator. The probe budget is the same, each round probes the next bucket of the ranges of a host.
+     * Hosts without key, e.g. while joining, get the probe of a coordinator.
+     */
+    private Map<CassandraNode, Long> collectReplicaLatencies(final Map<Host, ReplicaKeys.Key> picked,
+                                                             final PreparedStatement statement,
+                                                             final Function<Host, Statement> coordinatorRequest,
+                                                             final String command, final String action) {
+        final Map<CassandraNode, Long> latencies = collectLatencies(getProbedHosts(), host -> {
+            final ReplicaKeys.Key key = picked.get(host);
+            return key != null ? statement.bind(key.getValue()).setHost(host) : coordinatorRequest.apply(host);
+        }, command, action);
+
+        picked.forEach((host, key) -> {
+            // The probed hosts have their node, the others have no latency
+            final CassandraNode node = nodes.get(host);
+            final Long latency = node != null ? latencies.get(node) : null;
+            if (latency != null) {
+                onRangeLatency.onRangeLatency(node, command, key.getBucket(), latency);
             }
-            final Host host = lbPolicy.theLastTargetedHost.get();
-            getLatencies.put(host, duration);
+        });
+        return latencies;
+    }
+
+    private ReplicaKeys<Host, Token> getReplicaKeys() {
+        final Metadata metadata = cluster.getMetadata();
+        final Map<Host, Set<Token>> tokens = new HashMap<>();
+        for (Host host : metadata.getAllHosts()) {
+            tokens.put(host, host.getTokens() != null ? host.getTokens() : Collections.emptySet());
+        }
+        if (replicaKeys == null || !tokens.equals(ringTokens)) {
+            final long start = System.nanoTime();
+            replicaKeys = ReplicaKeys.build(tokens,
+                    key -> metadata.newToken(TypeCodec.varchar().serialize(key, ProtocolVersion.NEWEST_SUPPORTED)),
+                    tokenRangeBuckets);
+            ringTokens = tokens;
+            // The ranges moved, the last written keys may belong to other hosts
+            writtenKeys = Collections.emptyMap();
+            logger.info("Token ring of {} indexed in {} ms", service, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
         }
-        return getLatencies;
+        return replicaKeys;
     }
 
-    public Map<Host, Long> collectSetLatencies() {
-        final Map<Host, Long> setLatencies = new HashMap<>();
+    private CassandraNode nodeOf(final Host host) {
+        final CassandraNode node = nodes.get(host);
+        if (node != null && node.isLabelledAs(host.getDatacenter(), host.getRack())) {
+            return node;
+        }
+        final CassandraNode newNode = CassandraNode.of(host);
+        nodes.put(host, newNode);
+        return newNode;
+    }
 
-        for (int count = cluster.getMetadata().getAllHosts().size(); count > 0; count--) {
+    /**
+     * Hosts to probe, each probe is pinned to its host so the latency is attributed to the node that served it.
+     * Hosts without open connection are already reported down by the availability, probing them would only wait
+     * for the pool timeout.
+     */
+    private List<Host> getProbedHosts() {
+        final Session.State state = session.getState();
+        final List<Host> hosts = new ArrayList<>();
+        for (Host host : cluster.getMetadata().getAllHosts()) {
+            if (host.isUp() && state.getOpenConnections(host) > 0) {
+                hosts.add(host);
+            }
+        }
+        return hosts;
+    }
+
+    /**
+     * Failed probes are not latencies, they are only counted by kind of error
+     */
+    private void onFailure(final Host host, final CassandraNode node, final String command, final String action, final Throwable error) {
+        timeouts.recordFailure(node);
+        breakers.recordFailure(node);
+        onProbeError.onProbeError(node, command, error);
+        errorLog.error("Error while {} {} ", action, host, error);
+    }
+
+    private Map<CassandraNode, Long> collectLatencies(final List<Host> hosts, final Function<Host, Statement> request,
+                                                      final String command, final String action) {
+        if (asyncProbes.isPresent()) {
+            return collectLatenciesAsync(hosts, request, command, action);
+        }
+        final Map<CassandraNode, Long> latencies = new HashMap<>();
+
+        for (Host host : hosts) {
+            final CassandraNode node = nodeOf(host);
+            if (!breakers.allowProbe(node)) {
+                continue;
+            }
+            final int hostTimeoutInMs = timeouts.timeoutInMs(node);
 
-            long duration = timeoutInMs;
             try {
                 final long start = System.nanoTime();
-                session.execute(this.setRequest);
-                duration = System.nanoTime() - start;
+                session.execute(request.apply(host).setReadTimeoutMillis(hostTimeoutInMs));
+                final long duration = System.nanoTime() - start;
+                timeouts.recordSuccess(node, duration);
+                breakers.recordSuccess(node);
+                latencies.put(node, duration);
             } catch (Exception e) {
-                logger.error("Error while writing to {} ", lbPolicy.theLastTargetedHost.get(), e);
+                onFailure(host, node, command, action, e);
             }
-
-            final Host host = lbPolicy.theLastTargetedHost.get();
-            setLatencies.put(host, duration);
         }
-        return setLatencies;
+        return latencies;
+    }
+
+    /**
+     * Send the probes of every host at once, see AsyncProbes
+     */
+    private Map<CassandraNode, Long> collectLatenciesAsync(final List<Host> hosts, final Function<Host, Statement> request,
+                                                           final String command, final String action) {
+        hosts.removeIf(host -> !breakers.allowProbe(nodeOf(host)));
+        final Map<Host, Long> latencies = asyncProbes.get().collect(action + " " + service, hosts,
+                host -> session.executeAsync(request.apply(host).setReadTimeoutMillis(timeouts.timeoutInMs(nodeOf(host)))),
+                new AsyncProbes.Listener<Host>() {
+                    @Override
+                    public void onSuccess(Host host, long latencyInNs) {
+                        final CassandraNode node = nodeOf(host);
+                        timeouts.recordSuccess(node, latencyInNs);
+                        breakers.recordSuccess(node);
+                    }
+
+                    @Override
+                    public void onFailure(Host host, Throwable error) {
+                        CassandraMonitor.this.onFailure(host, nodeOf(host), command, action, error);
+                    }
+                });
+        final Map<CassandraNode, Long> nodeLatencies = new HashMap<>(latencies.size());
+        latencies.forEach((host, latency) -> nodeLatencies.put(nodeOf(host), latency));
+        return nodeLatencies;
     }
 
     @Override
     public void close() {
         if (cluster != null) cluster.close();
+        breakers.close();
     }
 
 }
@@ -0,0 +1,60 @@
+package com.criteo.nosql.casspoke.cassandra;
+
+import com.datastax.driver.core.Host;
+
+import java.net.InetSocketAddress;
+import java.util.Objects;
+
+/**
+ * A node probed by a monitor, whatever the probe engine.
+ * Nodes are equal when they have the same address, their datacenter and rack only label the metrics.
+ */
+public final class CassandraNode {
+    private final InetSocketAddress address;
+    private final String datacenter;
+    private final String rack;
+
+    public CassandraNode(final InetSocketAddress address, final String datacenter, final String rack) {
+        this.address = address;
+        this.datacenter = datacenter;
+        this.rack = rack;
+    }
+
+    public static CassandraNode of(final Host host) {
+        return new CassandraNode(host.getEndPoint().resolve(), host.getDatacenter(), host.getRack());
+    }
+
+    public InetSocketAddress getAddress() {
+        return address;
+    }
+
+    public String getDatacenter() {
+        return datacenter;
+    }
+
+    public String getRack() {
+        return rack;
+    }
+
+    public boolean isLabelledAs(final String datacenter, final String rack) {
+        return Objects.equals(this.datacenter, datacenter) && Objects.equals(this.rack, rack);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        return address.equals(((CassandraNode) o).address);
+    }
+
+    @Override
+    public int hashCode() {
+        return address.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return address + " (" + datacenter + "/" + rack + ")";
+    }
+}
@@ -1,16 +1,20 @@
 package com.criteo.nosql.casspoke.cassandra;
 
+import com.criteo.nosql.casspoke.cassandra.nativeprotocol.NativeProbeEngine;
 import com.criteo.nosql.casspoke.config.Config;
 import com.criteo.nosql.casspoke.discovery.IDiscovery;
 import com.criteo.nosql.casspoke.discovery.Service;
+import com.criteo.nosql.casspoke.sharding.Sharding;
 import com.datastax.driver.core.AuthProvider;
-import com.datastax.driver.core.Host;
 import com.datastax.driver.core.PlainTextAuthProvider;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.prometheus.client.Histogram;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.net.InetSocketAddress;
 import java.util.*;
+import java.util.concurrent.*;
 
 public class CassandraRunner implements AutoCloseable, Runnable {
 
@@ -18,18 +22,39 @@ public class CassandraRunner implements AutoCloseable, Runnable {
 
     private final Config cfg;
     private final IDiscovery discovery;
+    private final Sharding sharding;
     private final long measurementPeriodInMs;
     private final long refreshDiscoveryPeriodInMs;
     private final List<String> tagsWithSsl;
+    private final Optional<AuthProvider> authProvider;
+    private final LatencyBackend latencyBackend;
+    private final Optional<ProbeTable> probeTable;
+    private final Optional<NativeProbeEngine> nativeEngine;
+    private final Optional<SharedDriverResources> sharedResources;
+    private final ScheduledExecutorService scheduler;
+    private final ExecutorService bootstrapper;
+    private final ExecutorService disposer;
+    private final long bootstrapDeadlineInMs;
+    // Guards the registration of monitors, done either by the run loop or by the bootstrapper when a cluster connects
+    private final Object topologyLock = new Object();
 
-    protected Map<Service, Set<InetSocketAddress>> services;
-    protected final Map<Service, Optional<CassandraMonitor>> monitors;
+    protected final Map<Service, Set<InetSocketAddress>> services;
+    protected final Map<Service, Optional<IMonitor>> monitors;
     protected final Map<Service, CassandraMetrics> metrics;
+    protected final Map<Service, ScheduledFuture<?>> pokes;
+    protected final Map<Service, CompletableFuture<Optional<IMonitor>>> pendingMonitors;
+    // Planned start of the next poke of each service, to measure how late the scheduler runs them
+    protected final Map<Service, Long> nextPokes;
+    // Held by a running poke, the monitor and the metrics of its service are only closed once it is done
+    protected final Map<Service, Object> pokeLocks;
+    // Closing of the monitors detached from their service, a new monitor of the service is created once it is done
+    protected final Map<Service, CompletableFuture<Void>> disposals;
 
     public CassandraRunner(Config cfg, IDiscovery discovery) {
         this.cfg = cfg;
 
         this.discovery = discovery;
+        this.sharding = Sharding.fromConfig(cfg.getSharding());
         this.measurementPeriodInMs = Long.parseLong(cfg.getApp().getOrDefault("measurementPeriodInSec", "30")) * 1000L;
         this.refreshDiscoveryPeriodInMs = Long.parseLong(cfg.getApp().getOrDefault("refreshDiscoveryPeriodInSec", "300")) * 1000L;
         if (cfg.getTagsWithSsl() == null) {
@@ -37,27 +62,84 @@ public class CassandraRunner implements AutoCloseable, Runnable {
         }
         else this.tagsWithSsl = cfg.getTagsWithSsl();
 
-        this.services = Collections.emptyMap();
-        this.monitors = new HashMap<>();
-        this.metrics = new HashMap<>();
+        if (cfg.getApp().containsKey("username") && cfg.getApp().containsKey("password")) {
+            this.authProvider = Optional.of(new PlainTextAuthProvider(cfg.getApp().get("username"), cfg.getApp().get("password")));
+        } else {
+            this.authProvider = Optional.empty();
+        }
+
+        this.latencyBackend = LatencyBackend.fromName(cfg.getApp().getOrDefault("latencyBackend", "summary"));
+        // Parsed once, a malformed probeTable fails the startup instead of every monitor
+        this.probeTable = ProbeTable.fromConfig(cfg);
+
+        // The native engine speaks the protocol directly, without the Cluster of the driver and its metadata
+        if ("native".equalsIgnoreCase(cfg.getApp().getOrDefault("probeEngine", "driver"))) {
+            this.nativeEngine = Optional.of(new NativeProbeEngine(cfg, probeTable));
+        } else {
+            this.nativeEngine = Optional.empty();
+            if (Boolean.parseBoolean(cfg.getApp().getOrDefault("replicaProbes", "false")) && !probeTable.isPresent()) {
+                logger.warn("replicaProbes needs a probeTable to read and write, the nodes are probed as coordinators");
+            }
+        }
+
+        // Clusters share their event loop, timer and executors instead of starting their own threads
+        if (Boolean.parseBoolean(cfg.getApp().getOrDefault("sharedDriverResources", "false"))) {
+            final String ioThreads = cfg.getApp().getOrDefault("sharedDriverIoThreads", "4");
+            this.sharedResources = Optional.of(new SharedDriverResources(
+                    Integer.parseInt(ioThreads),
+                    Integer.parseInt(cfg.getApp().getOrDefault("sharedDriverWorkerThreads", ioThreads)),
+                    Integer.parseInt(cfg.getApp().getOrDefault("sharedDriverBlockingThreads", "8"))));
+        } else {
+            this.sharedResources = Optional.empty();
+        }
+
+        // Each service is poked on its own cadence, a slow cluster only delays itself
+        final int pokeThreads = Integer.parseInt(cfg.getApp().getOrDefault("pokeThreads", "16"));
+        this.scheduler = Executors.newScheduledThreadPool(pokeThreads,
+                new ThreadFactoryBuilder().setNameFormat("poke-%d").setDaemon(true).build());
+
+        // Monitors connect in parallel, the ones not connected by the deadline join later
+        final int bootstrapThreads = Integer.parseInt(cfg.getApp().getOrDefault("bootstrapThreads", "16"));
+        this.bootstrapper = Executors.newFixedThreadPool(bootstrapThreads,
+                new ThreadFactoryBuilder().setNameFormat("bootstrap-%d").setDaemon(true).build());
+        this.bootstrapDeadlineInMs = Long.parseLong(cfg.getApp().getOrDefault("bootstrapDeadlineInSec", "30")) * 1000L;
+
+        // Waits for the running pokes before closing their monitors, outside of the topology lock
+        this.disposer = Executors.newCachedThreadPool(
+                new ThreadFactoryBuilder().setNameFormat("dispose-%d").setDaemon(true).build());
+
+        this.services = new HashMap<>();
+        this.monitors = new ConcurrentHashMap<>();
+        this.metrics = new ConcurrentHashMap<>();
+        this.pokes = new ConcurrentHashMap<>();
+        this.pendingMonitors = new ConcurrentHashMap<>();
+        this.nextPokes = new ConcurrentHashMap<>();
+        this.pokeLocks = new ConcurrentHashMap<>();
+        this.disposals = new ConcurrentHashMap<>();
     }
 
     /**
-     * Run monitors and discovery periodically.
+     * Run discovery periodically, monitors are poked by the scheduler.
      * It is an infinite loop. We can stop by interrupting its Thread
      */
     @Override
     public void run() {
 
-        final List<EVENT> evts = Arrays.asList(EVENT.UPDATE_TOPOLOGY, EVENT.POKE);
+        final List<EVENT> evts = Arrays.asList(EVENT.UPDATE_TOPOLOGY);
+
+        if (discovery.watch(this::onServiceChange)) {
+            logger.info("Changes of the services will be pushed by the discovery");
+        }
 
         try {
             for (; ; ) {
                 final long start = System.currentTimeMillis();
                 final EVENT evt = evts.get(0);
+                RunnerMetrics.SCHEDULE_LAG.labels(evt.name()).observe(Math.max(0, start - evt.nexTick) / 1000.0);
                 dispatch_events(evt);
                 final long stop = System.currentTimeMillis();
                 logger.info("{} took {} ms", evt, stop - start);
+                RunnerMetrics.EVENT_DURATION.labels(evt.name()).observe((stop - start) / 1000.0);
 
                 rescheduleEvent(evt, start, stop);
                 Collections.sort(evts, Comparator.comparingLong(event -> event.nexTick));
@@ -76,7 +158,7 @@ public class CassandraRunner implements AutoCloseable, Runnable {
 
     private void rescheduleEvent(EVENT lastEvt, long start, long stop) {
         final long duration = stop - start;
-        if (duration >= measurementPeriodInMs) {
+        if (duration >= refreshDiscoveryPeriodInMs) {
             logger.warn("Operation took longer than 1 tick, please increase tick rate if you see this message too often");
         }
 
@@ -84,10 +166,6 @@ public class CassandraRunner implements AutoCloseable, Runnable {
             case UPDATE_TOPOLOGY:
                 lastEvt.nexTick = start + refreshDiscoveryPeriodInMs;
                 break;
-
-            case POKE:
-                lastEvt.nexTick = start + measurementPeriodInMs;
-                break;
         }
     }
 
@@ -96,80 +174,341 @@ public class CassandraRunner implements AutoCloseable, Runnable {
             case UPDATE_TOPOLOGY:
                 updateTopology();
                 break;
-
-            case POKE:
-                poke();
-                break;
         }
     }
 
     public void updateTopology() {
-        final Map<Service, Set<InetSocketAddress>> new_services = discovery.getServicesNodes();
+        final Map<Service, Set<InetSocketAddress>> discovered_services = discoverServices();
 
         // Discovery down?
-        if (new_services.isEmpty()) {
+        if (discovered_services.isEmpty()) {
+            RunnerMetrics.DISCOVERY_ERRORS.inc();
             logger.warn("Discovery sent back no service to monitor. Is it down? Check your configuration.");
             return;
         }
 
-        // Dispose old monitors
-        services.forEach((service, addresses) -> {
-            if (!Objects.equals(addresses, new_services.get(service))) {
-                logger.info("{} has changed, its monitor will be disposed.", service);
-                monitors.remove(service)
-                        .ifPresent(mon -> mon.close());
-                metrics.remove(service)
-                        .close();
+        // Keep only the share of this replica, the services moved to another one are disposed below
+        sharding.refresh();
+        final Map<Service, Set<InetSocketAddress>> new_services = new HashMap<>(discovered_services);
+        new_services.keySet().removeIf(service -> !sharding.owns(service));
+        if (sharding.isEnabled()) {
+            logger.info("This replica owns {}/{} services", new_services.size(), discovered_services.size());
+        }
+
+        final List<CompletableFuture<Optional<IMonitor>>> creations = new ArrayList<>();
+        synchronized (topologyLock) {
+            // Dispose the monitors of the services that are gone
+            new ArrayList<>(services.keySet()).forEach(service -> {
+                if (!new_services.containsKey(service)) {
+                    removeService(service);
+                }
+            });
+
+            // Create the new ones, and rebuild only the ones that cannot be reused
+            new_services.forEach((service, new_addresses) -> reconcileService(service, new_addresses, creations));
+        }
+
+        // Outside of the lock, monitors register themselves as soon as they are connected
+        awaitMonitors(creations);
+    }
+
+    private Map<Service, Set<InetSocketAddress>> discoverServices() {
+        final Histogram.Timer timer = RunnerMetrics.DISCOVERY_DURATION.startTimer();
+        try {
+            return discovery.getServicesNodes();
+        } catch (RuntimeException e) {
+            RunnerMetrics.DISCOVERY_ERRORS.inc();
+            throw e;
+        } finally {
+            timer.observeDuration();
+        }
+    }
+
+    /**
+     * Apply the change of a single service pushed by the discovery.
+     * Monitors are not awaited, they register themselves once connected.
+     */
+    public void onServiceChange(final Service service, final Set<InetSocketAddress> new_addresses) {
+        synchronized (topologyLock) {
+            if (new_addresses.isEmpty() || !sharding.owns(service)) {
+                if (services.containsKey(service)) {
+                    removeService(service);
+                }
+            } else {
+                reconcileService(service, new_addresses, new ArrayList<>());
             }
-        });
+        }
+    }
 
-        // Create new ones
-        final int timeoutInMs = Integer.parseInt(cfg.getApp().getOrDefault("timeoutInSec", "60")) * 1000;
+    private void removeService(final Service service) {
+        logger.info("{} is gone, its monitor will be disposed.", service);
+        services.remove(service);
+        dispose(service, detachMonitor(service), Optional.ofNullable(metrics.remove(service)));
+    }
 
-        Optional<AuthProvider> authProvider = Optional.empty();
-        if (cfg.getApp().containsKey("username") && cfg.getApp().containsKey("password")) {
-            authProvider = Optional.of(new PlainTextAuthProvider(cfg.getApp().get("username"), cfg.getApp().get("password")));
-        }
-        final Optional<AuthProvider> finalAuthProvider = authProvider;
-
-        new_services.forEach((service, new_addresses) -> {
-            if (!Objects.equals(services.get(service), new_addresses)) {
-                logger.info("A new Monitor for {} will be created.", service);
-                CassandraMetrics cassMetrics = new CassandraMetrics(service);
-                monitors.put(service, CassandraMonitor.fromNodes(!Collections.disjoint(service.getTags(), tagsWithSsl),
-                                                                 service,
-                                                                 new_addresses,
-                                                                 timeoutInMs,
-                                                                 (Host host) -> cassMetrics.clear(), finalAuthProvider));
-                metrics.put(service, cassMetrics);
+    private Object pokeLockOf(final Service service) {
+        return pokeLocks.computeIfAbsent(service, srv -> new Object());
+    }
+
+    /**
+     * Create the monitor of a new service, and rebuild it only if it cannot be reused
+     */
+    private void reconcileService(final Service service, final Set<InetSocketAddress> new_addresses,
+                                  final List<CompletableFuture<Optional<IMonitor>>> creations) {
+        final Optional<IMonitor> monitor = monitors.get(service);
+        final boolean useSsl = !Collections.disjoint(service.getTags(), tagsWithSsl);
+
+        if (pendingMonitors.containsKey(service)) {
+            logger.info("The monitor of {} is still connecting.", service);
+        } else if (monitor == null) {
+            logger.info("A new Monitor for {} will be created.", service);
+            creations.add(createMonitor(service, new_addresses, useSsl));
+        } else if (!monitor.isPresent() || !monitor.get().isReachable()) {
+            logger.info("{} is unreachable, its monitor will be rebuilt.", service);
+            disposeMonitor(service);
+            creations.add(createMonitor(service, new_addresses, useSsl));
+        } else if (monitor.get().usesSsl() != useSsl) {
+            logger.info("SSL settings of {} have changed, its monitor will be rebuilt.", service);
+            disposeMonitor(service);
+            creations.add(createMonitor(service, new_addresses, useSsl));
+        } else if (!Objects.equals(services.get(service), new_addresses)) {
+            // Monitors already track the ring through their control connection, contact points are only used to bootstrap
+            logger.info("Contact points of {} have changed, its monitor is kept.", service);
+        }
+        services.put(service, new_addresses);
+    }
+
+    private void awaitMonitors(final List<CompletableFuture<Optional<IMonitor>>> creations) {
+        if (creations.isEmpty()) {
+            return;
+        }
+        try {
+            CompletableFuture.allOf(creations.toArray(new CompletableFuture<?>[0]))
+                    .get(bootstrapDeadlineInMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            final long stillPending = creations.stream().filter(creation -> !creation.isDone()).count();
+            logger.warn("{} monitors are still connecting after {} ms, they will join later", stillPending, bootstrapDeadlineInMs);
+        } catch (ExecutionException e) {
+            logger.error("Cannot create monitors", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Start to create the monitor of a service, its pokes are scheduled once it is connected.
+     * Metrics of the service are kept when its monitor is rebuilt, so its series have no gap.
+     */
+    private CompletableFuture<Optional<IMonitor>> createMonitor(final Service service,
+                                                                        final Set<InetSocketAddress> addresses,
+                                                                        final boolean useSsl) {
+        final CassandraMetrics cassMetrics = metrics.computeIfAbsent(service, srv -> new CassandraMetrics(srv, latencyBackend));
+        pokeLockOf(service);
+        final long start = System.nanoTime();
+        // The previous monitor of the service is closed first, its series are not removed under the new one
+        final CompletableFuture<Optional<IMonitor>> creation = disposals.getOrDefault(service, CompletableFuture.completedFuture(null))
+                .thenApplyAsync(disposed -> connectMonitor(service, addresses, useSsl, cassMetrics), bootstrapper);
+        pendingMonitors.put(service, creation);
+        // A creation that throws is a failed one, the pending entry must be removed or the service is never retried
+        return creation.handle((monitor, error) -> {
+            if (error != null) {
+                logger.error("Cannot create the monitor of {}", service, error);
             }
+            final Optional<IMonitor> created = error == null ? monitor : Optional.empty();
+            RunnerMetrics.MONITOR_CREATION_DURATION.labels(created.isPresent() ? "connected" : "failed")
+                    .observe((System.nanoTime() - start) / 1e9);
+            registerMonitor(service, creation, created);
+            return created;
         });
+    }
+
+    /**
+     * @return the monitor of a service connected through its addresses, or empty if it cannot connect
+     */
+    protected Optional<IMonitor> connectMonitor(final Service service,
+                                                final Set<InetSocketAddress> addresses,
+                                                final boolean useSsl,
+                                                final CassandraMetrics cassMetrics) {
+        return nativeEngine.isPresent()
+                ? nativeEngine.get().fromNodes(useSsl, service, addresses, cassMetrics::removeHost, cassMetrics::recordError)
+                : CassandraMonitor.fromNodes(cfg,
+                                             useSsl,
+                                             service,
+                                             addresses,
+                                             cassMetrics::removeHost,
+                                             cassMetrics::recordError,
+                                             cassMetrics::recordRangeLatency,
+                                             probeTable,
+                                             authProvider,
+                                             sharedResources).map(IMonitor.class::cast);
+    }
+
+    private void registerMonitor(final Service service,
+                                 final CompletableFuture<Optional<IMonitor>> creation,
+                                 final Optional<IMonitor> monitor) {
+        synchronized (topologyLock) {
+            // The service was disposed while its monitor was connecting
+            if (!pendingMonitors.remove(service, creation)) {
+                monitor.ifPresent(mon -> mon.close());
+                return;
+            }
+            monitors.put(service, monitor);
+            nextPokes.put(service, System.currentTimeMillis());
+            pokes.put(service, scheduler.scheduleAtFixedRate(() -> scheduledPoke(service), 0, measurementPeriodInMs, TimeUnit.MILLISECONDS));
+        }
+    }
 
-        services = new_services;
+    private void disposeMonitor(final Service service) {
+        dispose(service, detachMonitor(service), Optional.empty());
     }
 
+    /**
+     * Stop scheduling the pokes of a service and unregister its monitor
+     *
+     * @return the monitor, to be closed once its running poke is done
+     */
+    private Optional<IMonitor> detachMonitor(final Service service) {
+        pendingMonitors.remove(service);
+        nextPokes.remove(service);
+        final ScheduledFuture<?> poke = pokes.remove(service);
+        if (poke != null) {
+            poke.cancel(false);
+        }
+        final Optional<IMonitor> monitor = monitors.remove(service);
+        return monitor != null ? monitor : Optional.empty();
+    }
+
+    /**
+     * Close a detached monitor, and the metrics of a removed service, on the disposer.
+     * Cancelling does not stop a running poke, it is waited for there, so a slow cluster does not hold the topology lock.
+     */
+    private void dispose(final Service service, final Optional<IMonitor> monitor, final Optional<CassandraMetrics> m) {
+        final Object lock = pokeLockOf(service);
+        final CompletableFuture<Void> disposal = disposals.getOrDefault(service, CompletableFuture.completedFuture(null))
+                .thenRunAsync(() -> {
+                    try {
+                        synchronized (lock) {
+                            monitor.ifPresent(mon -> mon.close());
+                            m.ifPresent(metric -> {
+                                metric.close();
+                                RunnerMetrics.POKE_DURATION.remove(service.getClusterName());
+                            });
+                        }
+                    } catch (Exception e) {
+                        logger.error("Cannot dispose the monitor of {}", service, e);
+                    }
+                    synchronized (topologyLock) {
+                        // The service may have come back meanwhile, its pokes then still need the lock
+                        if (!services.containsKey(service)) {
+                            pokeLocks.remove(service, lock);
+                        }
+                    }
+                }, disposer);
+        disposals.put(service, disposal);
+        disposal.whenComplete((ignored, error) -> disposals.remove(service, disposal));
+    }
+
+    /**
+     * Poke all the monitors at once on the scheduler's pool and wait for them to complete.
+     */
     public void poke() {
-        monitors.forEach((service, monitor) -> {
-            final CassandraMetrics m = metrics.get(service);
-            m.updateGetLatency(monitor.map(CassandraMonitor::collectGetLatencies).orElse(Collections.emptyMap()));
-            m.updateSetLatency(monitor.map(CassandraMonitor::collectSetLatencies).orElse(Collections.emptyMap()));
-            m.updateAvailability(monitor.map(CassandraMonitor::collectAvailability).orElse(Collections.emptyMap()));
-        });
+        final List<Callable<Void>> tasks = new ArrayList<>(monitors.size());
+        monitors.keySet().forEach(service -> tasks.add(() -> {
+            poke(service);
+            return null;
+        }));
+        try {
+            scheduler.invokeAll(tasks);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * The scheduler runs the late pokes back to back, the planned start of a poke is the previous one plus a period
+     */
+    private void scheduledPoke(final Service service) {
+        final Long planned = nextPokes.get(service);
+        if (planned != null) {
+            RunnerMetrics.SCHEDULE_LAG.labels("POKE").observe(Math.max(0, System.currentTimeMillis() - planned) / 1000.0);
+            nextPokes.replace(service, planned, planned + measurementPeriodInMs);
+        }
+        poke(service);
+    }
+
+    private void poke(final Service service) {
+        final Object lock = pokeLocks.get(service);
+        if (lock == null) {
+            return; // The service was removed meanwhile
+        }
+        synchronized (lock) {
+            poke(service, monitors.get(service), metrics.get(service));
+        }
+    }
+
+    private void poke(final Service service, final Optional<IMonitor> monitor, final CassandraMetrics m) {
+        if (monitor == null || m == null) {
+            return; // The monitor was disposed meanwhile
+        }
+        // Exceptions are caught, otherwise the scheduler silently stops poking this service
+        try {
+            final long start = System.currentTimeMillis();
+            m.updateGetLatency(monitor.map(IMonitor::collectGetLatencies).orElse(Collections.emptyMap()));
+            m.updateSetLatency(monitor.map(IMonitor::collectSetLatencies).orElse(Collections.emptyMap()));
+            final Map<CassandraNode, Boolean> availabilities = monitor.map(IMonitor::collectAvailability).orElse(Collections.emptyMap());
+            m.updateAvailability(availabilities);
+            if (monitor.isPresent()) {
+                // Drop the hosts the driver no longer knows, i.e. left while the monitor was rebuilt
+                m.retainHosts(availabilities.keySet());
+            }
+            final long duration = System.currentTimeMillis() - start;
+            logger.info("POKE {} took {} ms", service, duration);
+            RunnerMetrics.EVENT_DURATION.labels("POKE").observe(duration / 1000.0);
+            RunnerMetrics.POKE_DURATION.labels(service.getClusterName()).set(duration / 1000.0);
+
+            if (duration >= measurementPeriodInMs) {
+                logger.warn("Poking {} took longer than 1 tick, please increase tick rate if you see this message too often", service);
+            }
+        } catch (Exception e) {
+            logger.error("Cannot poke {}", service, e);
+        }
     }
 
     @Override
     public void close() {
-        monitors.values().stream()
-                .filter(Optional::isPresent)
-                .map(Optional::get)
-                .forEach(mon -> mon.close());
-        metrics.values()
-                .forEach(metric -> metric.close());
+        discovery.unwatch();
+        sharding.close();
+        synchronized (topologyLock) {
+            // Monitors still connecting will close themselves
+            pendingMonitors.clear();
+        }
+        bootstrapper.shutdownNow();
+        scheduler.shutdownNow();
+        try {
+            CompletableFuture.allOf(disposals.values().toArray(new CompletableFuture<?>[0])).get(1, TimeUnit.MINUTES);
+        } catch (TimeoutException | ExecutionException e) {
+            logger.warn("Some monitors could not be disposed", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        disposer.shutdownNow();
+        // The pokes still running finish before their monitor and their metrics are closed
+        monitors.forEach((service, monitor) -> {
+            synchronized (pokeLockOf(service)) {
+                monitor.ifPresent(mon -> mon.close());
+            }
+        });
+        metrics.forEach((service, metric) -> {
+            synchronized (pokeLockOf(service)) {
+                metric.close();
+            }
+        });
+        nativeEngine.ifPresent(engine -> engine.close());
+        sharedResources.ifPresent(resources -> resources.close());
     }
 
     private enum EVENT {
-        UPDATE_TOPOLOGY(System.currentTimeMillis()),
-        POKE(System.currentTimeMillis());
+        UPDATE_TOPOLOGY(System.currentTimeMillis());
 
         public long nexTick;
 
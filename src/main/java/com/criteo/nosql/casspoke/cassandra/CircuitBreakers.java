@@ -0,0 +1,196 @@
+package com.criteo.nosql.casspoke.cassandra;
+
+import com.criteo.nosql.casspoke.config.Config;
+import com.criteo.nosql.casspoke.discovery.Service;
+import io.prometheus.client.Counter;
+import io.prometheus.client.Gauge;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * A circuit breaker by node of a cluster, so a failing node is not sent probes every tick.
+ * <p/>
+ * After failureThreshold consecutive failures, the breaker of a node opens and its probes are skipped.
+ * Once its back-off has elapsed, it is half-open: a single trial probe is let through. The breaker closes
+ * if the trial succeeds, otherwise it opens again with a back-off twice as long, up to maxBackoff.
+ */
+public final class CircuitBreakers {
+
+    public enum State {
+        CLOSED(0), HALF_OPEN(1), OPEN(2);
+
+        private final int value;
+
+        State(final int value) {
+            this.value = value;
+        }
+    }
+
+    private static final Gauge STATE = Gauge.build()
+            .name("casspoke_circuit_breaker_state")
+            .help("State of the circuit breaker of a node: 0 closed, 1 half-open, 2 open")
+            .labelNames("cluster", "instance")
+            .register();
+
+    private static final Counter TRANSITIONS = Counter.build()
+            .name("casspoke_circuit_breaker_transitions_total")
+            .help("Transitions of the circuit breakers of the nodes, by cluster and new state")
+            .labelNames("cluster", "state")
+            .register();
+
+    private final String clusterName;
+    private final boolean enabled;
+    private final int failureThreshold;
+    private final long backoffInNs;
+    private final long maxBackoffInNs;
+    private final long trialTimeoutInNs;
+    private final LongSupplier clockInNs;
+    private final Map<CassandraNode, Breaker> breakers = new ConcurrentHashMap<>();
+    // Guarded by this, as the transitions: an async probe completing after the close must not register series again
+    private boolean closed;
+
+    CircuitBreakers(final Service service, final boolean enabled, final int failureThreshold, final long backoffInMs,
+                    final long maxBackoffInMs, final long trialTimeoutInMs, final LongSupplier clockInNs) {
+        this.clusterName = service.getClusterName();
+        this.enabled = enabled;
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.backoffInNs = TimeUnit.MILLISECONDS.toNanos(backoffInMs);
+        this.maxBackoffInNs = TimeUnit.MILLISECONDS.toNanos(Math.max(backoffInMs, maxBackoffInMs));
+        this.trialTimeoutInNs = TimeUnit.MILLISECONDS.toNanos(trialTimeoutInMs);
+        this.clockInNs = clockInNs;
+    }
+
+    public static CircuitBreakers fromConfig(final Config cfg, final Service service) {
+        return new CircuitBreakers(service,
+                Boolean.parseBoolean(cfg.getApp().getOrDefault("circuitBreaker", "false")),
+                Integer.parseInt(cfg.getApp().getOrDefault("circuitBreakerFailures", "3")),
+                Long.parseLong(cfg.getApp().getOrDefault("circuitBreakerBackoffInSec", "30")) * 1000L,
+                Long.parseLong(cfg.getApp().getOrDefault("circuitBreakerMaxBackoffInSec", "600")) * 1000L,
+                Long.parseLong(cfg.getApp().getOrDefault("timeoutInSec", "60")) * 1000L,
+                System::nanoTime);
+    }
+
+    /**
+     * @return true if the node can be probed now. When it is the trial of a half-open breaker, its outcome must be recorded
+     */
+    public synchronized boolean allowProbe(final CassandraNode node) {
+        if (!enabled || closed) {
+            return true;
+        }
+        final Breaker breaker = breakers.get(node);
+        return breaker == null || breaker.allowProbe();
+    }
+
+    public synchronized void recordSuccess(final CassandraNode node) {
+        if (enabled && !closed) {
+            final Breaker breaker = breakers.get(node);
+            if (breaker != null) {
+                breaker.success();
+            }
+        }
+    }
+
+    public synchronized void recordFailure(final CassandraNode node) {
+        if (enabled && !closed) {
+            breakers.computeIfAbsent(node, Breaker::new).failure();
+        }
+    }
+
+    public synchronized State stateOf(final CassandraNode node) {
+        final Breaker breaker = breakers.get(node);
+        return breaker == null ? State.CLOSED : breaker.state;
+    }
+
+    /**
+     * Forget a node that left the cluster, and its series
+     */
+    public synchronized void remove(final CassandraNode node) {
+        final Breaker breaker = breakers.remove(node);
+        if (breaker != null) {
+            STATE.remove(clusterName, breaker.instance);
+        }
+    }
+
+    /**
+     * Remove the series of this cluster only
+     */
+    public synchronized void close() {
+        closed = true;
+        breakers.keySet().forEach(this::remove);
+        for (State state : State.values()) {
+            TRANSITIONS.remove(clusterName, state.name());
+        }
+    }
+
+    /**
+     * Guarded by the lock of its CircuitBreakers
+     */
+    private final class Breaker {
+        private final String instance;
+        private final Gauge.Child stateGauge;
+        private State state = State.CLOSED;
+        private int consecutiveFailures;
+        private long backoff = backoffInNs;
+        private long openUntil;
+        private long trialStart;
+
+        private Breaker(final CassandraNode node) {
+            this.instance = node.getAddress().getAddress().getHostAddress();
+            this.stateGauge = STATE.labels(clusterName, instance);
+        }
+
+        private boolean allowProbe() {
+            final long now = clockInNs.getAsLong();
+            switch (state) {
+                case OPEN:
+                    if (now - openUntil < 0) {
+                        return false;
+                    }
+                    transition(State.HALF_OPEN);
+                    trialStart = now;
+                    return true;
+                case HALF_OPEN:
+                    // The trial was lost, e.g. skipped after it was let through
+                    if (now - trialStart >= trialTimeoutInNs) {
+                        trialStart = now;
+                        return true;
+                    }
+                    return false;
+                default:
+                    return true;
+            }
+        }
+
+        private void success() {
+            consecutiveFailures = 0;
+            if (state != State.CLOSED) {
+                backoff = backoffInNs;
+                transition(State.CLOSED);
+            }
+        }
+
+        private void failure() {
+            consecutiveFailures++;
+            if (state == State.HALF_OPEN) {
+                backoff = Math.min(maxBackoffInNs, backoff * 2);
+                open();
+            } else if (state == State.CLOSED && consecutiveFailures >= failureThreshold) {
+                open();
+            }
+        }
+
+        private void open() {
+            openUntil = clockInNs.getAsLong() + backoff;
+            transition(State.OPEN);
+        }
+
+        private void transition(final State newState) {
+            state = newState;
+            stateGauge.set(newState.value);
+            TRANSITIONS.labels(clusterName, newState.name()).inc();
+        }
+    }
+}
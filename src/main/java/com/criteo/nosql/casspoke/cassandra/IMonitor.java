@@ -0,0 +1,50 @@
+package com.criteo.nosql.casspoke.cassandra;
+
+import java.util.Map;
+
+/**
+ * Probe the nodes of a cluster
+ */
+public interface IMonitor extends AutoCloseable {
+
+    boolean usesSsl();
+
+    /**
+     * @return true if at least one node can be probed
+     */
+    boolean isReachable();
+
+    Map<CassandraNode, Boolean> collectAvailability();
+
+    /**
+     * @return the latencies in nanoseconds of a successful read by node, the failures go to the ErrorListener
+     */
+    Map<CassandraNode, Long> collectGetLatencies();
+
+    /**
+     * @return the latencies in nanoseconds of a successful write by node, the failures go to the ErrorListener
+     */
+    Map<CassandraNode, Long> collectSetLatencies();
+
+    @Override
+    void close();
+
+    /**
+     * Notified of the probes that failed
+     */
+    @FunctionalInterface
+    interface ErrorListener {
+        /**
+         * @param command get or set, as the latency series
+         */
+        void onProbeError(CassandraNode node, String command, Throwable error);
+    }
+
+    /**
+     * Notified of the latencies of the probes sent to a replica of a token-range bucket, besides the latency by node
+     */
+    @FunctionalInterface
+    interface RangeLatencyListener {
+        void onRangeLatency(CassandraNode node, String command, int bucket, long latencyInNs);
+    }
+}
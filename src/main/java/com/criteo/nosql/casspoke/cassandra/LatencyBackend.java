@@ -0,0 +1,66 @@
+package com.criteo.nosql.casspoke.cassandra;
+
+/**
+ * Where the latencies measured by the probes are recorded.
+ * Series are identified by the label values cluster, instance, rack, command, datacenter, and range for the
+ * latencies of the replica probes.
+ */
+public interface LatencyBackend {
+
+    /**
+     * Latencies recorded in the 'cassandra_latency' and 'cassandra_range_latency' summaries, in nanoseconds
+     */
+    LatencyBackend SUMMARY = new LatencyBackend() {
+        @Override
+        public LatencyRecorder recorder(String cluster, String instance, String rack, String command, String datacenter) {
+            return CassandraMetrics.LATENCY.labels(cluster, instance, rack, command, datacenter)::observe;
+        }
+
+        @Override
+        public void remove(String cluster, String instance, String rack, String command, String datacenter) {
+            CassandraMetrics.LATENCY.remove(cluster, instance, rack, command, datacenter);
+        }
+
+        @Override
+        public LatencyRecorder rangeRecorder(String cluster, String instance, String rack, String command, String datacenter, String range) {
+            return CassandraMetrics.RANGE_LATENCY.labels(cluster, instance, rack, command, datacenter, range)::observe;
+        }
+
+        @Override
+        public void removeRange(String cluster, String instance, String rack, String command, String datacenter, String range) {
+            CassandraMetrics.RANGE_LATENCY.remove(cluster, instance, rack, command, datacenter, range);
+        }
+    };
+
+    /**
+     * @param name summary or histogram
+     */
+    static LatencyBackend fromName(final String name) {
+        switch (name) {
+            case "summary":
+                return SUMMARY;
+            case "histogram":
+                return LatencyHistogram.get();
+            default:
+                throw new IllegalArgumentException("Unknown latency backend " + name);
+        }
+    }
+
+    /**
+     * @return the recorder of a series, created if needed
+     */
+    LatencyRecorder recorder(String cluster, String instance, String rack, String command, String datacenter);
+
+    void remove(String cluster, String instance, String rack, String command, String datacenter);
+
+    /**
+     * @return the recorder of the series of a token-range bucket, created if needed
+     */
+    LatencyRecorder rangeRecorder(String cluster, String instance, String rack, String command, String datacenter, String range);
+
+    void removeRange(String cluster, String instance, String rack, String command, String datacenter, String range);
+
+    interface LatencyRecorder {
+        void observe(long latencyInNs);
+    }
+}
@@ -0,0 +1,147 @@
+package com.criteo.nosql.casspoke.cassandra;
+
+import io.prometheus.client.Collector;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency backend exporting the Prometheus histograms 'cassandra_latency_seconds' and 'cassandra_range_latency_seconds'.
+ * <p/>
+ * Each series counts its observations in fixed exponential buckets, with one lock-free adder per bucket, so it
+ * costs a few hundred bytes whatever the number of observations. As the buckets are the same for every series,
+ * they can be aggregated across clusters and casspoke instances.
+ */
+public final class LatencyHistogram extends Collector implements LatencyBackend {
+
+    // From 100us to ~105s, doubling each time: the slowest probes still fall in a bucket with the default timeout of 60s
+    private static final double[] BUCKETS_IN_SEC = new double[21];
+    private static final long[] BUCKETS_IN_NS = new long[BUCKETS_IN_SEC.length];
+    private static final String[] BUCKETS_LE = new String[BUCKETS_IN_SEC.length + 1];
+    static {
+        for (int i = 0; i < BUCKETS_IN_SEC.length; i++) {
+            BUCKETS_IN_SEC[i] = 0.0001 * (1L << i);
+            BUCKETS_IN_NS[i] = 100_000L * (1L << i);
+            BUCKETS_LE[i] = doubleToGoString(BUCKETS_IN_SEC[i]);
+        }
+        BUCKETS_LE[BUCKETS_IN_SEC.length] = "+Inf";
+    }
+
+    private final Family latency = new Family("cassandra_latency_seconds",
+            "latencies observed by instance and command",
+            "cluster", "instance", "rack", "command", "datacenter");
+    private final Family rangeLatency = new Family("cassandra_range_latency_seconds",
+            "latencies observed by instance, command and token-range bucket, the instance being its replica",
+            "cluster", "instance", "rack", "command", "datacenter", "range");
+
+    LatencyHistogram() {
+    }
+
+    /**
+     * @return the histograms, registered to the default registry on first use
+     */
+    public static LatencyHistogram get() {
+        return Holder.INSTANCE;
+    }
+
+    private static final class Holder {
+        private static final LatencyHistogram INSTANCE = new LatencyHistogram().register();
+    }
+
+    @Override
+    public LatencyRecorder recorder(String cluster, String instance, String rack, String command, String datacenter) {
+        return latency.recorder(cluster, instance, rack, command, datacenter);
+    }
+
+    @Override
+    public void remove(String cluster, String instance, String rack, String command, String datacenter) {
+        latency.remove(cluster, instance, rack, command, datacenter);
+    }
+
+    @Override
+    public LatencyRecorder rangeRecorder(String cluster, String instance, String rack, String command, String datacenter, String range) {
+        return rangeLatency.recorder(cluster, instance, rack, command, datacenter, range);
+    }
+
+    @Override
+    public void removeRange(String cluster, String instance, String rack, String command, String datacenter, String range) {
+        rangeLatency.remove(cluster, instance, rack, command, datacenter, range);
+    }
+
+    @Override
+    public List<MetricFamilySamples> collect() {
+        return Arrays.asList(latency.collect(), rangeLatency.collect());
+    }
+
+    /**
+     * @return the index of the first bucket whose upper bound is greater or equal to the latency, the last one being +Inf
+     */
+    static int bucketOf(final long latencyInNs) {
+        final int idx = Arrays.binarySearch(BUCKETS_IN_NS, latencyInNs);
+        return idx >= 0 ? idx : -idx - 1;
+    }
+
+    private static final class Family {
+        private final String name;
+        private final String help;
+        private final List<String> labelNames;
+        private final List<String> bucketLabelNames;
+        private final Map<List<String>, Child> children = new ConcurrentHashMap<>();
+
+        private Family(final String name, final String help, final String... labelNames) {
+            this.name = name;
+            this.help = help;
+            this.labelNames = Arrays.asList(labelNames);
+            final List<String> bucketLabelNames = new ArrayList<>(this.labelNames);
+            bucketLabelNames.add("le");
+            this.bucketLabelNames = Collections.unmodifiableList(bucketLabelNames);
+        }
+
+        private Child recorder(final String... labelValues) {
+            return children.computeIfAbsent(Arrays.asList(labelValues), Child::new);
+        }
+
+        private void remove(final String... labelValues) {
+            children.remove(Arrays.asList(labelValues));
+        }
+
+        private MetricFamilySamples collect() {
+            final List<MetricFamilySamples.Sample> samples = new ArrayList<>(children.size() * (BUCKETS_LE.length + 2));
+
+            children.forEach((labels, child) -> {
+                long cumulative = 0;
+                for (int i = 0; i < BUCKETS_LE.length; i++) {
+                    cumulative += child.bucketCounts[i].sum();
+                    samples.add(new MetricFamilySamples.Sample(name + "_bucket", bucketLabelNames, child.bucketLabels.get(i), cumulative));
+                }
+                samples.add(new MetricFamilySamples.Sample(name + "_count", labelNames, labels, cumulative));
+                samples.add(new MetricFamilySamples.Sample(name + "_sum", labelNames, labels, child.sumInNs.sum() / NANOSECONDS_PER_SECOND));
+            });
+
+            return new MetricFamilySamples(name, Type.HISTOGRAM, help, samples);
+        }
+    }
+
+    private static final class Child implements LatencyRecorder {
+        private final List<List<String>> bucketLabels = new ArrayList<>(BUCKETS_LE.length);
+        private final LongAdder[] bucketCounts = new LongAdder[BUCKETS_LE.length];
+        private final LongAdder sumInNs = new LongAdder();
+
+        private Child(final List<String> labels) {
+            for (int i = 0; i < BUCKETS_LE.length; i++) {
+                final List<String> bucket = new ArrayList<>(labels);
+                bucket.add(BUCKETS_LE[i]);
+                bucketLabels.add(Collections.unmodifiableList(bucket));
+                bucketCounts[i] = new LongAdder();
+            }
+        }
+
+        @Override
+        public void observe(long latencyInNs) {
+            final long latency = Math.max(0, latencyInNs);
+            bucketCounts[bucketOf(latency)].increment();
+            sumInNs.add(latency);
+        }
+    }
+}
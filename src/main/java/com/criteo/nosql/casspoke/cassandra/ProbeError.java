@@ -0,0 +1,88 @@
+package com.criteo.nosql.casspoke.cassandra;
+
+import com.criteo.nosql.casspoke.cassandra.nativeprotocol.NativeProtocolException;
+import com.datastax.driver.core.exceptions.*;
+
+import java.io.IOException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Kind of the failure of a probe, the 'error' label of cassandra_probe_errors_total
+ */
+public enum ProbeError {
+    READ_TIMEOUT("read_timeout"),
+    WRITE_TIMEOUT("write_timeout"),
+    CLIENT_TIMEOUT("client_timeout"),
+    UNAVAILABLE("unavailable"),
+    OVERLOADED("overloaded"),
+    NO_HOST("no_host"),
+    CONNECTION("connection"),
+    OTHER("other");
+
+    // Error codes of the section 9 of the native protocol spec
+    private static final int UNAVAILABLE_CODE = 0x1000;
+    private static final int OVERLOADED_CODE = 0x1001;
+    private static final int IS_BOOTSTRAPPING_CODE = 0x1002;
+    private static final int WRITE_TIMEOUT_CODE = 0x1100;
+    private static final int READ_TIMEOUT_CODE = 0x1200;
+
+    private final String label;
+
+    ProbeError(final String label) {
+        this.label = label;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    public static ProbeError classify(final Throwable error) {
+        Throwable t = error;
+        while ((t instanceof ExecutionException || t instanceof CompletionException) && t.getCause() != null) {
+            t = t.getCause();
+        }
+
+        // The driver wraps the error of a probe pinned to a host when it cannot reach it
+        if (t instanceof NoHostAvailableException) {
+            final NoHostAvailableException noHost = (NoHostAvailableException) t;
+            return noHost.getErrors().size() == 1 ? classify(noHost.getErrors().values().iterator().next()) : NO_HOST;
+        }
+        if (t instanceof ReadTimeoutException) {
+            return READ_TIMEOUT;
+        }
+        if (t instanceof WriteTimeoutException) {
+            return WRITE_TIMEOUT;
+        }
+        if (t instanceof OperationTimedOutException || t instanceof TimeoutException) {
+            return CLIENT_TIMEOUT;
+        }
+        if (t instanceof UnavailableException) {
+            return UNAVAILABLE;
+        }
+        if (t instanceof OverloadedException || t instanceof BootstrappingException || t instanceof BusyPoolException
+                || t instanceof BusyConnectionException) {
+            return OVERLOADED;
+        }
+        if (t instanceof ConnectionException || t instanceof IOException) {
+            return CONNECTION;
+        }
+        if (t instanceof NativeProtocolException) {
+            switch (((NativeProtocolException) t).getCode()) {
+                case UNAVAILABLE_CODE:
+                    return UNAVAILABLE;
+                case OVERLOADED_CODE:
+                case IS_BOOTSTRAPPING_CODE:
+                    return OVERLOADED;
+                case WRITE_TIMEOUT_CODE:
+                    return WRITE_TIMEOUT;
+                case READ_TIMEOUT_CODE:
+                    return READ_TIMEOUT;
+                default:
+                    return OTHER;
+            }
+        }
+        return OTHER;
+    }
+}
@@ -0,0 +1,108 @@
+package com.criteo.nosql.casspoke.cassandra;
+
+import com.criteo.nosql.casspoke.config.Config;
+import com.datastax.driver.core.ConsistencyLevel;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A table dedicated to the write probes, instead of system_traces.events.
+ * <p/>
+ * Each probe writes a single row in its own partition, whose key depends on the probed node and on the tick.
+ * The writes are then spread over the whole ring instead of growing one partition on the same replicas.
+ * Rows are never updated nor deleted, they expire with the default TTL of the table, and TimeWindowCompactionStrategy
+ * drops the expired sstables as a whole.
+ */
+public final class ProbeTable {
+
+    private final String keyspace;
+    private final String table;
+    private final int ttlInSec;
+    private final ConsistencyLevel consistency;
+    private final boolean createSchema;
+    private final String replication;
+
+    ProbeTable(final String keyspace, final String table, final int ttlInSec, final ConsistencyLevel consistency,
+               final boolean createSchema, final String replication) {
+        this.keyspace = keyspace;
+        this.table = table;
+        this.ttlInSec = ttlInSec;
+        this.consistency = consistency;
+        this.createSchema = createSchema;
+        this.replication = replication;
+    }
+
+    /**
+     * @return the table configured with probeTable: keyspace.table, or empty to write in system_traces.events
+     */
+    public static Optional<ProbeTable> fromConfig(final Config cfg) {
+        final String name = cfg.getApp().get("probeTable");
+        if (name == null || name.isEmpty()) {
+            return Optional.empty();
+        }
+        final String[] parts = name.split("\\.");
+        if (parts.length != 2) {
+            throw new IllegalArgumentException("probeTable should be keyspace.table, not " + name);
+        }
+        return Optional.of(new ProbeTable(parts[0], parts[1],
+                Integer.parseInt(cfg.getApp().getOrDefault("probeTtlInSec", "3600")),
+                ConsistencyLevel.valueOf(cfg.getApp().getOrDefault("probeConsistency", "ONE").toUpperCase()),
+                Boolean.parseBoolean(cfg.getApp().getOrDefault("createProbeSchema", "false")),
+                cfg.getApp().getOrDefault("probeReplication", "{'class': 'SimpleStrategy', 'replication_factor': 3}")));
+    }
+
+    public ConsistencyLevel getConsistency() {
+        return consistency;
+    }
+
+    /**
+     * @return the statements creating the keyspace and the table when createProbeSchema is set, none otherwise
+     */
+    public List<String> schemaStatements() {
+        if (!createSchema) {
+            return Collections.emptyList();
+        }
+        // About 12 windows over the TTL, the last one is dropped as soon as all its rows are expired
+        final long windowInMin = Math.max(1, TimeUnit.SECONDS.toMinutes(ttlInSec) / 12);
+        return Arrays.asList(
+                "CREATE KEYSPACE IF NOT EXISTS " + keyspace + " WITH replication = " + replication,
+                "CREATE TABLE IF NOT EXISTS " + keyspace + "." + table + " (id text PRIMARY KEY, written_at timeuuid)" +
+                        " WITH default_time_to_live = " + ttlInSec +
+                        // Rows are only written once and expire, no tombstone needs to wait for a repair
+                        " AND gc_grace_seconds = 0" +
+                        " AND compaction = {'class': 'TimeWindowCompactionStrategy'," +
+                        " 'compaction_window_unit': 'MINUTES', 'compaction_window_size': " + windowInMin + "}");
+    }
+
+    /**
+     * @return the statement to prepare, the key being its only bind marker
+     */
+    public String insertStatement() {
+        return "INSERT INTO " + keyspace + "." + table + " (id, written_at) VALUES (?, now())";
+    }
+
+    /**
+     * @return the read of a probe row, the key being its only bind marker
+     */
+    public String selectStatement() {
+        return "SELECT id FROM " + keyspace + "." + table + " WHERE id = ?";
+    }
+
+    /**
+     * @return the same insert, with the key as a literal for the engines that do not prepare
+     */
+    public String insertStatement(final String key) {
+        return "INSERT INTO " + keyspace + "." + table + " (id, written_at) VALUES ('" + key.replace("'", "''") + "', now())";
+    }
+
+    /**
+     * @return the partition key of the probe of a node at a tick, a new one each time even across restarts
+     */
+    public static String key(final CassandraNode node, final long tickInMs) {
+        return node.getAddress().getAddress().getHostAddress() + ":" + node.getAddress().getPort() + ":" + tickInMs;
+    }
+}
@@ -0,0 +1,42 @@
+package com.criteo.nosql.casspoke.cassandra;
+
+import org.slf4j.Logger;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Log at most one error per interval, the errors in between are only counted.
+ * During an outage every probe fails, logging all of them would cost more than the probes.
+ */
+public final class RateLimitedLog {
+    private static final long INTERVAL_IN_NS = TimeUnit.SECONDS.toNanos(10);
+
+    private final Logger logger;
+    private long nextLogInNs = System.nanoTime();
+    private int suppressed;
+
+    public RateLimitedLog(final Logger logger) {
+        this.logger = logger;
+    }
+
+    /**
+     * Same as Logger.error, the last argument being the exception
+     */
+    public void error(final String format, final Object... arguments) {
+        final int skipped;
+        synchronized (this) {
+            final long now = System.nanoTime();
+            if (now - nextLogInNs < 0) {
+                suppressed++;
+                return;
+            }
+            nextLogInNs = now + INTERVAL_IN_NS;
+            skipped = suppressed;
+            suppressed = 0;
+        }
+        if (skipped > 0) {
+            logger.error("{} other errors were not logged since the previous one", skipped);
+        }
+        logger.error(format, arguments);
+    }
+}
@@ -0,0 +1,127 @@
+package com.criteo.nosql.casspoke.cassandra;
+
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * Partition keys owned by the primary ranges of each node, grouped in token-range buckets.
+ * <p/>
+ * The ring is split in buckets of consecutive ranges, with vnodes a node owns ranges in most of them. Each round
+ * picks one bucket by node and finds a key in it by hashing candidates salted with the round, so a probe of the key
+ * sent to its node measures it as the replica of real data, and every write lands in a new partition.
+ * <p/>
+ * A round hashes a few candidates by node at most. The candidates landing in a bucket not wanted by this round are
+ * kept for a later one, each key being used once. Not thread-safe, it is used by the poke of its monitor.
+ *
+ * @param <H> the hosts, owning the tokens
+ * @param <T> the tokens of the partitioner
+ */
+final class ReplicaKeys<H, T extends Comparable<? super T>> {
+
+    // A node owning a tiny range may not get a key in a round, it is then probed as a coordinator
+    static final int ATTEMPTS_PER_HOST = 64;
+
+    private final NavigableMap<T, H> ring;
+    private final Function<String, T> tokenOf;
+    // The range (previous token, token] belongs to the owner of the token, and to the bucket of the token
+    private final Map<T, Integer> bucketOf;
+    // The buckets where each host owns at least one range, in order
+    private final Map<H, List<Integer>> buckets;
+    // A key not used yet by host and bucket, found by a previous round
+    private final Map<H, Map<Integer, String>> spareKeys = new HashMap<>();
+
+    private ReplicaKeys(final NavigableMap<T, H> ring, final Function<String, T> tokenOf,
+                        final Map<T, Integer> bucketOf, final Map<H, List<Integer>> buckets) {
+        this.ring = ring;
+        this.tokenOf = tokenOf;
+        this.bucketOf = bucketOf;
+        this.buckets = buckets;
+    }
+
+    /**
+     * @param tokens  the tokens of each host
+     * @param tokenOf the token of a partition key, as computed by the partitioner of the cluster
+     * @param buckets the number of buckets the ring is split in
+     */
+    static <H, T extends Comparable<? super T>> ReplicaKeys<H, T> build(final Map<H, ? extends Collection<T>> tokens,
+                                                                        final Function<String, T> tokenOf,
+                                                                        final int buckets) {
+        final TreeMap<T, H> ring = new TreeMap<>();
+        tokens.forEach((host, hostTokens) -> hostTokens.forEach(token -> ring.put(token, host)));
+
+        final Map<T, Integer> bucketOf = new HashMap<>(ring.size());
+        final Map<H, List<Integer>> hostBuckets = new HashMap<>();
+        int index = 0;
+        for (Map.Entry<T, H> entry : ring.entrySet()) {
+            final int bucket = (int) ((long) index++ * buckets / ring.size());
+            bucketOf.put(entry.getKey(), bucket);
+            final List<Integer> owned = hostBuckets.computeIfAbsent(entry.getValue(), host -> new ArrayList<>());
+            if (!owned.contains(bucket)) {
+                owned.add(bucket);
+            }
+        }
+        return new ReplicaKeys<>(ring, tokenOf, bucketOf, hostBuckets);
+    }
+
+    /**
+     * @param round the buckets of a host are probed in turn, one by round
+     * @param salt  makes the keys of a round differ from the ones of the previous rounds, e.g. the tick
+     * @return a key of the bucket of each host for this round
+     */
+    Map<H, Key> pick(final long round, final long salt) {
+        final Map<H, Integer> wanted = new HashMap<>(buckets.size());
+        buckets.forEach((host, owned) -> wanted.put(host, owned.get((int) (round % owned.size()))));
+
+        final Map<H, Key> picked = new HashMap<>(wanted.size());
+        wanted.forEach((host, bucket) -> {
+            final String spare = spareKeys.getOrDefault(host, Collections.emptyMap()).remove(bucket);
+            if (spare != null) {
+                picked.put(host, new Key(bucket, spare));
+            }
+        });
+
+        final long maxAttempts = (long) ATTEMPTS_PER_HOST * wanted.size();
+        for (int attempt = 0; attempt < maxAttempts && picked.size() < wanted.size(); attempt++) {
+            final String key = "casspoke:" + salt + ":" + attempt;
+            Map.Entry<T, H> owner = ring.ceilingEntry(tokenOf.apply(key));
+            if (owner == null) {
+                owner = ring.firstEntry();
+            }
+            final H host = owner.getValue();
+            final int bucket = bucketOf.get(owner.getKey());
+            if (wanted.get(host) == bucket && !picked.containsKey(host)) {
+                picked.put(host, new Key(bucket, key));
+            } else {
+                spareKeys.computeIfAbsent(host, h -> new HashMap<>()).putIfAbsent(bucket, key);
+            }
+        }
+        return picked;
+    }
+
+    List<Integer> bucketsOf(final H host) {
+        return buckets.getOrDefault(host, Collections.emptyList());
+    }
+
+    static final class Key {
+        private final int bucket;
+        private final String value;
+
+        private Key(final int bucket, final String value) {
+            this.bucket = bucket;
+            this.value = value;
+        }
+
+        int getBucket() {
+            return bucket;
+        }
+
+        String getValue() {
+            return value;
+        }
+
+        @Override
+        public String toString() {
+            return value + "@" + bucket;
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.criteo.nosql.casspoke.cassandra;
+
+import io.prometheus.client.Counter;
+import io.prometheus.client.Gauge;
+import io.prometheus.client.Histogram;
+
+/**
+ * Metrics of casspoke itself: how long its events take and how late they start compared to their schedule
+ */
+public final class RunnerMetrics {
+
+    private static final double[] DURATION_BUCKETS = {0.01, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60, 120, 300, 600};
+    private static final double[] LAG_BUCKETS = {0.001, 0.005, 0.01, 0.05, 0.1, 0.25, 0.5, 1, 5, 10, 30, 60};
+
+    public static final Histogram EVENT_DURATION = Histogram.build()
+            .name("casspoke_event_duration_seconds")
+            .help("Duration of the events of the runner, UPDATE_TOPOLOGY and POKE")
+            .labelNames("event")
+            .buckets(DURATION_BUCKETS)
+            .register();
+
+    public static final Histogram SCHEDULE_LAG = Histogram.build()
+            .name("casspoke_schedule_lag_seconds")
+            .help("Delay between the planned start of an event and its actual start")
+            .labelNames("event")
+            .buckets(LAG_BUCKETS)
+            .register();
+
+    public static final Gauge POKE_DURATION = Gauge.build()
+            .name("casspoke_poke_duration_seconds")
+            .help("Wall time of the last poke of a cluster")
+            .labelNames("cluster")
+            .register();
+
+    public static final Histogram MONITOR_CREATION_DURATION = Histogram.build()
+            .name("casspoke_monitor_creation_duration_seconds")
+            .help("Time to create the monitor of a cluster, by result")
+            .labelNames("result")
+            .buckets(DURATION_BUCKETS)
+            .register();
+
+    public static final Histogram DISCOVERY_DURATION = Histogram.build()
+            .name("casspoke_discovery_duration_seconds")
+            .help("Time to get the services and their nodes from the discovery")
+            .buckets(DURATION_BUCKETS)
+            .register();
+
+    public static final Counter DISCOVERY_ERRORS = Counter.build()
+            .name("casspoke_discovery_errors_total")
+            .help("Discoveries that failed or returned no service")
+            .register();
+
+    private RunnerMetrics() {
+    }
+}
@@ -0,0 +1,227 @@
+package com.criteo.nosql.casspoke.cassandra;
+
+import com.datastax.driver.core.NettyOptions;
+import com.datastax.driver.core.ThreadingOptions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timer;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Threads shared by the Clusters of all the monitors, so their number does not grow with the number of clusters.
+ * <p/>
+ * A Cluster shuts its executors down when it is closed. Each Cluster thus gets its own view of the shared pools,
+ * whose shutdown only cancels the tasks it scheduled.
+ */
+public class SharedDriverResources implements AutoCloseable {
+
+    private final EventLoopGroup eventLoop;
+    private final HashedWheelTimer timer;
+    private final ExecutorService executor;
+    private final ExecutorService blockingExecutor;
+    private final ScheduledThreadPoolExecutor scheduler;
+    private final NettyOptions nettyOptions;
+    private final ThreadingOptions threadingOptions;
+
+    /**
+     * @param ioThreads       threads of the event loop, reading and writing the connections of all the clusters
+     * @param workerThreads   threads completing the requests, i.e. running the callbacks of the probes
+     * @param blockingThreads threads of the host up/down handling, the reconnections and the pool creations.
+     *                        A cluster with hosts stuck on connect holds them and delays these events for the others
+     */
+    public SharedDriverResources(final int ioThreads, final int workerThreads, final int blockingThreads) {
+        this.eventLoop = new NioEventLoopGroup(ioThreads, threadFactory("driver-io-%d"));
+        this.timer = new HashedWheelTimer(threadFactory("driver-timer-%d"));
+        this.executor = Executors.newFixedThreadPool(workerThreads, threadFactory("driver-worker-%d"));
+        this.blockingExecutor = Executors.newFixedThreadPool(blockingThreads, threadFactory("driver-blocking-%d"));
+        this.scheduler = new ScheduledThreadPoolExecutor(2, threadFactory("driver-scheduler-%d"));
+        // The tasks of the closed clusters must not pile up in the queue
+        this.scheduler.setRemoveOnCancelPolicy(true);
+
+        this.nettyOptions = new NettyOptions() {
+            @Override
+            public EventLoopGroup eventLoopGroup(ThreadFactory threadFactory) {
+                return eventLoop;
+            }
+
+            @Override
+            public Class<? extends SocketChannel> channelClass() {
+                return NioSocketChannel.class;
+            }
+
+            @Override
+            public void onClusterClose(EventLoopGroup eventLoopGroup) {
+                // Shared, closed with the runner
+            }
+
+            @Override
+            public Timer timer(ThreadFactory threadFactory) {
+                return timer;
+            }
+
+            @Override
+            public void onClusterClose(Timer timer) {
+                // Shared, closed with the runner
+            }
+        };
+
+        this.threadingOptions = new ThreadingOptions() {
+            @Override
+            public ExecutorService createExecutor(String clusterName) {
+                return new ScopedExecutorService(executor);
+            }
+
+            @Override
+            public ExecutorService createBlockingExecutor(String clusterName) {
+                return new ScopedExecutorService(blockingExecutor);
+            }
+
+            @Override
+            public ScheduledExecutorService createReconnectionExecutor(String clusterName) {
+                return new ScopedScheduledExecutorService(scheduler);
+            }
+
+            @Override
+            public ScheduledExecutorService createScheduledTasksExecutor(String clusterName) {
+                return new ScopedScheduledExecutorService(scheduler);
+            }
+
+            @Override
+            public ScheduledExecutorService createReaperExecutor(String clusterName) {
+                return new ScopedScheduledExecutorService(scheduler);
+            }
+        };
+    }
+
+    private static ThreadFactory threadFactory(final String nameFormat) {
+        return new ThreadFactoryBuilder().setNameFormat(nameFormat).setDaemon(true).build();
+    }
+
+    public NettyOptions getNettyOptions() {
+        return nettyOptions;
+    }
+
+    public ThreadingOptions getThreadingOptions() {
+        return threadingOptions;
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+        executor.shutdownNow();
+        blockingExecutor.shutdownNow();
+        timer.stop();
+        eventLoop.shutdownGracefully(0, 1, TimeUnit.SECONDS);
+    }
+
+    /**
+     * The view of a shared executor given to a Cluster. Once shut down, it rejects new tasks but leaves the pool running.
+     */
+    private static class ScopedExecutorService extends AbstractExecutorService {
+        private final ExecutorService delegate;
+        protected volatile boolean shutdown;
+
+        private ScopedExecutorService(final ExecutorService delegate) {
+            this.delegate = delegate;
+        }
+
+        protected void checkNotShutdown() {
+            if (shutdown) {
+                throw new RejectedExecutionException("The cluster is closed");
+            }
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            checkNotShutdown();
+            delegate.execute(command);
+        }
+
+        @Override
+        public void shutdown() {
+            shutdown = true;
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            shutdown();
+            return Collections.emptyList();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return shutdown;
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return shutdown;
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) {
+            return shutdown;
+        }
+    }
+
+    /**
+     * The view of the shared scheduler given to a Cluster. Its shutdown cancels the tasks scheduled through it,
+     * e.g. the periodic task of the connection reaper.
+     */
+    private static final class ScopedScheduledExecutorService extends ScopedExecutorService implements ScheduledExecutorService {
+        private final ScheduledExecutorService delegate;
+        private final Set<ScheduledFuture<?>> scheduled = Collections.newSetFromMap(new ConcurrentHashMap<>());
+
+        private ScopedScheduledExecutorService(final ScheduledExecutorService delegate) {
+            super(delegate);
+            this.delegate = delegate;
+        }
+
+        private <T extends ScheduledFuture<?>> T track(final T future) {
+            scheduled.removeIf(Future::isDone);
+            scheduled.add(future);
+            // Closed meanwhile
+            if (shutdown) {
+                future.cancel(false);
+            }
+            return future;
+        }
+
+        @Override
+        public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+            checkNotShutdown();
+            return track(delegate.schedule(command, delay, unit));
+        }
+
+        @Override
+        public <V> ScheduledFuture<V> schedule(Callable<V> callable, long delay, TimeUnit unit) {
+            checkNotShutdown();
+            return track(delegate.schedule(callable, delay, unit));
+        }
+
+        @Override
+        public ScheduledFuture<?> scheduleAtFixedRate(Runnable command, long initialDelay, long period, TimeUnit unit) {
+            checkNotShutdown();
+            return track(delegate.scheduleAtFixedRate(command, initialDelay, period, unit));
+        }
+
+        @Override
+        public ScheduledFuture<?> scheduleWithFixedDelay(Runnable command, long initialDelay, long delay, TimeUnit unit) {
+            checkNotShutdown();
+            return track(delegate.scheduleWithFixedDelay(command, initialDelay, delay, unit));
+        }
+
+        @Override
+        public void shutdown() {
+            super.shutdown();
+            scheduled.forEach(future -> future.cancel(false));
+            scheduled.clear();
+        }
+    }
+}
@@ -5,6 +5,7 @@ import com.datastax.driver.core.Host;
 import com.datastax.driver.core.HostDistance;
 import com.datastax.driver.core.Statement;
 import com.datastax.driver.core.policies.LoadBalancingPolicy;
+import com.google.common.collect.Iterators;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -20,18 +21,22 @@ import java.util.function.Consumer;
  * <p/>
  * This policy queries nodes in a round-robin fashion. For a given query,
  * the plan try only one host: if it fails, the query fails immediately.
+ * A statement pinned to a host with {@link Statement#setHost(Host)} is always
+ * sent to this host.
  * <p/>
  * This policy is not datacenter aware and will include every known
  * Cassandra host in its round robin algorithm.
+ * <p/>
+ * Live hosts are kept in an immutable array replaced on each topology change,
+ * so query plans are built without any lock.
  */
 public class WhiteLBPolicy implements LoadBalancingPolicy {
 
     private static final Logger logger = LoggerFactory.getLogger(WhiteLBPolicy.class);
 
-    // TODO: It is clearly NOT thread safe !!!
-    public final AtomicReference<Host> theLastTargetedHost = new AtomicReference<>();
+    private static final Host[] NO_HOST = new Host[0];
 
-    private final List<Host> liveHosts = new ArrayList<>();
+    private final AtomicReference<Host[]> liveHosts = new AtomicReference<>(NO_HOST);
     private final AtomicInteger index = new AtomicInteger();
     private final Consumer<Host> onHostRemoved;
 
@@ -44,8 +49,8 @@ public class WhiteLBPolicy implements LoadBalancingPolicy {
     }
 
     @Override
-    synchronized public void init(Cluster cluster, Collection<Host> hosts) {
-        this.liveHosts.addAll(hosts);
+    public void init(Cluster cluster, Collection<Host> hosts) {
+        this.liveHosts.set(new LinkedHashSet<>(hosts).toArray(NO_HOST));
         this.index.set(0);
     }
 
@@ -67,7 +72,8 @@ public class WhiteLBPolicy implements LoadBalancingPolicy {
      * <p/>
      * The returned plan will try one known host of the cluster. Upon each
      * call to this method, the {@code i}th host of the plans returned will cycle
-     * over all the hosts of the cluster in a round-robin fashion.
+     * over all the hosts of the cluster in a round-robin fashion, unless the
+     * statement is pinned to a host.
      *
      * @param loggedKeyspace the keyspace currently logged in on for this
      *                       query.
@@ -76,28 +82,52 @@ public class WhiteLBPolicy implements LoadBalancingPolicy {
      * try first for querying, which one to use as failover, etc...
      */
     @Override
-    synchronized public Iterator<Host> newQueryPlan(String loggedKeyspace, Statement statement) {
+    public Iterator<Host> newQueryPlan(String loggedKeyspace, Statement statement) {
 
-        final int startIdx = index.getAndIncrement();
-        // Overflow protection
-        if (startIdx > Integer.MAX_VALUE - 10000)
-            index.set(0);
+        if (statement.getHost() != null) {
+            return Iterators.singletonIterator(statement.getHost());
+        }
 
-        final Host host = liveHosts.get(startIdx % liveHosts.size());
-        theLastTargetedHost.set(host); // TODO: not thread safe !!!
-        return Collections.singleton(host).iterator();
+        final Host[] hosts = liveHosts.get();
+        if (hosts.length == 0) {
+            return Collections.emptyIterator();
+        }
+
+        // Masking the sign bit keeps the index positive when the counter overflows
+        final int startIdx = index.getAndIncrement() & Integer.MAX_VALUE;
+        return Iterators.singletonIterator(hosts[startIdx % hosts.length]);
     }
 
     @Override
-    synchronized public void onUp(Host host) {
-        if (!liveHosts.contains(host)) {
-            liveHosts.add(host);
+    public void onUp(Host host) {
+        for (; ; ) {
+            final Host[] hosts = liveHosts.get();
+            if (Arrays.asList(hosts).contains(host)) {
+                return;
+            }
+            final Host[] newHosts = Arrays.copyOf(hosts, hosts.length + 1);
+            newHosts[hosts.length] = host;
+            if (liveHosts.compareAndSet(hosts, newHosts)) {
+                return;
+            }
         }
     }
 
     @Override
-    synchronized public void onDown(Host host) {
-        liveHosts.remove(host);
+    public void onDown(Host host) {
+        for (; ; ) {
+            final Host[] hosts = liveHosts.get();
+            final int idx = Arrays.asList(hosts).indexOf(host);
+            if (idx < 0) {
+                return;
+            }
+            final Host[] newHosts = new Host[hosts.length - 1];
+            System.arraycopy(hosts, 0, newHosts, 0, idx);
+            System.arraycopy(hosts, idx + 1, newHosts, idx, newHosts.length - idx);
+            if (liveHosts.compareAndSet(hosts, newHosts)) {
+                return;
+            }
+        }
     }
 
     @Override
@@ -115,4 +145,4 @@ public class WhiteLBPolicy implements LoadBalancingPolicy {
     public void close() {
         // nothing to do
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,273 @@
+package com.criteo.nosql.casspoke.cassandra.nativeprotocol;
+
+import com.datastax.driver.core.ConsistencyLevel;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * The subset of the CQL native protocol v4 used by the probes
+ *
+ * @see <a href="https://github.com/apache/cassandra/blob/trunk/doc/native_protocol_v4.spec">native_protocol_v4.spec</a>
+ */
+final class Frames {
+
+    static final byte VERSION = 0x04;
+    static final byte RESPONSE = (byte) 0x80;
+    static final int HEADER_LENGTH = 9;
+    static final int MAX_FRAME_LENGTH = 256 * 1024 * 1024;
+
+    static final int FLAG_TRACING = 0x02;
+    static final int FLAG_CUSTOM_PAYLOAD = 0x04;
+    static final int FLAG_WARNING = 0x08;
+
+    static final byte ERROR = 0x00;
+    static final byte STARTUP = 0x01;
+    static final byte READY = 0x02;
+    static final byte AUTHENTICATE = 0x03;
+    static final byte OPTIONS = 0x05;
+    static final byte SUPPORTED = 0x06;
+    static final byte QUERY = 0x07;
+    static final byte RESULT = 0x08;
+    static final byte AUTH_RESPONSE = 0x0F;
+    static final byte AUTH_SUCCESS = 0x10;
+
+    static final int RESULT_VOID = 0x0001;
+    static final int RESULT_ROWS = 0x0002;
+
+    static final int ROWS_GLOBAL_TABLES_SPEC = 0x0001;
+    static final int ROWS_HAS_MORE_PAGES = 0x0002;
+    static final int ROWS_NO_METADATA = 0x0004;
+
+    static final short CONSISTENCY_ONE = 0x0001;
+
+    /**
+     * @return the code of a consistency level, as defined in the section 3 of the native protocol spec
+     */
+    static short consistency(final ConsistencyLevel consistency) {
+        switch (consistency) {
+            case ANY:
+                return 0x0000;
+            case ONE:
+                return 0x0001;
+            case TWO:
+                return 0x0002;
+            case THREE:
+                return 0x0003;
+            case QUORUM:
+                return 0x0004;
+            case ALL:
+                return 0x0005;
+            case LOCAL_QUORUM:
+                return 0x0006;
+            case EACH_QUORUM:
+                return 0x0007;
+            case SERIAL:
+                return 0x0008;
+            case LOCAL_SERIAL:
+                return 0x0009;
+            case LOCAL_ONE:
+                return 0x000A;
+            default:
+                throw new IllegalArgumentException("Unknown consistency " + consistency);
+        }
+    }
+
+    private Frames() {
+    }
+
+    /**
+     * @return a frame whose body is written by the given consumer
+     */
+    static ByteBuf frame(final ByteBufAllocator allocator, final byte version, final int stream, final byte opcode,
+                         final Consumer<ByteBuf> body) {
+        final ByteBuf frame = allocator.buffer();
+        frame.writeByte(version);
+        frame.writeByte(0);
+        frame.writeShort(stream);
+        frame.writeByte(opcode);
+        frame.writeInt(0);
+        body.accept(frame);
+        frame.setInt(HEADER_LENGTH - 4, frame.readableBytes() - HEADER_LENGTH);
+        return frame;
+    }
+
+    static void writeString(final ByteBuf buf, final String value) {
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        buf.writeShort(bytes.length);
+        buf.writeBytes(bytes);
+    }
+
+    static void writeLongString(final ByteBuf buf, final String value) {
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        buf.writeInt(bytes.length);
+        buf.writeBytes(bytes);
+    }
+
+    static void writeBytes(final ByteBuf buf, final byte[] value) {
+        if (value == null) {
+            buf.writeInt(-1);
+            return;
+        }
+        buf.writeInt(value.length);
+        buf.writeBytes(value);
+    }
+
+    static void writeStringMap(final ByteBuf buf, final Map<String, String> values) {
+        buf.writeShort(values.size());
+        values.forEach((key, value) -> {
+            writeString(buf, key);
+            writeString(buf, value);
+        });
+    }
+
+    static void writeStringMultimap(final ByteBuf buf, final Map<String, List<String>> values) {
+        buf.writeShort(values.size());
+        values.forEach((key, value) -> {
+            writeString(buf, key);
+            buf.writeShort(value.size());
+            value.forEach(v -> writeString(buf, v));
+        });
+    }
+
+    static void writeQuery(final ByteBuf buf, final String query, final short consistency) {
+        writeLongString(buf, query);
+        buf.writeShort(consistency);
+        buf.writeByte(0); // no values, no paging
+    }
+
+    static String readString(final ByteBuf buf) {
+        final int length = buf.readUnsignedShort();
+        final String value = buf.toString(buf.readerIndex(), length, StandardCharsets.UTF_8);
+        buf.skipBytes(length);
+        return value;
+    }
+
+    static String readLongString(final ByteBuf buf) {
+        final int length = buf.readInt();
+        final String value = buf.toString(buf.readerIndex(), length, StandardCharsets.UTF_8);
+        buf.skipBytes(length);
+        return value;
+    }
+
+    static ByteBuffer readBytes(final ByteBuf buf) {
+        final int length = buf.readInt();
+        if (length < 0) {
+            return null;
+        }
+        final byte[] bytes = new byte[length];
+        buf.readBytes(bytes);
+        return ByteBuffer.wrap(bytes);
+    }
+
+    static List<String> readStringList(final ByteBuf buf) {
+        final int size = buf.readUnsignedShort();
+        final List<String> values = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            values.add(readString(buf));
+        }
+        return values;
+    }
+
+    static Map<String, List<String>> readStringMultimap(final ByteBuf buf) {
+        final int size = buf.readUnsignedShort();
+        final Map<String, List<String>> values = new HashMap<>(size);
+        for (int i = 0; i < size; i++) {
+            values.put(readString(buf), readStringList(buf));
+        }
+        return values;
+    }
+
+    static void skipBytesMap(final ByteBuf buf) {
+        final int size = buf.readUnsignedShort();
+        for (int i = 0; i < size; i++) {
+            buf.skipBytes(buf.readUnsignedShort());
+            final int length = buf.readInt();
+            if (length > 0) {
+                buf.skipBytes(length);
+            }
+        }
+    }
+
+    /**
+     * Skip the type of a column, only the simple types are used by the probes but any type can be read
+     */
+    static void skipOption(final ByteBuf buf) {
+        final int id = buf.readUnsignedShort();
+        switch (id) {
+            case 0x0000: // custom
+                buf.skipBytes(buf.readUnsignedShort());
+                break;
+            case 0x0020: // list
+            case 0x0022: // set
+                skipOption(buf);
+                break;
+            case 0x0021: // map
+                skipOption(buf);
+                skipOption(buf);
+                break;
+            case 0x0030: // udt
+                buf.skipBytes(buf.readUnsignedShort());
+                buf.skipBytes(buf.readUnsignedShort());
+                final int fields = buf.readUnsignedShort();
+                for (int i = 0; i < fields; i++) {
+                    buf.skipBytes(buf.readUnsignedShort());
+                    skipOption(buf);
+                }
+                break;
+            case 0x0031: // tuple
+                final int elements = buf.readUnsignedShort();
+                for (int i = 0; i < elements; i++) {
+                    skipOption(buf);
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Read the body of a ROWS result, after its kind
+     *
+     * @return the rows, as their raw values by column name
+     */
+    static List<Map<String, ByteBuffer>> readRows(final ByteBuf buf) {
+        final int flags = buf.readInt();
+        final int columnCount = buf.readInt();
+        if ((flags & ROWS_HAS_MORE_PAGES) != 0) {
+            readBytes(buf);
+        }
+        if ((flags & ROWS_NO_METADATA) != 0) {
+            throw new IllegalStateException("Rows without metadata cannot be read");
+        }
+        final boolean globalTablesSpec = (flags & ROWS_GLOBAL_TABLES_SPEC) != 0;
+        if (globalTablesSpec) {
+            buf.skipBytes(buf.readUnsignedShort());
+            buf.skipBytes(buf.readUnsignedShort());
+        }
+        final String[] columns = new String[columnCount];
+        for (int i = 0; i < columnCount; i++) {
+            if (!globalTablesSpec) {
+                buf.skipBytes(buf.readUnsignedShort());
+                buf.skipBytes(buf.readUnsignedShort());
+            }
+            columns[i] = readString(buf);
+            skipOption(buf);
+        }
+
+        final int rowCount = buf.readInt();
+        final List<Map<String, ByteBuffer>> rows = new ArrayList<>(rowCount);
+        for (int r = 0; r < rowCount; r++) {
+            final Map<String, ByteBuffer> row = new HashMap<>(columnCount);
+            for (String column : columns) {
+                row.put(column, readBytes(buf));
+            }
+            rows.add(row);
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,318 @@
+package com.criteo.nosql.casspoke.cassandra.nativeprotocol;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
+import io.netty.handler.ssl.SslContext;
+import io.netty.util.concurrent.ScheduledFuture;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * A single connection to a node, multiplexing the requests on the stream ids of the native protocol.
+ * Responses are completed on the event loop of the connection.
+ */
+final class NativeConnection {
+    private static final Logger logger = LoggerFactory.getLogger(NativeConnection.class);
+
+    private static final String DEFAULT_CQL_VERSION = "3.0.0";
+    private static final int MAX_STREAMS = 32768;
+
+    private final InetSocketAddress address;
+    private final int timeoutInMs;
+    private final Map<Integer, Pending> pending = new ConcurrentHashMap<>();
+    private final AtomicInteger nextStream = new AtomicInteger();
+    private volatile Channel channel;
+
+    private NativeConnection(final InetSocketAddress address, final int timeoutInMs) {
+        this.address = address;
+        this.timeoutInMs = timeoutInMs;
+    }
+
+    /**
+     * Connect to the node and go through the handshake, i.e. OPTIONS, STARTUP, and the authentication if asked
+     *
+     * @param sslContext null to connect without SSL
+     * @param username   null to connect without authentication
+     */
+    static CompletableFuture<NativeConnection> connect(final Bootstrap bootstrap, final InetSocketAddress address,
+                                                       final SslContext sslContext, final String username,
+                                                       final String password, final int timeoutInMs) {
+        final NativeConnection connection = new NativeConnection(address, timeoutInMs);
+        final CompletableFuture<NativeConnection> connected = new CompletableFuture<>();
+
+        final ChannelFuture channelFuture = bootstrap.clone()
+                .handler(new ChannelInitializer<Channel>() {
+                    @Override
+                    protected void initChannel(final Channel ch) {
+                        if (sslContext != null) {
+                            ch.pipeline().addLast(sslContext.newHandler(ch.alloc(), address.getHostString(), address.getPort()));
+                        }
+                        ch.pipeline().addLast(new LengthFieldBasedFrameDecoder(Frames.MAX_FRAME_LENGTH, Frames.HEADER_LENGTH - 4, 4));
+                        ch.pipeline().addLast(connection.new ResponseHandler());
+                    }
+                })
+                .connect(address);
+
+        channelFuture.addListener(future -> {
+            if (!future.isSuccess()) {
+                connected.completeExceptionally(future.cause());
+                return;
+            }
+            connection.channel = channelFuture.channel();
+            connection.handshake(username, password).whenComplete((v, e) -> {
+                if (e != null) {
+                    connection.close();
+                    connected.completeExceptionally(e);
+                } else {
+                    connected.complete(connection);
+                }
+            });
+        });
+        return connected;
+    }
+
+    private CompletableFuture<Void> handshake(final String username, final String password) {
+        return send(Frames.OPTIONS, body -> {
+        }, false).thenCompose(supported -> {
+            final List<String> cqlVersions = supported.getSupported().getOrDefault("CQL_VERSION", Collections.emptyList());
+            final String cqlVersion = cqlVersions.isEmpty() ? DEFAULT_CQL_VERSION : cqlVersions.get(0);
+            return send(Frames.STARTUP, body -> Frames.writeStringMap(body, Collections.singletonMap("CQL_VERSION", cqlVersion)), false);
+        }).thenCompose(ready -> {
+            if (ready.getOpcode() == Frames.READY) {
+                return CompletableFuture.completedFuture(null);
+            }
+            if (ready.getOpcode() != Frames.AUTHENTICATE) {
+                throw new IllegalStateException("Unexpected response to STARTUP: " + ready.getOpcode());
+            }
+            if (username == null) {
+                throw new IllegalStateException(address + " requires an authentication, please set a username and a password");
+            }
+            // SASL PLAIN, as the PlainTextAuthProvider of the driver
+            final byte[] user = username.getBytes(StandardCharsets.UTF_8);
+            final byte[] pass = password.getBytes(StandardCharsets.UTF_8);
+            final byte[] token = new byte[user.length + pass.length + 2];
+            System.arraycopy(user, 0, token, 1, user.length);
+            System.arraycopy(pass, 0, token, user.length + 2, pass.length);
+            return send(Frames.AUTH_RESPONSE, body -> Frames.writeBytes(body, token), false).thenApply(success -> {
+                if (success.getOpcode() != Frames.AUTH_SUCCESS) {
+                    throw new IllegalStateException("Unexpected response to AUTH_RESPONSE: " + success.getOpcode());
+                }
+                return null;
+            });
+        });
+    }
+
+    InetSocketAddress getAddress() {
+        return address;
+    }
+
+    boolean isActive() {
+        final Channel ch = channel;
+        return ch != null && ch.isActive();
+    }
+
+    /**
+     * @param readRows false to ignore the rows of the result, e.g. for the probes
+     */
+    CompletableFuture<Response> query(final String query, final boolean readRows) {
+        return query(query, readRows, timeoutInMs);
+    }
+
+    /**
+     * @param requestTimeoutInMs how long to wait for this response, instead of the timeout of the connection
+     */
+    CompletableFuture<Response> query(final String query, final boolean readRows, final int requestTimeoutInMs) {
+        return query(query, readRows, requestTimeoutInMs, Frames.CONSISTENCY_ONE);
+    }
+
+    CompletableFuture<Response> query(final String query, final boolean readRows, final int requestTimeoutInMs,
+                                      final short consistency) {
+        return send(Frames.QUERY, body -> Frames.writeQuery(body, query, consistency), readRows, requestTimeoutInMs);
+    }
+
+    private CompletableFuture<Response> send(final byte opcode, final Consumer<ByteBuf> body, final boolean readRows) {
+        return send(opcode, body, readRows, timeoutInMs);
+    }
+
+    private CompletableFuture<Response> send(final byte opcode, final Consumer<ByteBuf> body, final boolean readRows,
+                                             final int requestTimeoutInMs) {
+        final Channel ch = channel;
+        final Pending request = new Pending(readRows);
+        if (ch == null || !ch.isActive()) {
+            request.future.completeExceptionally(new ClosedChannelException());
+            return request.future;
+        }
+
+        final int stream = acquireStream(request);
+        if (stream < 0) {
+            request.future.completeExceptionally(new IllegalStateException("No stream id available on " + address));
+            return request.future;
+        }
+
+        request.timeout = ch.eventLoop().schedule(() -> {
+            if (pending.remove(stream, request)) {
+                request.future.completeExceptionally(new TimeoutException("No response from " + address + " after " + requestTimeoutInMs + " ms"));
+            }
+        }, requestTimeoutInMs, TimeUnit.MILLISECONDS);
+
+        ch.writeAndFlush(Frames.frame(ch.alloc(), Frames.VERSION, stream, opcode, body)).addListener(future -> {
+            if (!future.isSuccess() && pending.remove(stream, request)) {
+                request.complete(null, future.cause());
+            }
+        });
+        return request.future;
+    }
+
+    private int acquireStream(final Pending request) {
+        for (int i = 0; i < MAX_STREAMS; i++) {
+            final int stream = nextStream.getAndIncrement() & (MAX_STREAMS - 1);
+            if (pending.putIfAbsent(stream, request) == null) {
+                return stream;
+            }
+        }
+        return -1;
+    }
+
+    void close() {
+        final Channel ch = channel;
+        if (ch != null) {
+            ch.close();
+        }
+    }
+
+    private void failPending(final Throwable cause) {
+        for (Integer stream : pending.keySet()) {
+            final Pending request = pending.remove(stream);
+            if (request != null) {
+                request.complete(null, cause);
+            }
+        }
+    }
+
+    private final class ResponseHandler extends SimpleChannelInboundHandler<ByteBuf> {
+
+        @Override
+        protected void channelRead0(final ChannelHandlerContext ctx, final ByteBuf frame) {
+            frame.skipBytes(1); // version
+            final byte flags = frame.readByte();
+            final int stream = frame.readShort();
+            final byte opcode = frame.readByte();
+            frame.skipBytes(4); // length
+
+            final Pending request = pending.remove(stream);
+            if (request == null) {
+                // Server events, or a response arriving after its timeout
+                return;
+            }
+
+            try {
+                if ((flags & Frames.FLAG_TRACING) != 0) {
+                    frame.skipBytes(16);
+                }
+                if ((flags & Frames.FLAG_WARNING) != 0) {
+                    Frames.readStringList(frame);
+                }
+                if ((flags & Frames.FLAG_CUSTOM_PAYLOAD) != 0) {
+                    Frames.skipBytesMap(frame);
+                }
+                request.complete(decode(opcode, frame, request.readRows), null);
+            } catch (Exception e) {
+                request.complete(null, e);
+            }
+        }
+
+        private Response decode(final byte opcode, final ByteBuf body, final boolean readRows) {
+            switch (opcode) {
+                case Frames.ERROR:
+                    throw new NativeProtocolException(body.readInt(), Frames.readString(body));
+                case Frames.SUPPORTED:
+                    return new Response(opcode, Frames.readStringMultimap(body), null);
+                case Frames.RESULT:
+                    if (readRows && body.readInt() == Frames.RESULT_ROWS) {
+                        return new Response(opcode, null, Frames.readRows(body));
+                    }
+                    return new Response(opcode, null, null);
+                default:
+                    return new Response(opcode, null, null);
+            }
+        }
+
+        @Override
+        public void channelInactive(final ChannelHandlerContext ctx) throws Exception {
+            failPending(new ClosedChannelException());
+            super.channelInactive(ctx);
+        }
+
+        @Override
+        public void exceptionCaught(final ChannelHandlerContext ctx, final Throwable cause) {
+            logger.warn("Closing the connection to {}", address, cause);
+            ctx.close();
+        }
+    }
+
+    private static final class Pending {
+        private final CompletableFuture<Response> future = new CompletableFuture<>();
+        private final boolean readRows;
+        private volatile ScheduledFuture<?> timeout;
+
+        private Pending(final boolean readRows) {
+            this.readRows = readRows;
+        }
+
+        private void complete(final Response response, final Throwable cause) {
+            final ScheduledFuture<?> t = timeout;
+            if (t != null) {
+                t.cancel(false);
+            }
+            if (cause != null) {
+                future.completeExceptionally(cause);
+            } else {
+                future.complete(response);
+            }
+        }
+    }
+
+    static final class Response {
+        private final byte opcode;
+        private final Map<String, List<String>> supported;
+        private final List<Map<String, ByteBuffer>> rows;
+
+        private Response(final byte opcode, final Map<String, List<String>> supported, final List<Map<String, ByteBuffer>> rows) {
+            this.opcode = opcode;
+            this.supported = supported;
+            this.rows = rows;
+        }
+
+        byte getOpcode() {
+            return opcode;
+        }
+
+        Map<String, List<String>> getSupported() {
+            return supported != null ? supported : Collections.emptyMap();
+        }
+
+        List<Map<String, ByteBuffer>> getRows() {
+            return rows != null ? rows : Collections.emptyList();
+        }
+    }
+}
@@ -0,0 +1,288 @@
+package com.criteo.nosql.casspoke.cassandra.nativeprotocol;
+
+import com.criteo.nosql.casspoke.cassandra.AdaptiveTimeouts;
+import com.criteo.nosql.casspoke.cassandra.CassandraNode;
+import com.criteo.nosql.casspoke.cassandra.CircuitBreakers;
+import com.criteo.nosql.casspoke.cassandra.IMonitor;
+import com.criteo.nosql.casspoke.cassandra.ProbeTable;
+import com.criteo.nosql.casspoke.cassandra.RateLimitedLog;
+import com.criteo.nosql.casspoke.discovery.Service;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Probe a cluster over the native protocol, with a single connection by node and no driver metadata.
+ * <p/>
+ * The nodes are read from system.local and system.peers of one of the connections, at each collection
+ * of the availabilities. Connections that are lost are opened again at the same time.
+ */
+public class NativeMonitor implements IMonitor {
+    private static final Logger logger = LoggerFactory.getLogger(NativeMonitor.class);
+
+    private static final String LOCAL_QUERY = "SELECT data_center, rack FROM system.local WHERE key='local'";
+    private static final String PEERS_QUERY = "SELECT peer, rpc_address, data_center, rack FROM system.peers";
+    private static final String GET_QUERY = "SELECT * FROM system.local LIMIT 1";
+
+    private final NativeProbeEngine engine;
+    private final Service service;
+    private final boolean useSsl;
+    private final int timeoutInMs;
+    private final AdaptiveTimeouts timeouts;
+    private final CircuitBreakers breakers;
+    private final Consumer<CassandraNode> onHostRemoval;
+    private final ErrorListener onProbeError;
+    private final RateLimitedLog errorLog = new RateLimitedLog(logger);
+    private final String setQuery;
+    private final Optional<ProbeTable> probeTable;
+
+    private final Map<InetSocketAddress, CassandraNode> nodes = new ConcurrentHashMap<>();
+    private final Map<InetSocketAddress, CompletableFuture<NativeConnection>> connections = new ConcurrentHashMap<>();
+    private volatile InetSocketAddress control;
+    private volatile boolean closed;
+
+    NativeMonitor(final NativeProbeEngine engine, final Service service, final boolean useSsl, final int timeoutInMs,
+                  final AdaptiveTimeouts timeouts, final CircuitBreakers breakers, final Consumer<CassandraNode> onHostRemoval,
+                  final ErrorListener onProbeError, final Optional<ProbeTable> probeTable) {
+        this.engine = engine;
+        this.service = service;
+        this.useSsl = useSsl;
+        this.timeoutInMs = timeoutInMs;
+        this.timeouts = timeouts;
+        this.breakers = breakers;
+        this.onHostRemoval = onHostRemoval;
+        this.onProbeError = onProbeError;
+        this.probeTable = probeTable;
+        this.setQuery = "INSERT INTO system_traces.events (session_id, event_id, activity, source) " +
+                "VALUES (" + UUID.randomUUID() + ", now(), 'casspoke set latency measure', '127.0.0.1') USING TTL 60";
+    }
+
+    /**
+     * Connect to the contact point, then to all the nodes it knows. The nodes that do not answer in time join later
+     */
+    void bootstrap(final InetSocketAddress contactPoint) throws Exception {
+        final CompletableFuture<NativeConnection> connection = engine.connect(contactPoint, useSsl);
+        connections.put(contactPoint, connection);
+        connection.get(timeoutInMs, TimeUnit.MILLISECONDS);
+        control = contactPoint;
+        if (probeTable.isPresent()) {
+            for (String statement : probeTable.get().schemaStatements()) {
+                connection.join().query(statement, false).get(timeoutInMs, TimeUnit.MILLISECONDS);
+            }
+        }
+        refreshNodes();
+
+        try {
+            CompletableFuture.allOf(connections.values().toArray(new CompletableFuture<?>[0])).get(timeoutInMs, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException | TimeoutException e) {
+            logger.warn("Some nodes of {} are not connected yet", service);
+        }
+    }
+
+    @Override
+    public boolean usesSsl() {
+        return useSsl;
+    }
+
+    @Override
+    public boolean isReachable() {
+        return !closed && connections.values().stream().anyMatch(connection -> activeConnection(connection) != null);
+    }
+
+    @Override
+    public Map<CassandraNode, Boolean> collectAvailability() {
+        try {
+            refreshNodes();
+        } catch (Exception e) {
+            logger.error("Cannot refresh the nodes of {}, keeping {}", service, nodes.keySet(), e);
+        }
+
+        final Map<CassandraNode, Boolean> availabilities = new HashMap<>();
+        for (CassandraNode node : nodes.values()) {
+            final CompletableFuture<NativeConnection> connection = connections.get(node.getAddress());
+            final boolean available = activeConnection(connection) != null;
+            availabilities.put(node, available);
+            if (!available && connection != null && connection.isDone()) {
+                reconnect(node.getAddress(), connection);
+            }
+        }
+        return availabilities;
+    }
+
+    @Override
+    public Map<CassandraNode, Long> collectGetLatencies() {
+        return collectLatencies(node -> GET_QUERY, Frames.CONSISTENCY_ONE, "get", "reading from");
+    }
+
+    @Override
+    public Map<CassandraNode, Long> collectSetLatencies() {
+        if (probeTable.isPresent()) {
+            final long tickInMs = System.currentTimeMillis();
+            return collectLatencies(node -> probeTable.get().insertStatement(ProbeTable.key(node, tickInMs)),
+                    Frames.consistency(probeTable.get().getConsistency()), "set", "writing to");
+        }
+        return collectLatencies(node -> setQuery, Frames.CONSISTENCY_ONE, "set", "writing to");
+    }
+
+    /**
+     * Send the probe to every connected node at once. The latency of a node is measured on its own connection,
+     * within the timeout of this node.
+     */
+    private Map<CassandraNode, Long> collectLatencies(final Function<CassandraNode, String> query, final short consistency,
+                                                      final String command, final String action) {
+        final Map<CassandraNode, CompletableFuture<Long>> probes = new HashMap<>();
+        for (CassandraNode node : nodes.values()) {
+            final NativeConnection connection = activeConnection(connections.get(node.getAddress()));
+            if (connection != null && breakers.allowProbe(node)) {
+                final int nodeTimeoutInMs = timeouts.timeoutInMs(node);
+                final long start = System.nanoTime();
+                probes.put(node, connection.query(query.apply(node), false, nodeTimeoutInMs, consistency).thenApply(response -> System.nanoTime() - start));
+            }
+        }
+
+        // Each request fails on its own timeout, the deadline only guards against a lost completion
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutInMs);
+        final Map<CassandraNode, Long> latencies = new HashMap<>(probes.size());
+        for (Map.Entry<CassandraNode, CompletableFuture<Long>> probe : probes.entrySet()) {
+            final CassandraNode node = probe.getKey();
+            try {
+                final long duration = probe.getValue().get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                timeouts.recordSuccess(node, duration);
+                breakers.recordSuccess(node);
+                latencies.put(node, duration);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ExecutionException | TimeoutException e) {
+                // Failed probes are not latencies, they are only counted by kind of error
+                final Throwable error = e instanceof ExecutionException ? e.getCause() : e;
+                timeouts.recordFailure(node);
+                breakers.recordFailure(node);
+                onProbeError.onProbeError(node, command, error);
+                errorLog.error("Error while {} {} ", action, node, error);
+            }
+        }
+        return latencies;
+    }
+
+    /**
+     * Read the nodes from system.local and system.peers. The peers are expected on the same port as the contact point
+     */
+    private void refreshNodes() throws Exception {
+        final NativeConnection connection = controlConnection();
+        if (connection == null) {
+            logger.warn("No connection to read the nodes of {}", service);
+            return;
+        }
+
+        final CompletableFuture<NativeConnection.Response> local = connection.query(LOCAL_QUERY, true);
+        final CompletableFuture<NativeConnection.Response> peers = connection.query(PEERS_QUERY, true);
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutInMs);
+        final List<Map<String, ByteBuffer>> localRows = local.get(timeoutInMs, TimeUnit.MILLISECONDS).getRows();
+        final List<Map<String, ByteBuffer>> peersRows = peers.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS).getRows();
+
+        final InetSocketAddress controlAddress = connection.getAddress();
+        final Map<InetSocketAddress, CassandraNode> newNodes = new HashMap<>();
+        for (Map<String, ByteBuffer> row : localRows) {
+            newNodes.put(controlAddress, new CassandraNode(controlAddress, text(row.get("data_center")), text(row.get("rack"))));
+        }
+        for (Map<String, ByteBuffer> row : peersRows) {
+            InetAddress rpcAddress = inet(row.get("rpc_address"));
+            if (rpcAddress == null || rpcAddress.isAnyLocalAddress()) {
+                rpcAddress = inet(row.get("peer"));
+            }
+            if (rpcAddress == null) {
+                continue;
+            }
+            final InetSocketAddress address = new InetSocketAddress(rpcAddress, controlAddress.getPort());
+            newNodes.put(address, new CassandraNode(address, text(row.get("data_center")), text(row.get("rack"))));
+        }
+
+        for (CassandraNode node : new ArrayList<>(nodes.values())) {
+            if (!newNodes.containsKey(node.getAddress())) {
+                logger.info("{} left {}", node, service);
+                nodes.remove(node.getAddress());
+                timeouts.remove(node);
+                breakers.remove(node);
+                final CompletableFuture<NativeConnection> removed = connections.remove(node.getAddress());
+                if (removed != null) {
+                    removed.thenAccept(NativeConnection::close);
+                }
+                onHostRemoval.accept(node);
+            }
+        }
+        newNodes.forEach((address, node) -> {
+            nodes.put(address, node);
+            connections.computeIfAbsent(address, addr -> engine.connect(addr, useSsl));
+        });
+    }
+
+    /**
+     * @return the connection used to read the nodes, another connected node is used when the former one is lost
+     */
+    private NativeConnection controlConnection() {
+        final NativeConnection current = activeConnection(connections.get(control));
+        if (current != null) {
+            return current;
+        }
+        for (CompletableFuture<NativeConnection> connection : connections.values()) {
+            final NativeConnection active = activeConnection(connection);
+            if (active != null) {
+                control = active.getAddress();
+                return active;
+            }
+        }
+        return null;
+    }
+
+    private void reconnect(final InetSocketAddress address, final CompletableFuture<NativeConnection> lost) {
+        if (closed) {
+            return;
+        }
+        if (connections.replace(address, lost, engine.connect(address, useSsl))) {
+            lost.thenAccept(NativeConnection::close);
+        }
+    }
+
+    private static NativeConnection activeConnection(final CompletableFuture<NativeConnection> connection) {
+        if (connection == null || !connection.isDone() || connection.isCompletedExceptionally()) {
+            return null;
+        }
+        final NativeConnection c = connection.join();
+        return c.isActive() ? c : null;
+    }
+
+    private static String text(final ByteBuffer value) {
+        return value == null ? null : StandardCharsets.UTF_8.decode(value.duplicate()).toString();
+    }
+
+    private static InetAddress inet(final ByteBuffer value) {
+        if (value == null) {
+            return null;
+        }
+        final byte[] bytes = new byte[value.remaining()];
+        value.duplicate().get(bytes);
+        try {
+            return InetAddress.getByAddress(bytes);
+        } catch (UnknownHostException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        breakers.close();
+        connections.values().forEach(connection -> connection.thenAccept(NativeConnection::close));
+        connections.clear();
+    }
+}
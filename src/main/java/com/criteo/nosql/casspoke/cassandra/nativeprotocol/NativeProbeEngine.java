@@ -0,0 +1,126 @@
+package com.criteo.nosql.casspoke.cassandra.nativeprotocol;
+
+import com.criteo.nosql.casspoke.cassandra.AdaptiveTimeouts;
+import com.criteo.nosql.casspoke.cassandra.CassandraNode;
+import com.criteo.nosql.casspoke.cassandra.CircuitBreakers;
+import com.criteo.nosql.casspoke.cassandra.IMonitor;
+import com.criteo.nosql.casspoke.cassandra.ProbeTable;
+import com.criteo.nosql.casspoke.config.Config;
+import com.criteo.nosql.casspoke.discovery.Service;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.SslContextBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.net.ssl.SSLException;
+import java.net.InetSocketAddress;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Create the monitors speaking the native protocol. All their connections share the same event loop.
+ */
+public class NativeProbeEngine implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(NativeProbeEngine.class);
+
+    private final Config cfg;
+    private final int timeoutInMs;
+    private final Optional<ProbeTable> probeTable;
+    private final String username;
+    private final String password;
+    private final EventLoopGroup eventLoop;
+    private final Bootstrap bootstrap;
+    private SslContext sslContext;
+
+    public NativeProbeEngine(final Config cfg) {
+        this(cfg, ProbeTable.fromConfig(cfg));
+    }
+
+    public NativeProbeEngine(final Config cfg, final Optional<ProbeTable> probeTable) {
+        this.cfg = cfg;
+        this.timeoutInMs = Integer.parseInt(cfg.getApp().getOrDefault("timeoutInSec", "60")) * 1000;
+        this.probeTable = probeTable;
+        if (cfg.getApp().containsKey("username") && cfg.getApp().containsKey("password")) {
+            this.username = cfg.getApp().get("username");
+            this.password = cfg.getApp().get("password");
+        } else {
+            this.username = null;
+            this.password = null;
+        }
+
+        if (Boolean.parseBoolean(cfg.getApp().getOrDefault("replicaProbes", "false"))) {
+            logger.warn("replicaProbes needs the token metadata of the driver, the native engine probes the nodes as coordinators");
+        }
+
+        final int threads = Integer.parseInt(cfg.getApp().getOrDefault("nativeProbeThreads", "2"));
+        this.eventLoop = new NioEventLoopGroup(threads,
+                new ThreadFactoryBuilder().setNameFormat("native-probe-%d").setDaemon(true).build());
+        this.bootstrap = new Bootstrap()
+                .group(eventLoop)
+                .channel(NioSocketChannel.class)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, (int) TimeUnit.SECONDS.toMillis(30))
+                .option(ChannelOption.TCP_NODELAY, true)
+                .option(ChannelOption.SO_KEEPALIVE, true);
+    }
+
+    /**
+     * @return a monitor connected through the first contact point that answers, or empty if none does
+     */
+    public Optional<IMonitor> fromNodes(final boolean useSsl,
+                                        final Service service,
+                                        final Set<InetSocketAddress> endPoints,
+                                        final Consumer<CassandraNode> onHostRemoval,
+                                        final IMonitor.ErrorListener onProbeError) {
+        for (InetSocketAddress endPoint : endPoints) {
+            final NativeMonitor monitor = new NativeMonitor(this, service, useSsl, timeoutInMs, AdaptiveTimeouts.fromConfig(cfg),
+                    CircuitBreakers.fromConfig(cfg, service), onHostRemoval, onProbeError, probeTable);
+            try {
+                monitor.bootstrap(endPoint);
+                return Optional.of(monitor);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                monitor.close();
+                return Optional.empty();
+            } catch (Exception e) {
+                logger.warn("Cannot connect to {} through {}", service, endPoint, e);
+                monitor.close();
+            }
+        }
+        logger.error("Cannot create connection to cluster {}", service);
+        return Optional.empty();
+    }
+
+    CompletableFuture<NativeConnection> connect(final InetSocketAddress address, final boolean useSsl) {
+        try {
+            return NativeConnection.connect(bootstrap, address, useSsl ? sslContext() : null, username, password, timeoutInMs);
+        } catch (SSLException e) {
+            final CompletableFuture<NativeConnection> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+    }
+
+    /**
+     * Trust the same certificates as the JVM, as the driver does with its default SSL options
+     */
+    private synchronized SslContext sslContext() throws SSLException {
+        if (sslContext == null) {
+            sslContext = SslContextBuilder.forClient().build();
+        }
+        return sslContext;
+    }
+
+    @Override
+    public void close() {
+        eventLoop.shutdownGracefully(0, timeoutInMs, TimeUnit.MILLISECONDS);
+    }
+}
@@ -0,0 +1,23 @@
+package com.criteo.nosql.casspoke.cassandra.nativeprotocol;
+
+/**
+ * An ERROR frame sent back by a node
+ */
+public class NativeProtocolException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int code;
+
+    public NativeProtocolException(final int code, final String message) {
+        super(String.format("Error 0x%04x: %s", code, message));
+        this.code = code;
+    }
+
+    /**
+     * @return the error code, as defined in the section 9 of the native protocol spec
+     */
+    public int getCode() {
+        return code;
+    }
+}
@@ -20,6 +20,8 @@ public final class Config {
     private List<String> tagsWithSsl;
     private Map<String, String> app;
     private Discovery discovery;
+    private Sharding sharding;
+    private Push push;
 
     public static Config fromFile(String filePath) throws IOException {
         final ObjectMapper mapper = new ObjectMapper(new YAMLFactory());
@@ -30,6 +32,14 @@ public final class Config {
         return discovery;
     }
 
+    public Sharding getSharding() {
+        return sharding;
+    }
+
+    public Push getPush() {
+        return push;
+    }
+
     public Map<String, String> getApp() {
         return app;
     }
@@ -44,6 +54,10 @@ public final class Config {
         private int timeoutInSec = 10;
         private String readConsistency = "STALE";
         private List<String> tags = Collections.EMPTY_LIST;
+        private int fetchThreads = 16;
+        private boolean watch = false;
+        private int watchWaitInSec = 300;
+        private int watchThreads = 64;
 
         public String getHost() {
             return host;
@@ -64,11 +78,28 @@ public final class Config {
         public List<String> getTags() {
             return tags;
         }
+
+        public int getFetchThreads() {
+            return fetchThreads;
+        }
+
+        public boolean isWatch() {
+            return watch;
+        }
+
+        public int getWatchWaitInSec() {
+            return watchWaitInSec;
+        }
+
+        public int getWatchThreads() {
+            return watchThreads;
+        }
     }
 
     public static class DnsEntry {
         private String clustername;
         private String host;
+        private String srv;
         public String getClustername() {
             return clustername;
         }
@@ -76,6 +107,102 @@ public final class Config {
         public String getHost() {
             return host;
         }
+
+        public String getSrv() {
+            return srv;
+        }
+    }
+
+    public static class Sharding {
+        private String replica;
+        private List<String> replicas = Collections.emptyList();
+        private String consulHost = "localhost";
+        private int consulPort = 8500;
+        private String consulKey;
+        private int consulTimeoutInSec = 10;
+
+        public String getReplica() {
+            return replica;
+        }
+
+        public List<String> getReplicas() {
+            return replicas;
+        }
+
+        public String getConsulHost() {
+            return consulHost;
+        }
+
+        public int getConsulPort() {
+            return consulPort;
+        }
+
+        public String getConsulKey() {
+            return consulKey;
+        }
+
+        public int getConsulTimeoutInSec() {
+            return consulTimeoutInSec;
+        }
+    }
+
+    public static class Push {
+        private RemoteWrite remoteWrite;
+        private Graphite graphite;
+        private int queueSize = 10;
+        private int retries = 3;
+        private int retryBackoffInMs = 500;
+        private int timeoutInSec = 10;
+
+        public RemoteWrite getRemoteWrite() {
+            return remoteWrite;
+        }
+
+        public Graphite getGraphite() {
+            return graphite;
+        }
+
+        public int getQueueSize() {
+            return queueSize;
+        }
+
+        public int getRetries() {
+            return retries;
+        }
+
+        public int getRetryBackoffInMs() {
+            return retryBackoffInMs;
+        }
+
+        public int getTimeoutInSec() {
+            return timeoutInSec;
+        }
+    }
+
+    public static class RemoteWrite {
+        private String url;
+
+        public String getUrl() {
+            return url;
+        }
+    }
+
+    public static class Graphite {
+        private String host;
+        private int port = 2003;
+        private String prefix = "casspoke";
+
+        public String getHost() {
+            return host;
+        }
+
+        public int getPort() {
+            return port;
+        }
+
+        public String getPrefix() {
+            return prefix;
+        }
     }
 
     public static class Discovery {
@@ -2,7 +2,9 @@ package com.criteo.nosql.casspoke.discovery;
 
 import com.criteo.nosql.casspoke.config.Config;
 import com.ecwid.consul.v1.ConsistencyMode;
+import com.ecwid.consul.v1.ConsulRawClient;
 import com.ecwid.consul.v1.QueryParams;
+import com.ecwid.consul.v1.Response;
 import com.ecwid.consul.v1.catalog.CatalogClient;
 import com.ecwid.consul.v1.catalog.CatalogConsulClient;
 import com.ecwid.consul.v1.health.HealthClient;
@@ -10,25 +12,37 @@ import com.ecwid.consul.v1.health.HealthConsulClient;
 import com.ecwid.consul.v1.health.model.HealthService;
 import com.google.common.base.Strings;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.util.*;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.*;
 
 import static java.util.stream.Collectors.toMap;
 
 /**
  * Provide a discovery based on Consul.
+ * <p/>
+ * In watch mode, the catalog and the health of each matching service are followed with blocking queries,
+ * and only the services that changed are pushed to the listener. Each blocking query is a task of a pool of
+ * watchThreads threads, sharing the keep-alive client: with more services than threads, they take turns.
  */
 public class ConsulDiscovery implements IDiscovery {
     private static final Logger logger = LoggerFactory.getLogger(ConsulDiscovery.class);
 
     private static final String MAINTENANCE_MODE = "_node_maintenance";
+    private static final long MIN_BACKOFF_MS = 1000;
+    private static final long MAX_BACKOFF_MS = 60_000;
+    // Blocking queries answered at once, e.g. by an agent that ignores the index, are not sent again before that
+    private static final long MIN_POLL_INTERVAL_MS = 1000;
+    // The health of the services is fetched in parallel, by fetchThreads and watchThreads at most
+    private static final int MAX_CONNECTIONS = 1024;
 
     private final String host;
     private final int port;
@@ -36,14 +50,69 @@ public class ConsulDiscovery implements IDiscovery {
     private final QueryParams params;
     private final List<String> tags;
     private final ExecutorService executor;
+    private final int fetchThreads;
+    private final ExecutorService healthExecutor;
+
+    private final CloseableHttpClient httpClient;
+    private final CatalogClient catalogClient;
+    private final HealthClient healthClient;
+    // Last nodes fetched for each service, kept when a later fetch fails so the service is not seen as gone
+    private final Map<String, Map.Entry<Service, Set<InetSocketAddress>>> fetchedNodes = new ConcurrentHashMap<>();
+
+    private final boolean watchEnabled;
+    private final int watchWaitInSec;
+    private final ConsistencyMode consistencyMode;
+    private final ScheduledExecutorService catalogWatcher;
+    private final ScheduledExecutorService healthWatcher;
+    // Guards the watches and the nodes they found, so a cancelled watch cannot bring back its service
+    private final Object watchLock = new Object();
+    private final Map<String, HealthWatch> healthWatches = new HashMap<>();
+    private final Map<String, Map.Entry<Service, Set<InetSocketAddress>>> watchedNodes = new ConcurrentHashMap<>();
+    private volatile ServiceListener listener;
+    private boolean watching;
+    // Only used by the catalog watch, whose polls run one after another
+    private long catalogIndex;
+    private long catalogBackoffMs = MIN_BACKOFF_MS;
 
     public ConsulDiscovery(final Config.ConsulDiscovery consulCfg) {
         this.host = consulCfg.getHost();
         this.port = consulCfg.getPort();
         this.timeout = consulCfg.getTimeoutInSec();
-        this.params = new QueryParams(ConsistencyMode.valueOf(consulCfg.getReadConsistency()));
+        this.consistencyMode = ConsistencyMode.valueOf(consulCfg.getReadConsistency());
+        this.params = new QueryParams(consistencyMode);
         this.tags = consulCfg.getTags();
         this.executor = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder().setNameFormat("consul-%d").build());
+        this.fetchThreads = consulCfg.getFetchThreads();
+        this.healthExecutor = Executors.newFixedThreadPool(fetchThreads, new ThreadFactoryBuilder().setNameFormat("consul-health-%d").build());
+
+        this.watchEnabled = consulCfg.isWatch();
+        this.watchWaitInSec = consulCfg.getWatchWaitInSec();
+        this.catalogWatcher = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("consul-watch-catalog-%d").setDaemon(true).build());
+        this.healthWatcher = Executors.newScheduledThreadPool(consulCfg.getWatchThreads(),
+                new ThreadFactoryBuilder().setNameFormat("consul-watch-%d").setDaemon(true).build());
+
+        // One keep-alive client shared by all the requests. Blocking queries may be pending for the whole wait time,
+        // the socket timeout bounds them to the wait time plus the timeout
+        this.httpClient = newHttpClient(MAX_CONNECTIONS);
+        final ConsulRawClient rawClient = new ConsulRawClient(host, port, httpClient);
+        this.catalogClient = new CatalogConsulClient(rawClient);
+        this.healthClient = new HealthConsulClient(rawClient);
+    }
+
+    private CloseableHttpClient newHttpClient(final int maxConnections) {
+        final PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(maxConnections);
+        connectionManager.setDefaultMaxPerRoute(maxConnections);
+        final int readTimeoutInMs = (int) TimeUnit.SECONDS.toMillis(timeout + (watchEnabled ? watchWaitInSec : 0));
+        return HttpClientBuilder.create()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        .setConnectTimeout((int) TimeUnit.SECONDS.toMillis(timeout))
+                        .setConnectionRequestTimeout(readTimeoutInMs)
+                        .setSocketTimeout(readTimeoutInMs)
+                        .build())
+                .build();
     }
 
     private static String getFromTags(final HealthService.Service service, final String prefix) {
@@ -57,78 +126,324 @@ public class ConsulDiscovery implements IDiscovery {
         return getFromTags(service, "cluster-");
     }
 
-    private Map<Service, Set<InetSocketAddress>> getServicesNodesByTags(final List<String> tags) {
-        final CatalogClient client = new CatalogConsulClient(host, port);
-        final Map<String, List<String>> serviceNamesWithTags =
-                client.getCatalogServices(params).getValue().entrySet().stream()
-                        .filter(entry -> !Collections.disjoint(entry.getValue(), tags))
-                        .collect(toMap(Map.Entry::getKey, Map.Entry::getValue));
-        return getServicesNodesByServices(serviceNamesWithTags);
+    private Map<String, List<String>> filterByTags(final Map<String, List<String>> serviceNamesWithTags) {
+        return serviceNamesWithTags.entrySet().stream()
+                .filter(entry -> !Collections.disjoint(entry.getValue(), tags))
+                .collect(toMap(Map.Entry::getKey, Map.Entry::getValue));
+    }
+
+    private Map<String, List<String>> getServicesByTags() throws Exception {
+        final Future<Map<String, List<String>>> fServices = executor.submit(() ->
+                filterByTags(catalogClient.getCatalogServices(params).getValue()));
+        try {
+            return fServices.get(timeout, TimeUnit.SECONDS);
+        } finally {
+            fServices.cancel(true);
+        }
     }
 
+    /**
+     * Fetch the health of every service in parallel. Each service has its own timeout, a service that cannot be
+     * fetched keeps its last known nodes, as it would otherwise be removed with its monitor and its series
+     */
     private Map<Service, Set<InetSocketAddress>> getServicesNodesByServices(final Map<String, List<String>> serviceNamesWithTags) {
-        final HealthClient client = new HealthConsulClient(host, port);
-        final Map<Service, Set<InetSocketAddress>> servicesNodes = new HashMap<>(serviceNamesWithTags.size());
+        final Map<String, Future<List<HealthService>>> fHealths = new HashMap<>(serviceNamesWithTags.size());
         for (String serviceName : serviceNamesWithTags.keySet()) {
-            final Set<InetSocketAddress> nodes = new HashSet<>();
-            final Service[] srv = new Service[]{null};
-            client.getHealthServices(serviceName, false, params).getValue().stream()
-                    // TODO: we ignore nodes when an health check message starts with 'DISCARD'. It allows to ignore spare nodes for couchbase. It's flaky but don't have better; come propose me better.
-                    // TODO: When consul starts, all health checks failed with no message for X seconds. We choose to ignore these nodes. But the test hardcode our convention; come propose me better.
-                    .filter(hsrv -> hsrv.getChecks().stream()
-                            .noneMatch(check -> check.getCheckId().equalsIgnoreCase(MAINTENANCE_MODE))
-                    )
-                    .forEach(hsrv -> {
-                        logger.debug("{}", hsrv.getNode());
-                        String srvAddr = Strings.isNullOrEmpty(hsrv.getService().getAddress())
-                                ? hsrv.getNode().getAddress()
-                                : hsrv.getService().getAddress();
-                        nodes.add(new InetSocketAddress(srvAddr, hsrv.getService().getPort()));
-                        srv[0] = new Service(getClusterName(hsrv.getService()), serviceNamesWithTags.get(serviceName));
-                    });
-            if (nodes.size() > 0) {
-                logger.info("Found {} nodes for {}", nodes.size(), srv[0]);
-                servicesNodes.put(srv[0], nodes);
+            fHealths.put(serviceName, healthExecutor.submit(() -> healthClient.getHealthServices(serviceName, false, params).getValue()));
+        }
+
+        // Each request is bounded by the socket timeout of the http client, but requests wait for a free thread
+        // of the pool, so the deadline grows with the number of rounds needed to send all of them
+        final int rounds = Math.max(1, (fHealths.size() + fetchThreads - 1) / fetchThreads);
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(timeout) * rounds;
+        final Map<Service, Set<InetSocketAddress>> servicesNodes = new HashMap<>(serviceNamesWithTags.size());
+        for (Map.Entry<String, Future<List<HealthService>>> fHealth : fHealths.entrySet()) {
+            final String serviceName = fHealth.getKey();
+            try {
+                final List<HealthService> healthServices = fHealth.getValue().get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                final Map.Entry<Service, Set<InetSocketAddress>> nodes = toServiceNodes(serviceNamesWithTags.get(serviceName), healthServices);
+                if (nodes != null) {
+                    logger.info("Found {} nodes for {}", nodes.getValue().size(), nodes.getKey());
+                    servicesNodes.put(nodes.getKey(), nodes.getValue());
+                    fetchedNodes.put(serviceName, nodes);
+                } else {
+                    fetchedNodes.remove(serviceName);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                fHealths.values().forEach(f -> f.cancel(true));
+                // A partial result would remove the services not fetched yet
+                return Collections.emptyMap();
+            } catch (TimeoutException e) {
+                logger.warn("Fetching nodes of {} timed out, its last known nodes are kept", serviceName);
+                keepLastNodes(serviceName, servicesNodes);
+            } catch (ExecutionException e) {
+                logger.error("Cannot fetch nodes of {}, its last known nodes are kept", serviceName, e.getCause());
+                keepLastNodes(serviceName, servicesNodes);
+            } finally {
+                fHealth.getValue().cancel(true);
             }
         }
+        // Forget the services that left the catalog
+        fetchedNodes.keySet().retainAll(serviceNamesWithTags.keySet());
         return servicesNodes;
     }
 
+    private void keepLastNodes(final String serviceName, final Map<Service, Set<InetSocketAddress>> servicesNodes) {
+        final Map.Entry<Service, Set<InetSocketAddress>> last = fetchedNodes.get(serviceName);
+        if (last != null) {
+            servicesNodes.put(last.getKey(), last.getValue());
+        }
+    }
+
+    /**
+     * @return the service and its nodes, or null if no node is available
+     */
+    private static Map.Entry<Service, Set<InetSocketAddress>> toServiceNodes(final List<String> serviceTags,
+                                                                            final List<HealthService> healthServices) {
+        final Set<InetSocketAddress> nodes = new HashSet<>();
+        final Service[] srv = new Service[]{null};
+        healthServices.stream()
+                // TODO: we ignore nodes when an health check message starts with 'DISCARD'. It allows to ignore spare nodes for couchbase. It's flaky but don't have better; come propose me better.
+                // TODO: When consul starts, all health checks failed with no message for X seconds. We choose to ignore these nodes. But the test hardcode our convention; come propose me better.
+                .filter(hsrv -> hsrv.getChecks().stream()
+                        .noneMatch(check -> check.getCheckId().equalsIgnoreCase(MAINTENANCE_MODE))
+                )
+                .forEach(hsrv -> {
+                    logger.debug("{}", hsrv.getNode());
+                    String srvAddr = Strings.isNullOrEmpty(hsrv.getService().getAddress())
+                            ? hsrv.getNode().getAddress()
+                            : hsrv.getService().getAddress();
+                    nodes.add(new InetSocketAddress(srvAddr, hsrv.getService().getPort()));
+                    srv[0] = new Service(getClusterName(hsrv.getService()), serviceTags);
+                });
+        return nodes.isEmpty() ? null : new AbstractMap.SimpleImmutableEntry<>(srv[0], nodes);
+    }
+
     /**
      * Look in Consul for all services matching one of the tags
      * The function filter out nodes that are in maintenance mode
+     * When the services are watched, the last known state is returned without querying Consul
      *
      * @return the map nodes by services
      */
-    // All this mumbo-jumbo with the executor is done only because the consul client does not expose
-    // in any way a mean to timeout/cancel requests nor to properly shutdown/reset it.
-    // Thus we play safe and wrap calls inside an executor that we can properly timeout, and a new consul client
-    // is created each time.
-    // TODO: Consider to have one shared ConsulRawClient, configured with a custom httpClient/requestConfig
+    // All this mumbo-jumbo with the executors is done only because the consul client does not expose
+    // in any way a mean to cancel requests nor to properly shutdown/reset it.
+    // Thus we play safe and wrap calls inside executors that we can properly timeout.
+    @Override
     public Map<Service, Set<InetSocketAddress>> getServicesNodes() {
-        Future<Map<Service, Set<InetSocketAddress>>> fServices = null;
+        if (listener != null && !watchedNodes.isEmpty()) {
+            final Map<Service, Set<InetSocketAddress>> services = new HashMap<>(watchedNodes.size());
+            watchedNodes.values().forEach(nodes -> services.put(nodes.getKey(), nodes.getValue()));
+            return services;
+        }
+
+        logger.info("Fetching services for tag {} ", tags);
+        final long start = System.currentTimeMillis();
+        final Map<String, List<String>> serviceNamesWithTags;
         try {
-            fServices = executor.submit(() -> {
-                logger.info("Fetching services for tag {} ", tags);
-                final long start = System.currentTimeMillis();
-                final Map<Service, Set<InetSocketAddress>> services = getServicesNodesByTags(tags);
-                final long stop = System.currentTimeMillis();
-                logger.info("Fetching services for tag {} took {} ms", tags, stop - start);
-                return services;
-            });
-            return fServices.get(timeout, TimeUnit.SECONDS);
+            serviceNamesWithTags = getServicesByTags();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Collections.emptyMap();
+        } catch (Exception e) {
+            logger.error("Cannot fetch services for tag {}", tags, e);
+            return Collections.emptyMap();
+        }
+
+        final Map<Service, Set<InetSocketAddress>> services = getServicesNodesByServices(serviceNamesWithTags);
+        final long stop = System.currentTimeMillis();
+        logger.info("Fetching {}/{} services for tag {} took {} ms", services.size(), serviceNamesWithTags.size(), tags, stop - start);
+        return services;
+    }
+
+    @Override
+    public synchronized boolean watch(final ServiceListener listener) {
+        if (!watchEnabled) {
+            return false;
+        }
+        this.listener = listener;
+        if (!watching) {
+            logger.info("Watching services for tag {}", tags);
+            watching = true;
+            catalogWatcher.execute(this::pollCatalog);
+        }
+        return true;
+    }
+
+    @Override
+    public void unwatch() {
+        this.listener = null;
+    }
+
+    private QueryParams watchParams(final long index) {
+        return QueryParams.Builder.builder()
+                .setConsistencyMode(consistencyMode)
+                .setWaitTime(watchWaitInSec)
+                .setIndex(index)
+                .build();
+    }
+
+    /**
+     * @return the index to use for the next blocking query, reset if Consul index went backward
+     */
+    private static long nextIndex(final long index, final Long consulIndex) {
+        if (consulIndex == null || consulIndex < index) {
+            return 0;
+        }
+        return consulIndex;
+    }
+
+    private void pollCatalog() {
+        final long startInMs = System.currentTimeMillis();
+        long delayInMs;
+        try {
+            final Response<Map<String, List<String>>> response = catalogClient.getCatalogServices(watchParams(catalogIndex));
+            catalogIndex = nextIndex(catalogIndex, response.getConsulIndex());
+            final Map<String, List<String>> serviceNamesWithTags = filterByTags(response.getValue());
+
+            synchronized (watchLock) {
+                // Follow the new services, or the ones whose tags changed
+                serviceNamesWithTags.forEach((serviceName, serviceTags) -> {
+                    final HealthWatch watch = healthWatches.get(serviceName);
+                    if (watch == null || !watch.tags.equals(serviceTags)) {
+                        if (watch != null) {
+                            watch.cancel();
+                        }
+                        final HealthWatch newWatch = new HealthWatch(serviceName, serviceTags);
+                        healthWatches.put(serviceName, newWatch);
+                        newWatch.next = schedule(healthWatcher, () -> pollHealth(newWatch), 0);
+                    }
+                });
+
+                // Forget the ones that are gone
+                for (String serviceName : new ArrayList<>(healthWatches.keySet())) {
+                    if (!serviceNamesWithTags.containsKey(serviceName)) {
+                        healthWatches.remove(serviceName).cancel();
+                        final Map.Entry<Service, Set<InetSocketAddress>> previous = watchedNodes.remove(serviceName);
+                        if (previous != null) {
+                            push(previous.getKey(), Collections.emptySet());
+                        }
+                    }
+                }
+            }
+            catalogBackoffMs = MIN_BACKOFF_MS;
+            delayInMs = startInMs + MIN_POLL_INTERVAL_MS - System.currentTimeMillis();
         } catch (Exception e) {
-            logger.error("Cannot fetch nodes for tag {}", tags, e);
+            logger.error("Cannot watch services for tag {}, retrying in {} ms", tags, catalogBackoffMs, e);
+            delayInMs = catalogBackoffMs;
+            catalogBackoffMs = Math.min(catalogBackoffMs * 2, MAX_BACKOFF_MS);
+        }
+        schedule(catalogWatcher, this::pollCatalog, delayInMs);
+    }
+
+    private void pollHealth(final HealthWatch watch) {
+        final long startInMs = System.currentTimeMillis();
+        long delayInMs;
+        try {
+            final Response<List<HealthService>> response = healthClient.getHealthServices(watch.serviceName, false, watchParams(watch.index));
+            synchronized (watchLock) {
+                if (watch.cancelled) {
+                    return; // The service is no longer watched, its nodes must not bring it back
+                }
+                watch.index = nextIndex(watch.index, response.getConsulIndex());
 
-            if (fServices != null) {
-                fServices.cancel(true);
+                final Map.Entry<Service, Set<InetSocketAddress>> nodes = toServiceNodes(watch.tags, response.getValue());
+                final Map.Entry<Service, Set<InetSocketAddress>> previous = nodes == null
+                        ? watchedNodes.remove(watch.serviceName)
+                        : watchedNodes.put(watch.serviceName, nodes);
+
+                if (previous != null && (nodes == null || !previous.getKey().equals(nodes.getKey()))) {
+                    push(previous.getKey(), Collections.emptySet());
+                }
+                if (nodes != null && !nodes.equals(previous)) {
+                    logger.info("{} nodes for {}", nodes.getValue().size(), nodes.getKey());
+                    push(nodes.getKey(), nodes.getValue());
+                }
             }
-            return Collections.emptyMap();
+            watch.backoffMs = MIN_BACKOFF_MS;
+            delayInMs = startInMs + MIN_POLL_INTERVAL_MS - System.currentTimeMillis();
+        } catch (Exception e) {
+            if (watch.cancelled) {
+                return;
+            }
+            logger.error("Cannot watch nodes of {}, retrying in {} ms", watch.serviceName, watch.backoffMs, e);
+            delayInMs = watch.backoffMs;
+            watch.backoffMs = Math.min(watch.backoffMs * 2, MAX_BACKOFF_MS);
+        }
+        synchronized (watchLock) {
+            if (!watch.cancelled) {
+                watch.next = schedule(healthWatcher, () -> pollHealth(watch), delayInMs);
+            }
+        }
+    }
+
+    /**
+     * @return the next poll, or null once closed
+     */
+    private static ScheduledFuture<?> schedule(final ScheduledExecutorService watcher, final Runnable poll, final long delayInMs) {
+        try {
+            return watcher.schedule(poll, Math.max(0, delayInMs), TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            return null; // Closed
+        }
+    }
+
+    private void push(final Service service, final Set<InetSocketAddress> nodes) {
+        final ServiceListener l = listener;
+        if (l == null) {
+            return;
+        }
+        try {
+            l.onServiceChange(service, nodes);
+        } catch (Exception e) {
+            logger.error("Cannot push the change of {}", service, e);
         }
     }
 
     @Override
     public void close() {
         executor.shutdownNow();
+        healthExecutor.shutdownNow();
+        catalogWatcher.shutdownNow();
+        healthWatcher.shutdownNow();
+        synchronized (watchLock) {
+            healthWatches.values().forEach(HealthWatch::cancel);
+        }
+        // Closing the connections aborts the blocking queries still pending
+        try {
+            httpClient.close();
+        } catch (IOException e) {
+            logger.error("Cannot close the consul http client", e);
+        }
+    }
+
+    /**
+     * The blocking queries of the health of a service, polled one after another
+     */
+    private static final class HealthWatch {
+        private final String serviceName;
+        private final List<String> tags;
+        // Only used by the polls of the watch
+        private long index;
+        private long backoffMs = MIN_BACKOFF_MS;
+        // Guarded by watchLock
+        private volatile boolean cancelled;
+        private ScheduledFuture<?> next;
+
+        private HealthWatch(final String serviceName, final List<String> tags) {
+            this.serviceName = serviceName;
+            this.tags = tags;
+        }
+
+        /**
+         * The pending query is left to its socket timeout, its result is dropped
+         */
+        private void cancel() {
+            cancelled = true;
+            if (next != null) {
+                next.cancel(false);
+            }
+        }
     }
 }
@@ -1,38 +1,203 @@
 package com.criteo.nosql.casspoke.discovery;
 
 import com.criteo.nosql.casspoke.config.Config;
+import com.google.common.base.Strings;
+import com.google.common.net.InetAddresses;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
 
-public class DnsDiscovery implements IDiscovery{
+/**
+ * Provide a discovery based on DNS.
+ * <p/>
+ * The hosts and the SRV records of every entry are resolved in parallel, and each answer is cached for its TTL.
+ * The nodes of a cluster are returned as the same set as long as they do not change.
+ */
+public class DnsDiscovery implements IDiscovery {
+    private static final Logger logger = LoggerFactory.getLogger(DnsDiscovery.class);
 
-    private List<Config.DnsEntry> dnsEntries;
+    private static final int DEFAULT_PORT = 9042;
+    private static final long RESOLVE_TIMEOUT_MS = 10_000;
+    // Do not hammer the resolvers for records with a zero TTL
+    private static final long MIN_TTL_MS = 1000;
+
+    private final List<Config.DnsEntry> dnsEntries;
+    private final DnsResolver resolver;
+    private final LongSupplier clockInNs;
+
+    private final Map<String, CompletableFuture<CachedAnswer<InetAddress>>> addresses = new ConcurrentHashMap<>();
+    private final Map<String, CompletableFuture<CachedAnswer<InetSocketAddress>>> srvs = new ConcurrentHashMap<>();
+    private final Map<Service, Set<InetSocketAddress>> lastNodes = new HashMap<>();
 
     public DnsDiscovery(List<Config.DnsEntry> dnsEntries) {
-        this.dnsEntries = dnsEntries;
+        this(dnsEntries, new DnsJavaResolver(), System::nanoTime);
+    }
 
+    DnsDiscovery(final List<Config.DnsEntry> dnsEntries, final DnsResolver resolver, final LongSupplier clockInNs) {
+        this.dnsEntries = dnsEntries;
+        this.resolver = resolver;
+        this.clockInNs = clockInNs;
     }
 
+    /**
+     * Resolve all the entries. When an entry cannot be resolved, its last known nodes are returned
+     *
+     * @return the map nodes by services
+     */
     @Override
-    public Map<Service, Set<InetSocketAddress>> getServicesNodes() {
-        Map<Service, Set<InetSocketAddress>> clusters = new HashMap<>();
+    public synchronized Map<Service, Set<InetSocketAddress>> getServicesNodes() {
+        final Map<Service, CompletableFuture<Set<InetSocketAddress>>> resolutions = new HashMap<>();
+        for (Config.DnsEntry entry : dnsEntries) {
+            resolutions.put(new Service(entry.getClustername(), Collections.emptyList()), resolve(entry)); // tags not available for DnsDiscovery
+        }
 
-        for(Config.DnsEntry entry: dnsEntries) {
-            Set<InetSocketAddress> addrs = new HashSet<>();
-            for(String host: entry.getHost().split(",")) {
-                String[] host_port = host.split(":");
-                addrs.add(new InetSocketAddress(host_port[0], host_port.length > 1 ? Integer.parseInt(host_port[1]) : 9042));
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(RESOLVE_TIMEOUT_MS);
+        final Map<Service, Set<InetSocketAddress>> clusters = new HashMap<>();
+        for (Map.Entry<Service, CompletableFuture<Set<InetSocketAddress>>> resolution : resolutions.entrySet()) {
+            final Service service = resolution.getKey();
+            final Set<InetSocketAddress> last = lastNodes.get(service);
+            Set<InetSocketAddress> nodes = null;
+            try {
+                nodes = resolution.getValue().get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (TimeoutException e) {
+                logger.warn("Resolving {} timed out", service);
+            } catch (ExecutionException e) {
+                logger.warn("Cannot resolve {}", service, e.getCause());
+            }
 
+            if (nodes == null || nodes.isEmpty()) {
+                if (last != null) {
+                    clusters.put(service, last);
+                }
+            } else if (nodes.equals(last)) {
+                clusters.put(service, last);
+            } else {
+                logger.info("Resolved {} to {}", service, nodes);
+                lastNodes.put(service, nodes);
+                clusters.put(service, nodes);
             }
-            List<String> tags = new ArrayList<>(); // not available for DnsDiscovery
-            clusters.put(new Service(entry.getClustername(), tags), addrs);
         }
         return clusters;
     }
 
+    private CompletableFuture<Set<InetSocketAddress>> resolve(final Config.DnsEntry entry) {
+        final List<CompletableFuture<Set<InetSocketAddress>>> parts = new ArrayList<>();
+        for (String host : split(entry.getHost())) {
+            final String[] host_port = host.split(":");
+            final int port = host_port.length > 1 ? Integer.parseInt(host_port[1]) : DEFAULT_PORT;
+            parts.add(resolveHost(host_port[0], port));
+        }
+        for (String srv : split(entry.getSrv())) {
+            parts.add(lookup(srvs, srv, resolver::lookupSrv).thenCompose(targets -> resolveTargets(entry, targets)));
+        }
+
+        // A seed that cannot be resolved should not hide the others
+        final List<CompletableFuture<Set<InetSocketAddress>>> safeParts = new ArrayList<>(parts.size());
+        for (CompletableFuture<Set<InetSocketAddress>> part : parts) {
+            safeParts.add(orEmpty(part, "a seed", entry));
+        }
+        return union(safeParts);
+    }
+
+    private CompletableFuture<Set<InetSocketAddress>> resolveTargets(final Config.DnsEntry entry, final Set<InetSocketAddress> targets) {
+        // Nor should a SRV target hide the other targets of the record
+        final List<CompletableFuture<Set<InetSocketAddress>>> parts = new ArrayList<>(targets.size());
+        for (InetSocketAddress target : targets) {
+            parts.add(orEmpty(resolveHost(target.getHostString(), target.getPort()), "the target " + target.getHostString(), entry));
+        }
+        return union(parts);
+    }
+
+    private static CompletableFuture<Set<InetSocketAddress>> orEmpty(final CompletableFuture<Set<InetSocketAddress>> part,
+                                                                     final String what, final Config.DnsEntry entry) {
+        return part.exceptionally(e -> {
+            logger.warn("Cannot resolve {} of {}", what, entry.getClustername(), e);
+            return Collections.emptySet();
+        });
+    }
+
+    private CompletableFuture<Set<InetSocketAddress>> resolveHost(final String host, final int port) {
+        if (InetAddresses.isInetAddress(host)) {
+            return CompletableFuture.completedFuture(Collections.singleton(new InetSocketAddress(InetAddresses.forString(host), port)));
+        }
+        return lookup(addresses, host, resolver::lookupAddresses).thenApply(addrs -> {
+            final Set<InetSocketAddress> nodes = new HashSet<>(addrs.size());
+            addrs.forEach(addr -> nodes.add(new InetSocketAddress(addr, port)));
+            return nodes;
+        });
+    }
+
+    /**
+     * Return the cached answer while its TTL is not expired, otherwise query the resolver.
+     * When the query fails, the expired answer is used until the next refresh
+     */
+    private <T> CompletableFuture<Set<T>> lookup(final Map<String, CompletableFuture<CachedAnswer<T>>> cache, final String name,
+                                                 final Function<String, CompletableFuture<DnsResolver.Answer<T>>> query) {
+        return cache.compute(name, (key, current) -> {
+            final long now = clockInNs.getAsLong();
+            if (current != null && !current.isDone()) {
+                return current;
+            }
+            final CachedAnswer<T> stale = current != null && !current.isCompletedExceptionally() ? current.join() : null;
+            if (stale != null && stale.expiresAtInNs - now > 0) {
+                return current;
+            }
+
+            return query.apply(name).handle((answer, e) -> {
+                if (e == null) {
+                    final long ttlInMs = Math.max(MIN_TTL_MS, TimeUnit.SECONDS.toMillis(Math.min(answer.getTtlInSec(), Integer.MAX_VALUE)));
+                    return new CachedAnswer<>(answer.getValues(), clockInNs.getAsLong() + TimeUnit.MILLISECONDS.toNanos(ttlInMs));
+                }
+                if (stale == null) {
+                    throw e instanceof CompletionException ? (CompletionException) e : new CompletionException(e);
+                }
+                logger.warn("Cannot resolve {}, keeping {}", name, stale.values, e);
+                return new CachedAnswer<>(stale.values, now);
+            });
+        }).thenApply(cached -> cached.values);
+    }
+
+    private static <T> CompletableFuture<Set<T>> union(final List<CompletableFuture<Set<T>>> parts) {
+        return CompletableFuture.allOf(parts.toArray(new CompletableFuture<?>[0])).thenApply(v -> {
+            final Set<T> values = new HashSet<>();
+            parts.forEach(part -> values.addAll(part.join()));
+            return values;
+        });
+    }
+
+    private static List<String> split(final String values) {
+        if (Strings.isNullOrEmpty(values)) {
+            return Collections.emptyList();
+        }
+        final List<String> splitted = new ArrayList<>();
+        for (String value : values.split(",")) {
+            if (!value.trim().isEmpty()) {
+                splitted.add(value.trim());
+            }
+        }
+        return splitted;
+    }
+
     @Override
     public void close() {
 
     }
+
+    private static final class CachedAnswer<T> {
+        private final Set<T> values;
+        private final long expiresAtInNs;
+
+        private CachedAnswer(final Set<T> values, final long expiresAtInNs) {
+            this.values = values;
+            this.expiresAtInNs = expiresAtInNs;
+        }
+    }
 }
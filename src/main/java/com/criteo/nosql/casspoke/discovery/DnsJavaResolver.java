@@ -0,0 +1,82 @@
+package com.criteo.nosql.casspoke.discovery;
+
+import org.xbill.DNS.AAAARecord;
+import org.xbill.DNS.ARecord;
+import org.xbill.DNS.Name;
+import org.xbill.DNS.Record;
+import org.xbill.DNS.SRVRecord;
+import org.xbill.DNS.TextParseException;
+import org.xbill.DNS.Type;
+import org.xbill.DNS.lookup.LookupSession;
+import org.xbill.DNS.lookup.NoSuchDomainException;
+import org.xbill.DNS.lookup.NoSuchRRSetException;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
+
+/**
+ * Query the resolvers of the system with dnsjava, which, unlike the JVM, exposes the TTL of the records.
+ * The answers are not cached here, the {@link DnsDiscovery} caches them.
+ */
+final class DnsJavaResolver implements DnsResolver {
+
+    private final LookupSession session = LookupSession.defaultBuilder().clearCaches().build();
+
+    @Override
+    public CompletableFuture<Answer<InetAddress>> lookupAddresses(final String name) {
+        return lookup(name, Type.A, record -> ((ARecord) record).getAddress())
+                .thenCombine(lookup(name, Type.AAAA, record -> ((AAAARecord) record).getAddress()), Answer::merge)
+                .thenApply(answer -> requireValues(answer, "No address for " + name));
+    }
+
+    @Override
+    public CompletableFuture<Answer<InetSocketAddress>> lookupSrv(final String name) {
+        return lookup(name, Type.SRV, record -> {
+            final SRVRecord srv = (SRVRecord) record;
+            return InetSocketAddress.createUnresolved(srv.getTarget().toString(true), srv.getPort());
+        }).thenApply(answer -> requireValues(answer, "No SRV record for " + name));
+    }
+
+    private <T> CompletableFuture<Answer<T>> lookup(final String name, final int type, final Function<Record, T> mapper) {
+        final Name dnsName;
+        try {
+            dnsName = Name.fromString(name);
+        } catch (TextParseException e) {
+            final CompletableFuture<Answer<T>> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+
+        return session.lookupAsync(dnsName, type).toCompletableFuture().handle((result, e) -> {
+            if (e != null) {
+                final Throwable cause = e instanceof CompletionException ? e.getCause() : e;
+                // A name may legitimately have no record of this type, e.g. no AAAA
+                if (cause instanceof NoSuchRRSetException || cause instanceof NoSuchDomainException) {
+                    return Answer.empty();
+                }
+                throw new CompletionException(cause);
+            }
+
+            final Set<T> values = new HashSet<>();
+            long ttlInSec = Long.MAX_VALUE;
+            for (Record record : result.getRecords()) {
+                values.add(mapper.apply(record));
+                ttlInSec = Math.min(ttlInSec, record.getTTL());
+            }
+            return new Answer<>(values, ttlInSec);
+        });
+    }
+
+    private static <T> Answer<T> requireValues(final Answer<T> answer, final String message) {
+        if (answer.getValues().isEmpty()) {
+            throw new CompletionException(new UnknownHostException(message));
+        }
+        return answer;
+    }
+}
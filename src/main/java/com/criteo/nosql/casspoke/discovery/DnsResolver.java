@@ -0,0 +1,52 @@
+package com.criteo.nosql.casspoke.discovery;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Asynchronous lookup of the DNS records used by the {@link DnsDiscovery}
+ */
+interface DnsResolver {
+
+    /**
+     * @return the A and AAAA records of the name
+     */
+    CompletableFuture<Answer<InetAddress>> lookupAddresses(String name);
+
+    /**
+     * @return the SRV records of the name, as unresolved target host and port
+     */
+    CompletableFuture<Answer<InetSocketAddress>> lookupSrv(String name);
+
+    final class Answer<T> {
+        private final Set<T> values;
+        private final long ttlInSec;
+
+        Answer(final Set<T> values, final long ttlInSec) {
+            this.values = Collections.unmodifiableSet(values);
+            this.ttlInSec = ttlInSec;
+        }
+
+        static <T> Answer<T> empty() {
+            return new Answer<>(Collections.emptySet(), Long.MAX_VALUE);
+        }
+
+        Set<T> getValues() {
+            return values;
+        }
+
+        long getTtlInSec() {
+            return ttlInSec;
+        }
+
+        Answer<T> merge(final Answer<T> other) {
+            final Set<T> merged = new HashSet<>(values);
+            merged.addAll(other.values);
+            return new Answer<>(merged, Math.min(ttlInSec, other.ttlInSec));
+        }
+    }
+}
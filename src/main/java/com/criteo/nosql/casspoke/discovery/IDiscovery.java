@@ -10,6 +10,30 @@ public interface IDiscovery extends AutoCloseable {
 
     Map<Service, Set<InetSocketAddress>> getServicesNodes();
 
+    /**
+     * Push the changes of the services to the listener as soon as they are known,
+     * in addition to the periodic calls to getServicesNodes().
+     * A new listener replaces the previous one.
+     *
+     * @return false if the discovery cannot watch the services
+     */
+    default boolean watch(ServiceListener listener) {
+        return false;
+    }
+
+    /**
+     * Stop pushing the changes to the listener
+     */
+    default void unwatch() {
+    }
+
     default void close() {
     }
+
+    interface ServiceListener {
+        /**
+         * @param nodes the new nodes of the service, empty if the service is gone
+         */
+        void onServiceChange(Service service, Set<InetSocketAddress> nodes);
+    }
 }
@@ -0,0 +1,190 @@
+package com.criteo.nosql.casspoke.exporter;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.prometheus.client.Collector;
+import io.prometheus.client.CollectorRegistry;
+import io.prometheus.client.exporter.common.TextFormat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Serve the Prometheus text format of a registry, rendered once per period instead of once per scrape.
+ * <p/>
+ * The quantiles of the summaries are then computed by the render thread, whatever the number of scrapers.
+ * Every scrape writes the same buffers, gzipped or not depending on its Accept-Encoding.
+ * Scrapes filtered with name[] parameters are still rendered on demand.
+ */
+public class CachedScrapeServer {
+    private static final Logger logger = LoggerFactory.getLogger(CachedScrapeServer.class);
+
+    private final CollectorRegistry registry;
+    private final HttpServer server;
+    private final ExecutorService handlers;
+    private final ScheduledExecutorService renderer;
+    private volatile Snapshot snapshot;
+
+    public CachedScrapeServer(final int port, final CollectorRegistry registry, final long renderPeriodInMs) throws IOException {
+        this.registry = registry;
+        this.snapshot = render();
+
+        // daemon=true, so if the scheduler is stopped, the JVM does not wait for http server termination
+        this.renderer = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("scrape-render-%d").setDaemon(true).build());
+        this.renderer.scheduleAtFixedRate(this::refresh, renderPeriodInMs, renderPeriodInMs, TimeUnit.MILLISECONDS);
+
+        this.handlers = Executors.newFixedThreadPool(5,
+                new ThreadFactoryBuilder().setNameFormat("scrape-%d").setDaemon(true).build());
+        this.server = HttpServer.create(new InetSocketAddress(port), 3);
+        this.server.createContext("/", this::handle);
+        this.server.setExecutor(handlers);
+        this.server.start();
+    }
+
+    private void refresh() {
+        // Exceptions are caught, otherwise the scheduler silently stops rendering
+        try {
+            final long start = System.nanoTime();
+            snapshot = render();
+            logger.debug("Rendered {} bytes of metrics in {} ms", snapshot.plain.length,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        } catch (Exception e) {
+            logger.error("Cannot render the metrics, keeping the previous ones", e);
+        }
+    }
+
+    private Snapshot render() throws IOException {
+        final byte[] plain = write(registry.metricFamilySamples());
+        return new Snapshot(plain, gzip(plain));
+    }
+
+    private static byte[] write(final Enumeration<Collector.MetricFamilySamples> samples) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(1 << 16);
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8))) {
+            TextFormat.write004(writer, samples);
+        }
+        return out.toByteArray();
+    }
+
+    private void handle(final HttpExchange exchange) throws IOException {
+        try {
+            final Set<String> names = parseNames(exchange.getRequestURI().getRawQuery());
+            final boolean gzip = acceptsGzip(exchange);
+            final byte[] body;
+            if (names.isEmpty()) {
+                final Snapshot current = snapshot;
+                body = gzip ? current.gzipped : current.plain;
+            } else {
+                final byte[] plain = write(registry.filteredMetricFamilySamples(names));
+                body = gzip ? gzip(plain) : plain;
+            }
+
+            exchange.getResponseHeaders().set("Content-Type", TextFormat.CONTENT_TYPE_004);
+            if (gzip) {
+                exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+            }
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static byte[] gzip(final byte[] plain) throws IOException {
+        final ByteArrayOutputStream gzipped = new ByteArrayOutputStream(plain.length / 4);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(gzipped)) {
+            gzip.write(plain);
+        }
+        return gzipped.toByteArray();
+    }
+
+    private static boolean acceptsGzip(final HttpExchange exchange) {
+        return acceptsGzip(exchange.getRequestHeaders().get("Accept-Encoding"));
+    }
+
+    /**
+     * @return true if gzip, or '*' when gzip is not listed, has a non-zero q-value in the Accept-Encoding values
+     */
+    static boolean acceptsGzip(final List<String> encodings) {
+        if (encodings == null) {
+            return false;
+        }
+        boolean wildcard = false;
+        for (String encoding : encodings) {
+            for (String part : encoding.split(",")) {
+                final String[] params = part.split(";");
+                final String coding = params[0].trim().toLowerCase(Locale.ROOT);
+                if (coding.equals("gzip") || coding.equals("x-gzip")) {
+                    return qValueOf(params) > 0;
+                }
+                if (coding.equals("*")) {
+                    wildcard = qValueOf(params) > 0;
+                }
+            }
+        }
+        return wildcard;
+    }
+
+    /**
+     * @return the q parameter of a coding, 1 when absent and 0 when malformed, so the body is then sent plain
+     */
+    private static double qValueOf(final String[] params) {
+        for (int i = 1; i < params.length; i++) {
+            final String param = params[i].trim();
+            if (param.length() > 2 && param.substring(0, 2).equalsIgnoreCase("q=")) {
+                try {
+                    return Double.parseDouble(param.substring(2).trim());
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 1;
+    }
+
+    private static Set<String> parseNames(final String query) throws UnsupportedEncodingException {
+        final Set<String> names = new HashSet<>();
+        if (query == null) {
+            return names;
+        }
+        for (String pair : query.split("&")) {
+            final int idx = pair.indexOf('=');
+            if (idx != -1 && URLDecoder.decode(pair.substring(0, idx), "UTF-8").equals("name[]")) {
+                names.add(URLDecoder.decode(pair.substring(idx + 1), "UTF-8"));
+            }
+        }
+        return names;
+    }
+
+    /**
+     * @return the port the server listens on, the one picked by the system when created with the port 0
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public void stop() {
+        server.stop(0);
+        handlers.shutdownNow();
+        renderer.shutdownNow();
+    }
+
+    private static final class Snapshot {
+        private final byte[] plain;
+        private final byte[] gzipped;
+
+        private Snapshot(final byte[] plain, final byte[] gzipped) {
+            this.plain = plain;
+            this.gzipped = gzipped;
+        }
+    }
+}
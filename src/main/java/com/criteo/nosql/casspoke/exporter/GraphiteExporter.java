@@ -0,0 +1,74 @@
+package com.criteo.nosql.casspoke.exporter;
+
+import com.criteo.nosql.casspoke.config.Config;
+import io.prometheus.client.Collector;
+import io.prometheus.client.CollectorRegistry;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Push the samples with the Graphite plaintext protocol, a line by sample:
+ * <pre>prefix.name.label1.value1.label2.value2 value timestampInSec</pre>
+ * All the lines of a batch are written on a single connection.
+ */
+public class GraphiteExporter extends PushExporter {
+
+    private static final Pattern INVALID_CHARS = Pattern.compile("[^a-zA-Z0-9_-]");
+
+    private final String host;
+    private final int port;
+    private final String prefix;
+    private final int timeoutInMs;
+
+    public GraphiteExporter(final Config.Graphite graphite, final CollectorRegistry registry,
+                            final Config.Push cfg, final long periodInMs) {
+        super("graphite", registry, cfg, periodInMs);
+        this.host = graphite.getHost();
+        this.port = graphite.getPort();
+        this.prefix = graphite.getPrefix() == null || graphite.getPrefix().isEmpty() ? "" : graphite.getPrefix() + ".";
+        this.timeoutInMs = cfg.getTimeoutInSec() * 1000;
+    }
+
+    @Override
+    protected byte[] encode(final List<Collector.MetricFamilySamples> families, final long timestampInMs) {
+        final StringBuilder lines = new StringBuilder(1 << 16);
+        for (Collector.MetricFamilySamples family : families) {
+            for (Collector.MetricFamilySamples.Sample sample : family.samples) {
+                // Graphite has no representation for them, e.g. the quantiles of an empty summary
+                if (Double.isNaN(sample.value) || Double.isInfinite(sample.value)) {
+                    continue;
+                }
+                lines.append(prefix).append(sample.name);
+                for (int i = 0; i < sample.labelNames.size(); i++) {
+                    lines.append('.').append(sample.labelNames.get(i))
+                            .append('.').append(INVALID_CHARS.matcher(sample.labelValues.get(i)).replaceAll("_"));
+                }
+                final long timestamp = sample.timestampMs != null ? sample.timestampMs : timestampInMs;
+                lines.append(' ').append(sample.value).append(' ').append(timestamp / 1000).append('\n');
+            }
+        }
+        return lines.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    protected void send(final byte[] batch) throws IOException {
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress(host, port), timeoutInMs);
+            socket.setSoTimeout(timeoutInMs);
+            final OutputStream out = socket.getOutputStream();
+            out.write(batch);
+            out.flush();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "graphite " + host + ":" + port;
+    }
+}
@@ -0,0 +1,151 @@
+package com.criteo.nosql.casspoke.exporter;
+
+import com.criteo.nosql.casspoke.config.Config;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.prometheus.client.Collector;
+import io.prometheus.client.CollectorRegistry;
+import io.prometheus.client.Counter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Push the samples of a registry once per period, all of them in a single request.
+ * <p/>
+ * The samples are encoded by a ticker thread and queued, a sender thread sends them with retries.
+ * Nothing is shared with the pokes: when the sink is slow or down, the queue is full and the oldest batch is dropped.
+ */
+public abstract class PushExporter implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(PushExporter.class);
+
+    private static final Counter BATCHES = Counter.build()
+            .name("casspoke_push_batches_total")
+            .help("Batches of samples pushed, by exporter and result")
+            .labelNames("exporter", "result")
+            .register();
+
+    private final String name;
+    private final CollectorRegistry registry;
+    private final long periodInMs;
+    private final int retries;
+    private final long retryBackoffInMs;
+    private final BlockingQueue<byte[]> queue;
+    private final ScheduledExecutorService ticker;
+    private final Thread sender;
+
+    protected PushExporter(final String name, final CollectorRegistry registry, final Config.Push cfg, final long periodInMs) {
+        this.name = name;
+        this.registry = registry;
+        this.periodInMs = periodInMs;
+        this.retries = cfg.getRetries();
+        this.retryBackoffInMs = cfg.getRetryBackoffInMs();
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, cfg.getQueueSize()));
+        this.ticker = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("push-" + name + "-%d").setDaemon(true).build());
+        this.sender = new ThreadFactoryBuilder().setNameFormat("push-" + name + "-sender").setDaemon(true).build()
+                .newThread(this::drain);
+    }
+
+    /**
+     * @return the exporters configured in the push section, not started yet
+     */
+    public static List<PushExporter> fromConfig(final Config.Push cfg, final CollectorRegistry registry, final long periodInMs) {
+        if (cfg == null) {
+            return Collections.emptyList();
+        }
+        final List<PushExporter> exporters = new ArrayList<>();
+        if (cfg.getRemoteWrite() != null) {
+            exporters.add(new RemoteWriteExporter(cfg.getRemoteWrite(), registry, cfg, periodInMs));
+        }
+        if (cfg.getGraphite() != null) {
+            exporters.add(new GraphiteExporter(cfg.getGraphite(), registry, cfg, periodInMs));
+        }
+        return exporters;
+    }
+
+    public void start() {
+        logger.info("Pushing the metrics to {} every {} ms", this, periodInMs);
+        ticker.scheduleAtFixedRate(this::tick, periodInMs, periodInMs, TimeUnit.MILLISECONDS);
+        sender.start();
+    }
+
+    /**
+     * @return the body of the request sending the samples, all of them being timestamped at timestampInMs
+     */
+    protected abstract byte[] encode(List<Collector.MetricFamilySamples> samples, long timestampInMs) throws IOException;
+
+    /**
+     * Send a batch, an IOException is retried but a {@link RejectedBatchException} is not
+     */
+    protected abstract void send(byte[] batch) throws IOException;
+
+    void tick() {
+        // Exceptions are caught, otherwise the scheduler silently stops pushing
+        try {
+            final long now = System.currentTimeMillis();
+            final byte[] batch = encode(Collections.list(registry.metricFamilySamples()), now);
+            while (!queue.offer(batch)) {
+                if (queue.poll() != null) {
+                    BATCHES.labels(name, "dropped").inc();
+                    logger.warn("The queue of {} is full, the oldest batch is dropped", this);
+                }
+            }
+        } catch (Exception e) {
+            logger.error("Cannot encode the samples for {}", this, e);
+        }
+    }
+
+    private void drain() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                sendWithRetries(queue.take());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void sendWithRetries(final byte[] batch) throws InterruptedException {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                send(batch);
+                BATCHES.labels(name, "sent").inc();
+                return;
+            } catch (RejectedBatchException e) {
+                BATCHES.labels(name, "failed").inc();
+                logger.error("{} rejected a batch, it is dropped", this, e);
+                return;
+            } catch (Exception e) {
+                if (attempt >= retries) {
+                    BATCHES.labels(name, "failed").inc();
+                    logger.error("Cannot push a batch to {} after {} attempts, it is dropped", this, attempt + 1, e);
+                    return;
+                }
+                logger.warn("Cannot push a batch to {}, retrying: {}", this, e.toString());
+                Thread.sleep(retryBackoffInMs << Math.min(attempt, 6));
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        ticker.shutdownNow();
+        sender.interrupt();
+    }
+
+    /**
+     * The sink refused the batch, sending it again would not help
+     */
+    public static class RejectedBatchException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public RejectedBatchException(final String message) {
+            super(message);
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package com.criteo.nosql.casspoke.exporter;
+
+import com.criteo.nosql.casspoke.config.Config;
+import io.prometheus.client.Collector;
+import io.prometheus.client.CollectorRegistry;
+import org.xerial.snappy.Snappy;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Push the samples with the Prometheus remote-write protocol: a snappy compressed WriteRequest protobuf.
+ * <p/>
+ * The messages are small, they are written by hand instead of depending on protobuf:
+ * <pre>
+ * message WriteRequest { repeated TimeSeries timeseries = 1; }
+ * message TimeSeries { repeated Label labels = 1; repeated Sample samples = 2; }
+ * message Label { string name = 1; string value = 2; }
+ * message Sample { double value = 1; int64 timestamp = 2; }
+ * </pre>
+ */
+public class RemoteWriteExporter extends PushExporter {
+
+    private final URL url;
+    private final int timeoutInMs;
+
+    public RemoteWriteExporter(final Config.RemoteWrite remoteWrite, final CollectorRegistry registry,
+                               final Config.Push cfg, final long periodInMs) {
+        super("remote-write", registry, cfg, periodInMs);
+        try {
+            this.url = new URL(remoteWrite.getUrl());
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Bad remote-write url " + remoteWrite.getUrl(), e);
+        }
+        this.timeoutInMs = cfg.getTimeoutInSec() * 1000;
+    }
+
+    @Override
+    protected byte[] encode(final List<Collector.MetricFamilySamples> families, final long timestampInMs) throws IOException {
+        final ByteArrayOutputStream request = new ByteArrayOutputStream(1 << 16);
+        final ByteArrayOutputStream series = new ByteArrayOutputStream(256);
+        final ByteArrayOutputStream message = new ByteArrayOutputStream(64);
+        final List<String[]> labels = new ArrayList<>();
+
+        for (Collector.MetricFamilySamples family : families) {
+            for (Collector.MetricFamilySamples.Sample sample : family.samples) {
+                // Labels are sorted by name, as expected by the receivers
+                labels.clear();
+                labels.add(new String[]{"__name__", sample.name});
+                for (int i = 0; i < sample.labelNames.size(); i++) {
+                    labels.add(new String[]{sample.labelNames.get(i), sample.labelValues.get(i)});
+                }
+                labels.sort(Comparator.comparing(label -> label[0]));
+
+                series.reset();
+                for (String[] label : labels) {
+                    message.reset();
+                    writeString(message, 1, label[0]);
+                    writeString(message, 2, label[1]);
+                    writeMessage(series, 1, message);
+                }
+                message.reset();
+                writeTag(message, 1, 1);
+                writeFixed64(message, Double.doubleToRawLongBits(sample.value));
+                writeTag(message, 2, 0);
+                writeVarint(message, sample.timestampMs != null ? sample.timestampMs : timestampInMs);
+                writeMessage(series, 2, message);
+
+                writeMessage(request, 1, series);
+            }
+        }
+        return Snappy.compress(request.toByteArray());
+    }
+
+    @Override
+    protected void send(final byte[] batch) throws IOException {
+        final HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        try {
+            connection.setConnectTimeout(timeoutInMs);
+            connection.setReadTimeout(timeoutInMs);
+            connection.setDoOutput(true);
+            connection.setRequestMethod("POST");
+            connection.setRequestProperty("Content-Type", "application/x-protobuf");
+            connection.setRequestProperty("Content-Encoding", "snappy");
+            connection.setRequestProperty("User-Agent", "casspoke");
+            connection.setRequestProperty("X-Prometheus-Remote-Write-Version", "0.1.0");
+            connection.setFixedLengthStreamingMode(batch.length);
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(batch);
+            }
+
+            final int status = connection.getResponseCode();
+            if (status / 100 == 2) {
+                drain(connection.getInputStream());
+            } else if (status / 100 == 4 && status != 429) {
+                // As Prometheus does, client errors other than throttling are not retried
+                throw new RejectedBatchException("HTTP " + status + " from " + url + ": " + readError(connection));
+            } else {
+                throw new IOException("HTTP " + status + " from " + url + ": " + readError(connection));
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private static String readError(final HttpURLConnection connection) throws IOException {
+        try (InputStream error = connection.getErrorStream()) {
+            if (error == null) {
+                return "";
+            }
+            final ByteArrayOutputStream body = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[512];
+            for (int read = error.read(buffer); read != -1 && body.size() < 1024; read = error.read(buffer)) {
+                body.write(buffer, 0, read);
+            }
+            return new String(body.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static void drain(final InputStream in) throws IOException {
+        try (InputStream body = in) {
+            final byte[] buffer = new byte[512];
+            while (body.read(buffer) != -1) {
+                // The connection is reused once its response is read
+            }
+        }
+    }
+
+    private static void writeTag(final ByteArrayOutputStream out, final int field, final int wireType) {
+        writeVarint(out, (field << 3) | wireType);
+    }
+
+    private static void writeVarint(final ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static void writeFixed64(final ByteArrayOutputStream out, final long value) {
+        for (int i = 0; i < 8; i++) {
+            out.write((int) (value >>> (8 * i)));
+        }
+    }
+
+    private static void writeString(final ByteArrayOutputStream out, final int field, final String value) {
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeTag(out, field, 2);
+        writeVarint(out, bytes.length);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    private static void writeMessage(final ByteArrayOutputStream out, final int field, final ByteArrayOutputStream message) throws IOException {
+        writeTag(out, field, 2);
+        writeVarint(out, message.size());
+        message.writeTo(out);
+    }
+
+    @Override
+    public String toString() {
+        return "remote-write " + url;
+    }
+}
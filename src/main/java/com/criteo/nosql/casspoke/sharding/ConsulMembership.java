@@ -0,0 +1,74 @@
+package com.criteo.nosql.casspoke.sharding;
+
+import com.ecwid.consul.v1.ConsulRawClient;
+import com.ecwid.consul.v1.QueryParams;
+import com.ecwid.consul.v1.kv.KeyValueClient;
+import com.ecwid.consul.v1.kv.KeyValueConsulClient;
+import com.ecwid.consul.v1.kv.model.GetValue;
+import com.google.common.base.Splitter;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Read the replicas from a Consul key, whose value lists them separated by commas or new lines.
+ * Adding or removing a replica only requires to update the key.
+ */
+public class ConsulMembership implements IMembership {
+    private static final Logger logger = LoggerFactory.getLogger(ConsulMembership.class);
+
+    private final CloseableHttpClient httpClient;
+    private final KeyValueClient client;
+    private final String key;
+    private volatile List<String> lastReplicas = Collections.emptyList();
+
+    /**
+     * @param timeoutInSec bounds each read, the replicas are read by the run loop and a hung Consul would stall it
+     */
+    public ConsulMembership(final String host, final int port, final String key, final int timeoutInSec) {
+        final int timeoutInMs = (int) TimeUnit.SECONDS.toMillis(timeoutInSec);
+        this.httpClient = HttpClientBuilder.create()
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        .setConnectTimeout(timeoutInMs)
+                        .setConnectionRequestTimeout(timeoutInMs)
+                        .setSocketTimeout(timeoutInMs)
+                        .build())
+                .build();
+        this.client = new KeyValueConsulClient(new ConsulRawClient(host, port, httpClient));
+        this.key = key;
+    }
+
+    /**
+     * @return the replicas listed in the key, or the last known ones if Consul cannot be reached
+     */
+    @Override
+    public List<String> getReplicas() {
+        try {
+            final GetValue value = client.getKVValue(key, QueryParams.DEFAULT).getValue();
+            if (value == null || value.getDecodedValue() == null) {
+                logger.warn("The consul key {} holding the replicas does not exist", key);
+                return lastReplicas;
+            }
+            lastReplicas = Splitter.onPattern("[,\\n]").trimResults().omitEmptyStrings().splitToList(value.getDecodedValue());
+        } catch (Exception e) {
+            logger.error("Cannot read the replicas from the consul key {}", key, e);
+        }
+        return lastReplicas;
+    }
+
+    @Override
+    public void close() {
+        try {
+            httpClient.close();
+        } catch (IOException e) {
+            logger.error("Cannot close the consul http client", e);
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package com.criteo.nosql.casspoke.sharding;
+
+import java.util.List;
+
+/**
+ * Provide the replicas of casspoke sharing the clusters
+ */
+public interface IMembership extends AutoCloseable {
+
+    /**
+     * @return the names of the replicas, or an empty list if they are unknown
+     */
+    List<String> getReplicas();
+
+    default void close() {
+    }
+}
@@ -0,0 +1,119 @@
+package com.criteo.nosql.casspoke.sharding;
+
+import com.criteo.nosql.casspoke.config.Config;
+import com.criteo.nosql.casspoke.discovery.Service;
+import com.google.common.base.Strings;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Split the services between the replicas of casspoke, with a rendezvous hashing of the cluster names.
+ * <p/>
+ * Each cluster goes to the replica with the highest hash of the pair (replica, cluster), so when a replica
+ * joins or leaves, only the clusters it gains or loses move.
+ */
+public class Sharding implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(Sharding.class);
+
+    private static final HashFunction HASH = Hashing.murmur3_128();
+
+    private final String replica;
+    private final IMembership membership;
+    private volatile List<String> replicas = Collections.emptyList();
+
+    public Sharding(final String replica, final IMembership membership) {
+        this.replica = replica;
+        this.membership = membership;
+    }
+
+    /**
+     * @return a sharding owning all the services when the config has no sharding section
+     */
+    public static Sharding fromConfig(final Config.Sharding shardingCfg) {
+        if (shardingCfg == null) {
+            return new Sharding(null, null);
+        }
+
+        final String replica = Strings.isNullOrEmpty(shardingCfg.getReplica()) ? getHostName() : shardingCfg.getReplica();
+        final IMembership membership = Strings.isNullOrEmpty(shardingCfg.getConsulKey())
+                ? new StaticMembership(shardingCfg.getReplicas())
+                : new ConsulMembership(shardingCfg.getConsulHost(), shardingCfg.getConsulPort(), shardingCfg.getConsulKey(),
+                        shardingCfg.getConsulTimeoutInSec());
+        logger.info("Sharding enabled, this replica is {}", replica);
+        return new Sharding(replica, membership);
+    }
+
+    private static String getHostName() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            throw new IllegalStateException("Cannot find the hostname, please set the name of the replica", e);
+        }
+    }
+
+    public boolean isEnabled() {
+        return membership != null;
+    }
+
+    /**
+     * Read the replicas again. Until the first successful read, this replica owns all the services: monitoring
+     * some clusters twice is better than leaving them unmonitored
+     */
+    public void refresh() {
+        if (!isEnabled()) {
+            return;
+        }
+
+        final List<String> newReplicas = new ArrayList<>(membership.getReplicas());
+        if (newReplicas.isEmpty()) {
+            logger.warn("The replicas are unknown, the last known ones are kept: {}", replicas);
+            return;
+        }
+        Collections.sort(newReplicas);
+        if (!newReplicas.equals(replicas)) {
+            logger.info("Replicas changed from {} to {}", replicas, newReplicas);
+            if (!newReplicas.contains(replica)) {
+                logger.warn("This replica {} is not one of {}, it will not monitor any service", replica, newReplicas);
+            }
+            replicas = newReplicas;
+        }
+    }
+
+    public boolean owns(final Service service) {
+        final List<String> known = replicas;
+        return !isEnabled() || known.isEmpty() || replica.equals(ownerOf(service.getClusterName(), known));
+    }
+
+    static String ownerOf(final String clusterName, final List<String> replicas) {
+        String owner = null;
+        long maxScore = Long.MIN_VALUE;
+        for (String candidate : replicas) {
+            final long score = HASH.newHasher()
+                    .putInt(candidate.length())
+                    .putString(candidate, StandardCharsets.UTF_8)
+                    .putString(clusterName, StandardCharsets.UTF_8)
+                    .hash().asLong();
+            if (owner == null || score > maxScore || (score == maxScore && candidate.compareTo(owner) < 0)) {
+                owner = candidate;
+                maxScore = score;
+            }
+        }
+        return owner;
+    }
+
+    @Override
+    public void close() {
+        if (membership != null) {
+            membership.close();
+        }
+    }
+}
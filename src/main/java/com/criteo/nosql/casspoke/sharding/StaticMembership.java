@@ -0,0 +1,17 @@
+package com.criteo.nosql.casspoke.sharding;
+
+import java.util.List;
+
+public class StaticMembership implements IMembership {
+
+    private final List<String> replicas;
+
+    public StaticMembership(final List<String> replicas) {
+        this.replicas = replicas;
+    }
+
+    @Override
+    public List<String> getReplicas() {
+        return replicas;
+    }
+}
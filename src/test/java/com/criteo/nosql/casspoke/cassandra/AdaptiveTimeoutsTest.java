@@ -0,0 +1,70 @@
+package com.criteo.nosql.casspoke.cassandra;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+
+public class AdaptiveTimeoutsTest {
+
+    private static final CassandraNode NODE = new CassandraNode(new InetSocketAddress("127.0.0.1", 9042), "dc1", "rack1");
+
+    @Test
+    public void testCeilingUntilEnoughSamples() {
+        final AdaptiveTimeouts timeouts = new AdaptiveTimeouts(true, 5, 100, 60_000);
+        Assert.assertEquals(60_000, timeouts.timeoutInMs(NODE));
+        for (int i = 0; i < 9; i++) {
+            timeouts.recordSuccess(NODE, TimeUnit.MILLISECONDS.toNanos(10));
+        }
+        Assert.assertEquals(60_000, timeouts.timeoutInMs(NODE));
+        timeouts.recordSuccess(NODE, TimeUnit.MILLISECONDS.toNanos(10));
+        Assert.assertEquals(100, timeouts.timeoutInMs(NODE));
+    }
+
+    @Test
+    public void testMultipleOfP99WithinBounds() {
+        final AdaptiveTimeouts timeouts = new AdaptiveTimeouts(true, 5, 100, 2_000);
+        for (int i = 0; i < 99; i++) {
+            timeouts.recordSuccess(NODE, TimeUnit.MILLISECONDS.toNanos(20));
+        }
+        timeouts.recordSuccess(NODE, TimeUnit.MILLISECONDS.toNanos(300));
+        // p99 of 100 samples is the 99th smallest one
+        Assert.assertEquals(100, timeouts.timeoutInMs(NODE));
+
+        timeouts.recordSuccess(NODE, TimeUnit.MILLISECONDS.toNanos(300));
+        Assert.assertEquals(1_500, timeouts.timeoutInMs(NODE));
+
+        for (int i = 0; i < 100; i++) {
+            timeouts.recordSuccess(NODE, TimeUnit.SECONDS.toNanos(1));
+        }
+        Assert.assertEquals(2_000, timeouts.timeoutInMs(NODE));
+    }
+
+    @Test
+    public void testFailuresDoubleTheTimeout() {
+        final AdaptiveTimeouts timeouts = new AdaptiveTimeouts(true, 5, 100, 1_000);
+        for (int i = 0; i < 10; i++) {
+            timeouts.recordSuccess(NODE, TimeUnit.MILLISECONDS.toNanos(10));
+        }
+        timeouts.recordFailure(NODE);
+        Assert.assertEquals(200, timeouts.timeoutInMs(NODE));
+        timeouts.recordFailure(NODE);
+        timeouts.recordFailure(NODE);
+        Assert.assertEquals(800, timeouts.timeoutInMs(NODE));
+        timeouts.recordFailure(NODE);
+        Assert.assertEquals(1_000, timeouts.timeoutInMs(NODE));
+
+        timeouts.recordSuccess(NODE, TimeUnit.MILLISECONDS.toNanos(10));
+        Assert.assertEquals(100, timeouts.timeoutInMs(NODE));
+    }
+
+    @Test
+    public void testDisabled() {
+        final AdaptiveTimeouts timeouts = new AdaptiveTimeouts(false, 5, 100, 60_000);
+        for (int i = 0; i < 20; i++) {
+            timeouts.recordSuccess(NODE, TimeUnit.MILLISECONDS.toNanos(10));
+        }
+        Assert.assertEquals(60_000, timeouts.timeoutInMs(NODE));
+    }
+}
@@ -0,0 +1,116 @@
+package com.criteo.nosql.casspoke.cassandra;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class AsyncProbesTest {
+
+    private final Map<String, Long> successes = new ConcurrentHashMap<>();
+    private final Map<String, Throwable> failures = new ConcurrentHashMap<>();
+    private final AsyncProbes.Listener<String> listener = new AsyncProbes.Listener<String>() {
+        @Override
+        public void onSuccess(String target, long latencyInNs) {
+            successes.put(target, latencyInNs);
+        }
+
+        @Override
+        public void onFailure(String target, Throwable error) {
+            failures.put(target, error);
+        }
+    };
+
+    @Test
+    public void testGathersTheProbesAsTheyComplete() {
+        final AsyncProbes probes = new AsyncProbes(4, 1_000);
+        final Map<String, Long> latencies = probes.collect("cstars01", Arrays.asList("node1", "node2", "node3"),
+                target -> target.equals("node2") ? Futures.immediateFailedFuture(new IOException("reset")) : Futures.immediateFuture(target),
+                listener);
+
+        Assert.assertEquals(new HashSet<>(Arrays.asList("node1", "node3")), latencies.keySet());
+        Assert.assertEquals(latencies, successes);
+        Assert.assertTrue(failures.get("node2") instanceof IOException);
+        Assert.assertEquals(4, probes.availablePermits());
+    }
+
+    @Test
+    public void testInFlightProbesAreBounded() {
+        final AsyncProbes probes = new AsyncProbes(2, 1_000);
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger maxInFlight = new AtomicInteger();
+        final List<SettableFuture<Object>> sent = new ArrayList<>();
+
+        final Map<String, Long> latencies = probes.collect("cstars01", Arrays.asList("node1", "node2", "node3", "node4"),
+                target -> {
+                    maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+                    final SettableFuture<Object> future = SettableFuture.create();
+                    sent.add(future);
+                    // The probe sent before this one completes, so a permit is given back later
+                    if (sent.size() >= 2) {
+                        final SettableFuture<Object> previous = sent.get(sent.size() - 2);
+                        new Thread(() -> {
+                            inFlight.decrementAndGet();
+                            previous.set(target);
+                        }).start();
+                    }
+                    return future;
+                }, listener);
+
+        Assert.assertEquals(2, maxInFlight.get());
+        Assert.assertEquals(3, latencies.size());
+        Assert.assertTrue("The last probe never answers", failures.get("node4") instanceof TimeoutException);
+        Assert.assertEquals(2, probes.availablePermits());
+    }
+
+    @Test
+    public void testPendingProbesAreCancelledAtTheDeadline() {
+        final AsyncProbes probes = new AsyncProbes(4, 200);
+        final SettableFuture<Object> lost = SettableFuture.create();
+
+        final long start = System.nanoTime();
+        final Map<String, Long> latencies = probes.collect("cstars01", Arrays.asList("node1", "node2"),
+                target -> target.equals("node1") ? Futures.immediateFuture(target) : lost, listener);
+
+        Assert.assertTrue(System.nanoTime() - start < 2_000_000_000L);
+        Assert.assertEquals(Collections.singleton("node1"), latencies.keySet());
+        Assert.assertTrue(lost.isCancelled());
+        Assert.assertTrue(failures.get("node2") instanceof TimeoutException);
+        Assert.assertEquals("The permit of the cancelled probe is given back", 4, probes.availablePermits());
+    }
+
+    @Test
+    public void testLateCallbacksAreIgnored() {
+        final AsyncProbes probes = new AsyncProbes(4, 100);
+        final SettableFuture<Object> late = SettableFuture.create();
+        // Its cancellation is ignored, so it completes afterwards as a late response would
+        final ListenableFuture<Object> uncancellable = Futures.nonCancellationPropagating(late);
+
+        probes.collect("cstars01", Collections.singletonList("node1"), target -> uncancellable, listener);
+        failures.clear();
+        late.set("late");
+
+        Assert.assertTrue(successes.isEmpty());
+        Assert.assertTrue(failures.isEmpty());
+        Assert.assertEquals(4, probes.availablePermits());
+    }
+
+    @Test
+    public void testSkippedWhenNoPermitIsGivenBackInTime() {
+        final AsyncProbes probes = new AsyncProbes(1, 200);
+        final Map<String, Long> latencies = probes.collect("cstars01", Arrays.asList("node1", "node2"),
+                target -> SettableFuture.create(), listener);
+
+        Assert.assertTrue(latencies.isEmpty());
+        Assert.assertTrue(failures.get("node1") instanceof TimeoutException);
+        Assert.assertFalse("node2 was never sent", failures.containsKey("node2"));
+        Assert.assertEquals(1, probes.availablePermits());
+    }
+}
@@ -0,0 +1,67 @@
+package com.criteo.nosql.casspoke.cassandra;
+
+import com.criteo.nosql.casspoke.discovery.Service;
+import io.prometheus.client.CollectorRegistry;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.util.Collections;
+
+public class CassandraMetricsTest {
+
+    private static final CassandraNode NODE = new CassandraNode(new InetSocketAddress("127.0.0.1", 9042), "dc1", "rack1");
+
+    @Test
+    public void testNoSeriesAfterClose() {
+        final CassandraMetrics metrics = new CassandraMetrics(new Service("cmetrics01", Collections.emptyList()));
+        metrics.updateAvailability(Collections.singletonMap(NODE, true));
+        Assert.assertEquals(1, up("cmetrics01"), 0);
+
+        metrics.close();
+        Assert.assertNull(up("cmetrics01"));
+
+        // A poke still running after the close
+        metrics.updateAvailability(Collections.singletonMap(NODE, true));
+        metrics.updateGetLatency(Collections.singletonMap(NODE, 1_000L));
+        Assert.assertNull(up("cmetrics01"));
+        Assert.assertNull(CollectorRegistry.defaultRegistry.getSampleValue("cassandra_latency_count",
+                new String[]{"cluster", "instance", "rack", "command", "datacenter"},
+                new String[]{"cmetrics01", "127.0.0.1", "rack1", "get", "dc1"}));
+    }
+
+    @Test
+    public void testRemoveHost() {
+        final CassandraMetrics metrics = new CassandraMetrics(new Service("cmetrics02", Collections.emptyList()));
+        metrics.updateAvailability(Collections.singletonMap(NODE, true));
+
+        metrics.removeHost(NODE);
+        Assert.assertNull(up("cmetrics02"));
+
+        // The host came back
+        metrics.updateAvailability(Collections.singletonMap(NODE, false));
+        Assert.assertEquals(0, up("cmetrics02"), 0);
+        metrics.close();
+    }
+
+    @Test
+    public void testRangeLatenciesGoThroughTheBackend() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        final CassandraMetrics metrics = new CassandraMetrics(new Service("cmetrics03", Collections.emptyList()), histogram);
+        metrics.recordRangeLatency(NODE, "get", 2, 1_000L);
+        Assert.assertFalse(histogram.collect().get(1).samples.isEmpty());
+        Assert.assertNull(CollectorRegistry.defaultRegistry.getSampleValue("cassandra_range_latency_count",
+                new String[]{"cluster", "instance", "rack", "command", "datacenter", "range"},
+                new String[]{"cmetrics03", "127.0.0.1", "rack1", "get", "dc1", "2"}));
+
+        metrics.removeHost(NODE);
+        Assert.assertTrue(histogram.collect().get(1).samples.isEmpty());
+        metrics.close();
+    }
+
+    private static Double up(final String cluster) {
+        return CollectorRegistry.defaultRegistry.getSampleValue("cassandra_up",
+                new String[]{"cluster", "instance", "rack", "datacenter"},
+                new String[]{cluster, "127.0.0.1", "rack1", "dc1"});
+    }
+}
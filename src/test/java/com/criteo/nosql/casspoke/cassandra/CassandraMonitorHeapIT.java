@@ -0,0 +1,76 @@
+package com.criteo.nosql.casspoke.cassandra;
+
+import com.criteo.nosql.casspoke.config.Config;
+import com.criteo.nosql.casspoke.discovery.Service;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.util.*;
+
+/**
+ * Compare the heap retained by the monitors of the full driver profile and of the monitoring one.
+ * <p/>
+ * It needs a live cluster, e.g. -Dcasspoke.it.contactPoint=cassandra01:9042, and -Dcasspoke.it.monitors=20
+ * to change the number of monitors created by profile. The larger its schema, the larger the difference.
+ */
+public class CassandraMonitorHeapIT {
+
+    private static final Logger logger = LoggerFactory.getLogger(CassandraMonitorHeapIT.class);
+
+    @Test
+    public void testMonitoringProfileUsesLessHeap() throws Exception {
+        final String contactPoint = System.getProperty("casspoke.it.contactPoint");
+        Assume.assumeNotNull(contactPoint);
+        final int monitors = Integer.getInteger("casspoke.it.monitors", 20);
+        final String[] hostAndPort = contactPoint.split(":");
+        final InetSocketAddress endPoint = new InetSocketAddress(hostAndPort[0],
+                hostAndPort.length > 1 ? Integer.parseInt(hostAndPort[1]) : 9042);
+
+        final long fullHeap = retainedHeap("full", endPoint, monitors);
+        final long monitoringHeap = retainedHeap(CassandraMonitor.MONITORING_PROFILE, endPoint, monitors);
+        logger.info("Heap retained by a monitor: full={} KB, monitoring={} KB",
+                fullHeap / monitors / 1024, monitoringHeap / monitors / 1024);
+
+        Assert.assertTrue("The monitoring profile should retain less heap than the full one", monitoringHeap < fullHeap);
+    }
+
+    private static long retainedHeap(final String profile, final InetSocketAddress endPoint, final int count) throws Exception {
+        final Map<String, String> app = new HashMap<>();
+        app.put("driverProfile", profile);
+        app.put("timeoutInSec", "10");
+        final Config cfg = new ObjectMapper().convertValue(Collections.singletonMap("app", app), Config.class);
+        final Service service = new Service("heap-" + profile, Collections.emptyList());
+
+        final long before = usedHeapAfterGc();
+        final List<IMonitor> monitors = new ArrayList<>(count);
+        try {
+            for (int i = 0; i < count; i++) {
+                final Optional<CassandraMonitor> monitor = CassandraMonitor.fromNodes(cfg, false, service,
+                        Collections.singleton(endPoint), node -> { }, (node, command, error) -> { },
+                        (node, command, bucket, latency) -> { }, Optional.empty(), Optional.empty(), Optional.empty());
+                Assume.assumeTrue("Cannot connect to " + endPoint, monitor.isPresent());
+                monitors.add(monitor.get());
+            }
+            // The monitors must stay reachable until the heap is measured
+            final long after = usedHeapAfterGc();
+            Assert.assertEquals(count, monitors.size());
+            return after - before;
+        } finally {
+            monitors.forEach(IMonitor::close);
+        }
+    }
+
+    private static long usedHeapAfterGc() throws InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(200);
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+}
@@ -0,0 +1,294 @@
+package com.criteo.nosql.casspoke.cassandra;
+
+import com.criteo.nosql.casspoke.config.Config;
+import com.criteo.nosql.casspoke.discovery.IDiscovery;
+import com.criteo.nosql.casspoke.discovery.Service;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.prometheus.client.CollectorRegistry;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+public class CassandraRunnerTest {
+
+    private static final Set<InetSocketAddress> NODES = Collections.singleton(new InetSocketAddress("10.0.0.1", 9042));
+    private static final Set<InetSocketAddress> OTHER_NODES = Collections.singleton(new InetSocketAddress("10.0.0.2", 9042));
+    private static final Service CRUNNER01 = new Service("crunner01", Collections.emptyList());
+    private static final Service CRUNNER02 = new Service("crunner02", Collections.emptyList());
+    private static final Service CRUNNER03 = new Service("crunner03", Collections.emptyList());
+
+    private final Map<Service, Set<InetSocketAddress>> discovered = new ConcurrentHashMap<>();
+    // The monitors created by service, in their order of creation
+    private final Map<Service, List<FakeMonitor>> created = new ConcurrentHashMap<>();
+    // The monitors to hand out for a service, a new one is made when none is queued
+    private final Map<Service, Deque<FakeMonitor>> queued = new ConcurrentHashMap<>();
+    // The monitors being connected wait until it is counted down
+    private volatile CountDownLatch connected = new CountDownLatch(0);
+    private final AtomicInteger connecting = new AtomicInteger();
+    // The services whose monitor cannot be created
+    private final Set<Service> failing = ConcurrentHashMap.newKeySet();
+    // Thrown by the discovery when set
+    private volatile RuntimeException discoveryError;
+    private FakeRunner runner;
+
+    @After
+    public void tearDown() {
+        connected.countDown();
+        created.values().forEach(monitors -> monitors.forEach(FakeMonitor::release));
+        if (runner != null) {
+            runner.close();
+        }
+    }
+
+    @Test
+    public void testMonitorIsKeptWhenOnlyTheContactPointsChange() {
+        runner = runner(Collections.emptyMap());
+        discovered.put(CRUNNER01, NODES);
+        runner.updateTopology();
+        final Optional<IMonitor> monitor = runner.monitors.get(CRUNNER01);
+        Assert.assertTrue(monitor.isPresent());
+
+        discovered.put(CRUNNER01, OTHER_NODES);
+        runner.updateTopology();
+        Assert.assertSame(monitor, runner.monitors.get(CRUNNER01));
+        Assert.assertEquals(1, created.get(CRUNNER01).size());
+        Assert.assertFalse(created.get(CRUNNER01).get(0).closed);
+        Assert.assertEquals(OTHER_NODES, runner.services.get(CRUNNER01));
+    }
+
+    @Test
+    public void testUnreachableMonitorIsRebuilt() throws Exception {
+        runner = runner(Collections.emptyMap());
+        discovered.put(CRUNNER01, NODES);
+        discovered.put(CRUNNER02, NODES);
+        runner.updateTopology();
+        final FakeMonitor unreachable = created.get(CRUNNER01).get(0);
+        final Optional<IMonitor> reachable = runner.monitors.get(CRUNNER02);
+
+        unreachable.reachable = false;
+        runner.updateTopology();
+        Assert.assertEquals(2, created.get(CRUNNER01).size());
+        Assert.assertSame(created.get(CRUNNER01).get(1), runner.monitors.get(CRUNNER01).get());
+        waitFor(() -> unreachable.closed);
+        Assert.assertTrue("The metrics are kept for the rebuilt monitor", runner.metrics.containsKey(CRUNNER01));
+        Assert.assertSame("The other services are left alone", reachable, runner.monitors.get(CRUNNER02));
+    }
+
+    @Test
+    public void testOnlyTheServicesGoneAreDisposed() throws Exception {
+        runner = runner(Collections.emptyMap());
+        discovered.put(CRUNNER01, NODES);
+        discovered.put(CRUNNER02, NODES);
+        runner.updateTopology();
+        final Optional<IMonitor> kept = runner.monitors.get(CRUNNER01);
+
+        discovered.remove(CRUNNER02);
+        runner.updateTopology();
+        Assert.assertEquals(Collections.singleton(CRUNNER01), runner.monitors.keySet());
+        Assert.assertSame(kept, runner.monitors.get(CRUNNER01));
+        waitFor(() -> created.get(CRUNNER02).get(0).closed);
+        Assert.assertFalse(created.get(CRUNNER01).get(0).closed);
+        Assert.assertFalse(runner.metrics.containsKey(CRUNNER02));
+    }
+
+    @Test
+    public void testMonitorsConnectInParallel() throws Exception {
+        connected = new CountDownLatch(1);
+        runner = runner(Collections.singletonMap("bootstrapDeadlineInSec", "1"));
+        discovered.put(CRUNNER01, NODES);
+        discovered.put(CRUNNER02, NODES);
+        discovered.put(CRUNNER03, NODES);
+
+        final long start = System.nanoTime();
+        runner.updateTopology();
+        Assert.assertTrue("The refresh waits for the deadline only", System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+        Assert.assertEquals(3, connecting.get());
+        Assert.assertTrue(runner.monitors.isEmpty());
+
+        runner.updateTopology();
+        Assert.assertEquals("The monitors still connecting are not created again", 3, connecting.get());
+
+        connected.countDown();
+        waitFor(() -> runner.monitors.size() == 3);
+        Assert.assertTrue(runner.pendingMonitors.isEmpty());
+        created.values().forEach(monitors -> Assert.assertEquals(1, monitors.size()));
+    }
+
+    @Test
+    public void testCreationThatThrowsIsRetried() {
+        failing.add(CRUNNER01);
+        runner = runner(Collections.emptyMap());
+        discovered.put(CRUNNER01, NODES);
+        runner.updateTopology();
+        Assert.assertFalse(runner.pendingMonitors.containsKey(CRUNNER01));
+        Assert.assertFalse(runner.monitors.get(CRUNNER01).isPresent());
+
+        failing.clear();
+        runner.updateTopology();
+        Assert.assertTrue(runner.monitors.get(CRUNNER01).isPresent());
+        Assert.assertEquals(1, created.get(CRUNNER01).size());
+    }
+
+    @Test
+    public void testRemovingASlowServiceDoesNotHoldTheOthers() throws Exception {
+        final FakeMonitor slow = queue(CRUNNER01, new FakeMonitor(CRUNNER01).hold());
+        runner = runner(Collections.emptyMap());
+        discovered.put(CRUNNER01, NODES);
+        runner.updateTopology();
+        Assert.assertTrue(slow.poking.await(5, TimeUnit.SECONDS));
+
+        // Removed in the middle of its poke, the other services are still created at once
+        runner.onServiceChange(CRUNNER01, Collections.emptySet());
+        runner.onServiceChange(CRUNNER02, NODES);
+        waitFor(() -> runner.monitors.containsKey(CRUNNER02));
+        Assert.assertFalse("A monitor must not be closed under its poke", slow.closed);
+
+        slow.release();
+        waitFor(() -> slow.closed);
+        Assert.assertFalse(slow.closedUnderPoke);
+        waitFor(() -> !runner.pokeLocks.containsKey(CRUNNER01));
+        Assert.assertFalse(runner.metrics.containsKey(CRUNNER01));
+    }
+
+    @Test
+    public void testServiceBackDuringItsDisposalWaitsForIt() throws Exception {
+        final FakeMonitor slow = queue(CRUNNER01, new FakeMonitor(CRUNNER01).hold());
+        runner = runner(Collections.emptyMap());
+        runner.onServiceChange(CRUNNER01, NODES);
+        Assert.assertTrue(slow.poking.await(5, TimeUnit.SECONDS));
+
+        runner.onServiceChange(CRUNNER01, Collections.emptySet());
+        runner.onServiceChange(CRUNNER01, NODES);
+        Thread.sleep(200);
+        Assert.assertEquals("The new monitor waits for the previous one to be closed", 1, created.get(CRUNNER01).size());
+
+        slow.release();
+        waitFor(() -> runner.monitors.containsKey(CRUNNER01));
+        Assert.assertEquals(2, created.get(CRUNNER01).size());
+        Assert.assertTrue(slow.closed);
+        Assert.assertFalse(created.get(CRUNNER01).get(1).closed);
+        Assert.assertTrue("The pokes of the service need their lock", runner.pokeLocks.containsKey(CRUNNER01));
+    }
+
+    @Test
+    public void testMonitorCreationsAreTimedByResult() {
+        final double connected = sample("casspoke_monitor_creation_duration_seconds_count", "result", "connected");
+        final double failed = sample("casspoke_monitor_creation_duration_seconds_count", "result", "failed");
+        failing.add(CRUNNER01);
+        runner = runner(Collections.emptyMap());
+        discovered.put(CRUNNER01, NODES);
+        discovered.put(CRUNNER02, NODES);
+        runner.updateTopology();
+
+        Assert.assertEquals(connected + 1, sample("casspoke_monitor_creation_duration_seconds_count", "result", "connected"), 0);
+        Assert.assertEquals(failed + 1, sample("casspoke_monitor_creation_duration_seconds_count", "result", "failed"), 0);
+    }
+
+    @Test
+    public void testPokeDurationFollowsTheCluster() throws Exception {
+        final double pokes = sample("casspoke_event_duration_seconds_count", "event", "POKE");
+        // The gauge is global, the other tests leave the series of their clusters behind
+        final Service poked = new Service("crunner-poked", Collections.emptyList());
+        runner = runner(Collections.emptyMap());
+        discovered.put(poked, NODES);
+        runner.updateTopology();
+
+        waitFor(() -> CollectorRegistry.defaultRegistry.getSampleValue("casspoke_poke_duration_seconds",
+                new String[]{"cluster"}, new String[]{"crunner-poked"}) != null);
+        Assert.assertTrue(sample("casspoke_event_duration_seconds_count", "event", "POKE") > pokes);
+        Assert.assertTrue(sample("casspoke_schedule_lag_seconds_count", "event", "POKE") > 0);
+
+        discovered.remove(poked);
+        discovered.put(CRUNNER02, NODES);
+        runner.updateTopology();
+        waitFor(() -> CollectorRegistry.defaultRegistry.getSampleValue("casspoke_poke_duration_seconds",
+                new String[]{"cluster"}, new String[]{"crunner-poked"}) == null);
+    }
+
+    @Test
+    public void testDiscoveryErrorsAreCounted() {
+        final double errors = CollectorRegistry.defaultRegistry.getSampleValue("casspoke_discovery_errors_total");
+        final double discoveries = sample("casspoke_discovery_duration_seconds_count");
+        runner = runner(Collections.emptyMap());
+
+        // No service is an error as well, the discovery being probably down
+        runner.updateTopology();
+        discoveryError = new IllegalStateException("Discovery down");
+        try {
+            runner.updateTopology();
+            Assert.fail("The error of the discovery is thrown");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+
+        Assert.assertEquals(errors + 2, CollectorRegistry.defaultRegistry.getSampleValue("casspoke_discovery_errors_total"), 0);
+        Assert.assertEquals(discoveries + 2, sample("casspoke_discovery_duration_seconds_count"), 0);
+    }
+
+    private static double sample(final String name, final String... label) {
+        final Double value = label.length == 0
+                ? CollectorRegistry.defaultRegistry.getSampleValue(name)
+                : CollectorRegistry.defaultRegistry.getSampleValue(name, new String[]{label[0]}, new String[]{label[1]});
+        return value != null ? value : 0;
+    }
+
+    private FakeMonitor queue(final Service service, final FakeMonitor monitor) {
+        queued.computeIfAbsent(service, srv -> new ArrayDeque<>()).add(monitor);
+        return monitor;
+    }
+
+    FakeRunner runner(final Map<String, String> settings) {
+        final Map<String, String> app = new HashMap<>(settings);
+        // Only the poke at registration runs during a test
+        app.putIfAbsent("measurementPeriodInSec", "3600");
+        final Config cfg = new ObjectMapper().convertValue(Collections.singletonMap("app", app), Config.class);
+        return new FakeRunner(cfg, () -> {
+            if (discoveryError != null) {
+                throw discoveryError;
+            }
+            return new HashMap<>(discovered);
+        });
+    }
+
+    static void waitFor(final BooleanSupplier condition) throws InterruptedException {
+        for (int i = 0; i < 100 && !condition.getAsBoolean(); i++) {
+            Thread.sleep(50);
+        }
+        Assert.assertTrue(condition.getAsBoolean());
+    }
+
+    class FakeRunner extends CassandraRunner {
+        FakeRunner(final Config cfg, final IDiscovery discovery) {
+            super(cfg, discovery);
+        }
+
+        @Override
+        protected Optional<IMonitor> connectMonitor(final Service service, final Set<InetSocketAddress> addresses,
+                                                    final boolean useSsl, final CassandraMetrics cassMetrics) {
+            connecting.incrementAndGet();
+            try {
+                connected.await(30, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                connecting.decrementAndGet();
+            }
+            if (failing.contains(service)) {
+                throw new IllegalStateException("Cannot connect to " + service);
+            }
+            final Deque<FakeMonitor> monitors = queued.get(service);
+            final FakeMonitor monitor = monitors != null && !monitors.isEmpty() ? monitors.poll() : new FakeMonitor(service);
+            created.computeIfAbsent(service, srv -> new CopyOnWriteArrayList<>()).add(monitor);
+            return Optional.of(monitor);
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.criteo.nosql.casspoke.cassandra;
+
+import com.criteo.nosql.casspoke.discovery.Service;
+import io.prometheus.client.CollectorRegistry;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class CircuitBreakersTest {
+
+    private static final CassandraNode NODE = new CassandraNode(new InetSocketAddress("127.0.0.1", 9042), "dc1", "rack1");
+
+    private final AtomicLong clock = new AtomicLong();
+    private final CircuitBreakers breakers = new CircuitBreakers(new Service("cstars01", Collections.emptyList()),
+            true, 3, 1_000, 4_000, 500, clock::get);
+
+    @After
+    public void tearDown() {
+        breakers.close();
+    }
+
+    @Test
+    public void testOpensAfterConsecutiveFailures() {
+        breakers.recordFailure(NODE);
+        breakers.recordFailure(NODE);
+        breakers.recordSuccess(NODE);
+        breakers.recordFailure(NODE);
+        breakers.recordFailure(NODE);
+        Assert.assertTrue(breakers.allowProbe(NODE));
+
+        breakers.recordFailure(NODE);
+        Assert.assertEquals(CircuitBreakers.State.OPEN, breakers.stateOf(NODE));
+        Assert.assertFalse(breakers.allowProbe(NODE));
+        Assert.assertEquals(2, state(), 0);
+    }
+
+    @Test
+    public void testSingleTrialThenCloses() {
+        open();
+        advance(999);
+        Assert.assertFalse(breakers.allowProbe(NODE));
+        advance(1);
+
+        Assert.assertTrue(breakers.allowProbe(NODE));
+        Assert.assertEquals(CircuitBreakers.State.HALF_OPEN, breakers.stateOf(NODE));
+        Assert.assertFalse("Only one trial is let through", breakers.allowProbe(NODE));
+
+        breakers.recordSuccess(NODE);
+        Assert.assertEquals(CircuitBreakers.State.CLOSED, breakers.stateOf(NODE));
+        Assert.assertTrue(breakers.allowProbe(NODE));
+        Assert.assertEquals(0, state(), 0);
+    }
+
+    @Test
+    public void testBackoffDoublesUpToTheMax() {
+        open();
+        advance(1_000);
+        for (long backoff : new long[]{2_000, 4_000, 4_000}) {
+            Assert.assertTrue(breakers.allowProbe(NODE));
+            breakers.recordFailure(NODE);
+            advance(backoff - 1);
+            Assert.assertFalse(breakers.allowProbe(NODE));
+            advance(1);
+        }
+    }
+
+    @Test
+    public void testLostTrialIsRetried() {
+        open();
+        advance(1_000);
+        Assert.assertTrue(breakers.allowProbe(NODE));
+        advance(499);
+        Assert.assertFalse(breakers.allowProbe(NODE));
+        advance(1);
+        Assert.assertTrue(breakers.allowProbe(NODE));
+    }
+
+    @Test
+    public void testRemoveDropsTheSeries() {
+        open();
+        breakers.remove(NODE);
+        Assert.assertNull(CollectorRegistry.defaultRegistry.getSampleValue("casspoke_circuit_breaker_state",
+                new String[]{"cluster", "instance"}, new String[]{"cstars01", "127.0.0.1"}));
+        Assert.assertTrue(breakers.allowProbe(NODE));
+    }
+
+    @Test
+    public void testCloseDropsTheTransitions() {
+        open();
+        Assert.assertEquals(1, transitions("OPEN"), 0);
+
+        breakers.close();
+        Assert.assertNull(transitions("OPEN"));
+        Assert.assertNull(state());
+    }
+
+    @Test
+    public void testNoSeriesAfterClose() {
+        breakers.close();
+
+        // An async probe completing after the close
+        for (int i = 0; i < 3; i++) {
+            breakers.recordFailure(NODE);
+        }
+        Assert.assertEquals(CircuitBreakers.State.CLOSED, breakers.stateOf(NODE));
+        Assert.assertTrue(breakers.allowProbe(NODE));
+        Assert.assertNull(transitions("OPEN"));
+        Assert.assertNull(state());
+    }
+
+    private void open() {
+        for (int i = 0; i < 3; i++) {
+            breakers.recordFailure(NODE);
+        }
+        Assert.assertEquals(CircuitBreakers.State.OPEN, breakers.stateOf(NODE));
+    }
+
+    private void advance(final long ms) {
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(ms));
+    }
+
+    private static Double state() {
+        return CollectorRegistry.defaultRegistry.getSampleValue("casspoke_circuit_breaker_state",
+                new String[]{"cluster", "instance"}, new String[]{"cstars01", "127.0.0.1"});
+    }
+
+    private static Double transitions(final String state) {
+        return CollectorRegistry.defaultRegistry.getSampleValue("casspoke_circuit_breaker_transitions_total",
+                new String[]{"cluster", "state"}, new String[]{"cstars01", state});
+    }
+}
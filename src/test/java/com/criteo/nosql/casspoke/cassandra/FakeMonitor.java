@@ -0,0 +1,81 @@
+package com.criteo.nosql.casspoke.cassandra;
+
+import com.criteo.nosql.casspoke.discovery.Service;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A monitor probing nothing, whose pokes can be held to play the slow clusters
+ */
+public class FakeMonitor implements IMonitor {
+
+    final Service service;
+    final AtomicInteger pokes = new AtomicInteger();
+    final CountDownLatch poking = new CountDownLatch(1);
+    volatile CountDownLatch release = new CountDownLatch(0);
+    volatile boolean reachable = true;
+    volatile boolean pokeRunning;
+    volatile boolean closed;
+    // Set if the monitor was closed while one of its pokes was running
+    volatile boolean closedUnderPoke;
+
+    FakeMonitor(final Service service) {
+        this.service = service;
+    }
+
+    /**
+     * @return this monitor, whose next pokes wait until released
+     */
+    FakeMonitor hold() {
+        release = new CountDownLatch(1);
+        return this;
+    }
+
+    void release() {
+        release.countDown();
+    }
+
+    @Override
+    public boolean usesSsl() {
+        return false;
+    }
+
+    @Override
+    public boolean isReachable() {
+        return reachable;
+    }
+
+    @Override
+    public Map<CassandraNode, Boolean> collectAvailability() {
+        return Collections.emptyMap();
+    }
+
+    @Override
+    public Map<CassandraNode, Long> collectGetLatencies() {
+        pokeRunning = true;
+        pokes.incrementAndGet();
+        poking.countDown();
+        try {
+            release.await(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return Collections.emptyMap();
+    }
+
+    @Override
+    public Map<CassandraNode, Long> collectSetLatencies() {
+        pokeRunning = false;
+        return Collections.emptyMap();
+    }
+
+    @Override
+    public void close() {
+        closedUnderPoke |= pokeRunning;
+        closed = true;
+    }
+}
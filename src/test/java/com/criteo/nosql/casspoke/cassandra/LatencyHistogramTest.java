@@ -0,0 +1,93 @@
+package com.criteo.nosql.casspoke.cassandra;
+
+import io.prometheus.client.Collector;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class LatencyHistogramTest {
+
+    private final LatencyHistogram histogram = new LatencyHistogram();
+
+    @Test
+    public void testBucketsAreUpperBounds() {
+        Assert.assertEquals(0, LatencyHistogram.bucketOf(0));
+        Assert.assertEquals(0, LatencyHistogram.bucketOf(100_000));
+        Assert.assertEquals(1, LatencyHistogram.bucketOf(100_001));
+        Assert.assertEquals(1, LatencyHistogram.bucketOf(200_000));
+        Assert.assertEquals("Just above a bound goes to the next bucket", 2, LatencyHistogram.bucketOf(200_500));
+        Assert.assertEquals(17, LatencyHistogram.bucketOf(10_000_000_000L));
+    }
+
+    @Test
+    public void testProbesUpToTheTimeoutAreInABucket() {
+        Assert.assertEquals("52.4288s", 19, LatencyHistogram.bucketOf(52_428_800_000L));
+        Assert.assertEquals("The default timeout of 60s", 20, LatencyHistogram.bucketOf(60_000_000_000L));
+        Assert.assertEquals("104.8576s", 20, LatencyHistogram.bucketOf(104_857_600_000L));
+        Assert.assertEquals("+Inf", 21, LatencyHistogram.bucketOf(104_857_600_001L));
+
+        histogram.recorder("cstars01", "10.0.0.1", "rack1", "get", "dc1").observe(60_000_000_000L);
+        final Map<String, Double> samples = samples();
+        Assert.assertEquals(0, samples.get("bucket/52.4288"), 0);
+        Assert.assertEquals(1, samples.get("bucket/104.8576"), 0);
+    }
+
+    @Test
+    public void testCountsInfAndSum() {
+        final LatencyBackend.LatencyRecorder recorder = histogram.recorder("cstars01", "10.0.0.1", "rack1", "get", "dc1");
+        recorder.observe(50_000);
+        recorder.observe(200_500);
+        recorder.observe(400_000);
+        recorder.observe(5_000_000_000L);
+
+        final Map<String, Double> samples = samples();
+        Assert.assertEquals(1, samples.get("bucket/1.0E-4"), 0);
+        Assert.assertEquals(1, samples.get("bucket/2.0E-4"), 0);
+        Assert.assertEquals(3, samples.get("bucket/4.0E-4"), 0);
+        Assert.assertEquals(22 + 2, samples.size());
+        Assert.assertEquals(4, samples.get("bucket/+Inf"), 0);
+        Assert.assertEquals(4, samples.get("count"), 0);
+        Assert.assertEquals(5.0006505, samples.get("sum"), 1e-9);
+        Assert.assertEquals("5s is in a bucket", 3, samples.get("bucket/3.2768"), 0);
+        Assert.assertEquals(4, samples.get("bucket/6.5536"), 0);
+    }
+
+    @Test
+    public void testRemove() {
+        histogram.recorder("cstars01", "10.0.0.1", "rack1", "get", "dc1").observe(1);
+        histogram.remove("cstars01", "10.0.0.1", "rack1", "get", "dc1");
+        Assert.assertTrue(histogram.collect().get(0).samples.isEmpty());
+    }
+
+    @Test
+    public void testRangeLatencies() {
+        histogram.rangeRecorder("cstars01", "10.0.0.1", "rack1", "get", "dc1", "3").observe(150_000);
+
+        final Collector.MetricFamilySamples ranges = histogram.collect().get(1);
+        Assert.assertEquals("cassandra_range_latency_seconds", ranges.name);
+        Assert.assertEquals(22 + 2, ranges.samples.size());
+        Assert.assertEquals(Arrays.asList("cstars01", "10.0.0.1", "rack1", "get", "dc1", "3", "2.0E-4"), ranges.samples.get(1).labelValues);
+        Assert.assertEquals(1, ranges.samples.get(1).value, 0);
+        Assert.assertTrue("Range latencies are not command latencies", histogram.collect().get(0).samples.isEmpty());
+
+        histogram.removeRange("cstars01", "10.0.0.1", "rack1", "get", "dc1", "3");
+        Assert.assertTrue(histogram.collect().get(1).samples.isEmpty());
+    }
+
+    /**
+     * @return the samples by suffix, and by le for the buckets
+     */
+    private Map<String, Double> samples() {
+        final Map<String, Double> samples = new HashMap<>();
+        for (Collector.MetricFamilySamples.Sample sample : histogram.collect().get(0).samples) {
+            final String suffix = sample.name.substring("cassandra_latency_seconds_".length());
+            final List<String> labels = sample.labelValues;
+            samples.put(suffix.equals("bucket") ? suffix + "/" + labels.get(labels.size() - 1) : suffix, sample.value);
+        }
+        return samples;
+    }
+}
@@ -0,0 +1,80 @@
+package com.criteo.nosql.casspoke.cassandra;
+
+import com.criteo.nosql.casspoke.cassandra.nativeprotocol.NativeProtocolException;
+import com.datastax.driver.core.ConsistencyLevel;
+import com.datastax.driver.core.EndPoint;
+import com.datastax.driver.core.WriteType;
+import com.datastax.driver.core.exceptions.*;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+public class ProbeErrorTest {
+
+    private static final EndPoint NODE1 = () -> new InetSocketAddress("10.0.0.1", 9042);
+    private static final EndPoint NODE2 = () -> new InetSocketAddress("10.0.0.2", 9042);
+
+    @Test
+    public void testDriverExceptions() {
+        Assert.assertEquals(ProbeError.READ_TIMEOUT, ProbeError.classify(new ReadTimeoutException(NODE1, ConsistencyLevel.ONE, 0, 1, false)));
+        Assert.assertEquals(ProbeError.WRITE_TIMEOUT, ProbeError.classify(new WriteTimeoutException(NODE1, ConsistencyLevel.ONE, WriteType.SIMPLE, 0, 1)));
+        Assert.assertEquals(ProbeError.UNAVAILABLE, ProbeError.classify(new UnavailableException(NODE1, ConsistencyLevel.ONE, 1, 0)));
+        Assert.assertEquals(ProbeError.OVERLOADED, ProbeError.classify(new OverloadedException(NODE1, "overloaded")));
+        Assert.assertEquals(ProbeError.OVERLOADED, ProbeError.classify(new BootstrappingException(NODE1, "bootstrapping")));
+        Assert.assertEquals(ProbeError.OVERLOADED, ProbeError.classify(new BusyPoolException(NODE1, 64)));
+        Assert.assertEquals(ProbeError.OVERLOADED, ProbeError.classify(new BusyConnectionException(NODE1)));
+        Assert.assertEquals(ProbeError.CONNECTION, ProbeError.classify(new ConnectionException(NODE1, "closed")));
+        Assert.assertEquals(ProbeError.OTHER, ProbeError.classify(new SyntaxError(NODE1, "syntax")));
+    }
+
+    @Test
+    public void testClientTimeouts() {
+        // An OperationTimedOutException is a ConnectionException, it must be checked first
+        Assert.assertEquals(ProbeError.CLIENT_TIMEOUT, ProbeError.classify(new OperationTimedOutException(NODE1)));
+        Assert.assertEquals(ProbeError.CLIENT_TIMEOUT, ProbeError.classify(new TimeoutException()));
+    }
+
+    @Test
+    public void testIOException() {
+        Assert.assertEquals(ProbeError.CONNECTION, ProbeError.classify(new IOException("Connection reset by peer")));
+    }
+
+    @Test
+    public void testNoHostAvailable() {
+        final Map<EndPoint, Throwable> single = new HashMap<>();
+        single.put(NODE1, new BusyPoolException(NODE1, 10, TimeUnit.SECONDS));
+        Assert.assertEquals("The error of a single host is unwrapped", ProbeError.OVERLOADED,
+                ProbeError.classify(new NoHostAvailableException(single)));
+
+        final Map<EndPoint, Throwable> several = new HashMap<>(single);
+        several.put(NODE2, new OperationTimedOutException(NODE2));
+        Assert.assertEquals(ProbeError.NO_HOST, ProbeError.classify(new NoHostAvailableException(several)));
+    }
+
+    @Test
+    public void testWrappedExceptions() {
+        final Exception timeout = new ReadTimeoutException(NODE1, ConsistencyLevel.ONE, 0, 1, false);
+        Assert.assertEquals(ProbeError.READ_TIMEOUT, ProbeError.classify(new ExecutionException(timeout)));
+        Assert.assertEquals(ProbeError.READ_TIMEOUT, ProbeError.classify(new CompletionException(timeout)));
+        Assert.assertEquals(ProbeError.READ_TIMEOUT, ProbeError.classify(new CompletionException(new ExecutionException(timeout))));
+    }
+
+    @Test
+    public void testNativeErrorCodes() {
+        Assert.assertEquals(ProbeError.UNAVAILABLE, ProbeError.classify(new NativeProtocolException(0x1000, "unavailable")));
+        Assert.assertEquals(ProbeError.OVERLOADED, ProbeError.classify(new NativeProtocolException(0x1001, "overloaded")));
+        Assert.assertEquals(ProbeError.OVERLOADED, ProbeError.classify(new NativeProtocolException(0x1002, "bootstrapping")));
+        Assert.assertEquals(ProbeError.WRITE_TIMEOUT, ProbeError.classify(new NativeProtocolException(0x1100, "write timeout")));
+        Assert.assertEquals(ProbeError.READ_TIMEOUT, ProbeError.classify(new NativeProtocolException(0x1200, "read timeout")));
+        Assert.assertEquals(ProbeError.OTHER, ProbeError.classify(new NativeProtocolException(0x2000, "syntax error")));
+        Assert.assertEquals(ProbeError.OTHER, ProbeError.classify(new NativeProtocolException(0x0000, "server error")));
+    }
+}
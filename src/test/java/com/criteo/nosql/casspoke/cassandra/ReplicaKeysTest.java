@@ -0,0 +1,140 @@
+package com.criteo.nosql.casspoke.cassandra;
+
+import com.google.common.hash.Hashing;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+public class ReplicaKeysTest {
+
+    // A ring of 0..999, hashed with murmur3 as the default partitioner does
+    private static final Function<String, Integer> TOKEN_OF =
+            key -> Math.floorMod(Hashing.murmur3_32().hashString(key, StandardCharsets.UTF_8).asInt(), 1000);
+
+    @Test
+    public void testKeysAreOwnedByTheirHost() {
+        final Map<String, List<Integer>> tokens = new HashMap<>();
+        tokens.put("a", Arrays.asList(100, 400, 700));
+        tokens.put("b", Arrays.asList(200, 500, 800));
+        tokens.put("c", Arrays.asList(300, 600, 900));
+        final ReplicaKeys<String, Integer> keys = ReplicaKeys.build(tokens, TOKEN_OF, 3);
+
+        // The buckets are the thirds of the ring, 'a' owns (900, 100] in the first one
+        Assert.assertEquals(Arrays.asList(0, 1, 2), keys.bucketsOf("a"));
+        for (int round = 0; round < 3; round++) {
+            final Map<String, ReplicaKeys.Key> picked = keys.pick(round, 42);
+            Assert.assertEquals(tokens.keySet(), picked.keySet());
+            picked.forEach((host, key) -> {
+                Assert.assertEquals(host, owner(tokens, TOKEN_OF.apply(key.getValue())));
+                Assert.assertEquals(bucket(TOKEN_OF.apply(key.getValue())), key.getBucket());
+            });
+        }
+    }
+
+    @Test
+    public void testConsecutiveRoundsWriteNewKeys() {
+        final Map<String, List<Integer>> tokens = new HashMap<>();
+        tokens.put("a", Arrays.asList(100, 400, 700));
+        tokens.put("b", Arrays.asList(200, 500, 800));
+        tokens.put("c", Arrays.asList(300, 600, 900));
+        final ReplicaKeys<String, Integer> keys = ReplicaKeys.build(tokens, TOKEN_OF, 3);
+
+        final Map<String, ReplicaKeys.Key> first = keys.pick(0, 1_000);
+        final Map<String, ReplicaKeys.Key> second = keys.pick(1, 2_000);
+        for (String host : tokens.keySet()) {
+            Assert.assertNotEquals(first.get(host).getValue(), second.get(host).getValue());
+            Assert.assertEquals(host, owner(tokens, TOKEN_OF.apply(first.get(host).getValue())));
+            Assert.assertEquals(host, owner(tokens, TOKEN_OF.apply(second.get(host).getValue())));
+        }
+    }
+
+    @Test
+    public void testBucketsWithoutRangeOfTheHost() {
+        final Map<String, List<Integer>> tokens = new HashMap<>();
+        tokens.put("a", Arrays.asList(100, 200));
+        tokens.put("b", Arrays.asList(600, 700));
+        final ReplicaKeys<String, Integer> keys = ReplicaKeys.build(tokens, TOKEN_OF, 2);
+
+        Assert.assertEquals(Collections.singletonList(0), keys.bucketsOf("a"));
+        Assert.assertEquals(Collections.singletonList(1), keys.bucketsOf("b"));
+        Assert.assertEquals(0, keys.pick(1, 0).get("a").getBucket());
+    }
+
+    @Test
+    public void testRoundsProbeTheBucketsInTurn() {
+        final Map<String, List<Integer>> tokens = new HashMap<>();
+        tokens.put("a", Arrays.asList(250, 500, 750, 999));
+        final ReplicaKeys<String, Integer> keys = ReplicaKeys.build(tokens, TOKEN_OF, 4);
+
+        final List<Integer> probed = new ArrayList<>();
+        for (int round = 0; round < 8; round++) {
+            probed.add(keys.pick(round, round).get("a").getBucket());
+        }
+        Assert.assertEquals(Arrays.asList(0, 1, 2, 3, 0, 1, 2, 3), probed);
+        Assert.assertTrue(ReplicaKeys.build(Collections.<String, List<Integer>>emptyMap(), TOKEN_OF, 4).pick(0, 0).isEmpty());
+    }
+
+    @Test
+    public void testAttemptsAreBoundedByHost() {
+        // 'b' owns a tenth of the ring, in the second bucket only
+        final Map<String, List<Integer>> tokens = new HashMap<>();
+        tokens.put("a", Arrays.asList(400, 999));
+        tokens.put("b", Collections.singletonList(500));
+        final AtomicInteger hashed = new AtomicInteger();
+        final ReplicaKeys<String, Integer> keys = ReplicaKeys.build(tokens, key -> {
+            hashed.incrementAndGet();
+            return TOKEN_OF.apply(key);
+        }, 2);
+
+        final Set<String> written = new HashSet<>();
+        for (int round = 0; round < 20; round++) {
+            hashed.set(0);
+            final Map<String, ReplicaKeys.Key> picked = keys.pick(round, round);
+            Assert.assertTrue(hashed.get() <= ReplicaKeys.ATTEMPTS_PER_HOST * tokens.size());
+            picked.forEach((host, key) -> {
+                Assert.assertEquals(host, owner(tokens, TOKEN_OF.apply(key.getValue())));
+                Assert.assertTrue("Each key is used once", written.add(key.getValue()));
+            });
+        }
+    }
+
+    @Test
+    public void testSpareKeysAreUsedFirst() {
+        final Map<String, List<Integer>> tokens = new HashMap<>();
+        tokens.put("a", Arrays.asList(250, 500, 750, 999));
+        final List<Integer> hashed = new ArrayList<>();
+        final ReplicaKeys<String, Integer> keys = ReplicaKeys.build(tokens, key -> {
+            final int token = TOKEN_OF.apply(key);
+            hashed.add(token);
+            return token;
+        }, 4);
+
+        // Look for a key of the first bucket until a key of the second one is met along the way
+        long round = 0;
+        do {
+            hashed.clear();
+            keys.pick(round, round);
+            round += 4;
+        } while (hashed.stream().noneMatch(token -> token > 250 && token <= 500));
+
+        hashed.clear();
+        Assert.assertEquals(1, keys.pick(1, round).get("a").getBucket());
+        Assert.assertTrue("The key met by the previous round is used", hashed.isEmpty());
+    }
+
+    private static String owner(final Map<String, List<Integer>> tokens, final int token) {
+        final TreeMap<Integer, String> ring = new TreeMap<>();
+        tokens.forEach((host, hostTokens) -> hostTokens.forEach(t -> ring.put(t, host)));
+        final Map.Entry<Integer, String> owner = ring.ceilingEntry(token);
+        return owner != null ? owner.getValue() : ring.firstEntry().getValue();
+    }
+
+    // The thirds of the ring of testKeysAreOwnedByTheirHost: (900, 300], (300, 600], (600, 900]
+    private static int bucket(final int token) {
+        return token > 900 || token <= 300 ? 0 : token <= 600 ? 1 : 2;
+    }
+}
@@ -0,0 +1,87 @@
+package com.criteo.nosql.casspoke.cassandra;
+
+import com.datastax.driver.core.NettyOptions;
+import com.datastax.driver.core.ThreadingOptions;
+import io.netty.channel.EventLoopGroup;
+import io.netty.util.Timer;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.*;
+
+public class SharedDriverResourcesTest {
+
+    private final SharedDriverResources resources = new SharedDriverResources(1, 1, 1);
+    private final ThreadingOptions threading = resources.getThreadingOptions();
+    private final NettyOptions netty = resources.getNettyOptions();
+
+    @After
+    public void tearDown() {
+        resources.close();
+    }
+
+    @Test
+    public void testClustersAreClosedIndependently() throws Exception {
+        final ExecutorService executor1 = threading.createExecutor("cstars01");
+        final ExecutorService blocking1 = threading.createBlockingExecutor("cstars01");
+        final ScheduledExecutorService reaper1 = threading.createReaperExecutor("cstars01");
+        final ExecutorService executor2 = threading.createExecutor("cstars02");
+        final ExecutorService blocking2 = threading.createBlockingExecutor("cstars02");
+        final ScheduledExecutorService reaper2 = threading.createReaperExecutor("cstars02");
+        final ScheduledFuture<?> reaping1 = reaper1.scheduleWithFixedDelay(() -> { }, 1, 1, TimeUnit.HOURS);
+        final ScheduledFuture<?> reaping2 = reaper2.scheduleWithFixedDelay(() -> { }, 1, 1, TimeUnit.HOURS);
+        final EventLoopGroup eventLoop = netty.eventLoopGroup(null);
+        final Timer timer = netty.timer(null);
+
+        // What the first Cluster does with its resources when it is closed
+        executor1.shutdown();
+        blocking1.shutdown();
+        reaper1.shutdownNow();
+        netty.onClusterClose(eventLoop);
+        netty.onClusterClose(timer);
+
+        Assert.assertTrue(executor1.isTerminated());
+        Assert.assertTrue(reaping1.isCancelled());
+        try {
+            blocking1.execute(() -> { });
+            Assert.fail("A closed cluster cannot run tasks anymore");
+        } catch (RejectedExecutionException e) {
+            // expected
+        }
+
+        // The second one keeps running on the shared pools
+        Assert.assertFalse(reaping2.isCancelled());
+        Assert.assertEquals("worker", executor2.submit(() -> "worker").get(5, TimeUnit.SECONDS));
+        Assert.assertEquals("blocking", blocking2.submit(() -> "blocking").get(5, TimeUnit.SECONDS));
+        Assert.assertEquals("scheduled", reaper2.schedule(() -> "scheduled", 1, TimeUnit.MILLISECONDS).get(5, TimeUnit.SECONDS));
+        Assert.assertFalse(eventLoop.isShuttingDown());
+        final CountDownLatch fired = new CountDownLatch(1);
+        timer.newTimeout(timeout -> fired.countDown(), 1, TimeUnit.MILLISECONDS);
+        Assert.assertTrue(fired.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testBlockingPoolIsSized() throws Exception {
+        final SharedDriverResources sized = new SharedDriverResources(1, 1, 3);
+        try {
+            final ExecutorService blocking = sized.getThreadingOptions().createBlockingExecutor("cstars01");
+            final CountDownLatch running = new CountDownLatch(3);
+            final CountDownLatch release = new CountDownLatch(1);
+            for (int i = 0; i < 3; i++) {
+                blocking.execute(() -> {
+                    running.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+            }
+            Assert.assertTrue("Stuck tasks hold one thread each", running.await(5, TimeUnit.SECONDS));
+            release.countDown();
+        } finally {
+            sized.close();
+        }
+    }
+}
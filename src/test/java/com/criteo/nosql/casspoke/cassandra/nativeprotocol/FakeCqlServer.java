@@ -0,0 +1,185 @@
+package com.criteo.nosql.casspoke.cassandra.nativeprotocol;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.*;
+import io.netty.channel.group.ChannelGroup;
+import io.netty.channel.group.DefaultChannelGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
+import io.netty.util.concurrent.GlobalEventExecutor;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
+
+/**
+ * A node answering the frames sent by the native monitor, with the content of system.local and system.peers
+ */
+final class FakeCqlServer implements AutoCloseable {
+
+    private final NioEventLoopGroup eventLoop = new NioEventLoopGroup(1);
+    private final ChannelGroup channels = new DefaultChannelGroup(GlobalEventExecutor.INSTANCE);
+    private final InetSocketAddress address;
+    private final Map<InetAddress, String[]> peers = new ConcurrentHashMap<>();
+    final Queue<String> queries = new ConcurrentLinkedQueue<>();
+    private volatile String datacenter = "dc1";
+    private volatile String rack = "rack1";
+    private volatile byte[] credentials;
+    private volatile int probeErrorCode;
+
+    FakeCqlServer(final String host, final int port) throws Exception {
+        final Channel server = new ServerBootstrap()
+                .group(eventLoop)
+                .channel(NioServerSocketChannel.class)
+                .childHandler(new ChannelInitializer<Channel>() {
+                    @Override
+                    protected void initChannel(final Channel ch) {
+                        channels.add(ch);
+                        ch.pipeline().addLast(new LengthFieldBasedFrameDecoder(Frames.MAX_FRAME_LENGTH, Frames.HEADER_LENGTH - 4, 4));
+                        ch.pipeline().addLast(new RequestHandler());
+                    }
+                })
+                .bind(InetAddress.getByName(host), port).sync().channel();
+        channels.add(server);
+        this.address = (InetSocketAddress) server.localAddress();
+    }
+
+    InetSocketAddress getAddress() {
+        return address;
+    }
+
+    FakeCqlServer local(final String datacenter, final String rack) {
+        this.datacenter = datacenter;
+        this.rack = rack;
+        return this;
+    }
+
+    FakeCqlServer peer(final String host, final String datacenter, final String rack) throws Exception {
+        peers.put(InetAddress.getByName(host), new String[]{datacenter, rack});
+        return this;
+    }
+
+    FakeCqlServer removePeer(final String host) throws Exception {
+        peers.remove(InetAddress.getByName(host));
+        return this;
+    }
+
+    FakeCqlServer requireAuthentication(final String username, final String password) {
+        this.credentials = ("\0" + username + "\0" + password).getBytes(StandardCharsets.UTF_8);
+        return this;
+    }
+
+    /**
+     * Answer the probes with an ERROR frame of this code, the queries of system.local and system.peers still succeed
+     */
+    FakeCqlServer failProbes(final int errorCode) {
+        this.probeErrorCode = errorCode;
+        return this;
+    }
+
+    @Override
+    public void close() {
+        channels.close().awaitUninterruptibly();
+        eventLoop.shutdownGracefully(0, 1, java.util.concurrent.TimeUnit.SECONDS).awaitUninterruptibly();
+    }
+
+    private final class RequestHandler extends SimpleChannelInboundHandler<ByteBuf> {
+
+        @Override
+        protected void channelRead0(final ChannelHandlerContext ctx, final ByteBuf frame) {
+            frame.skipBytes(2);
+            final int stream = frame.readShort();
+            final byte opcode = frame.readByte();
+            frame.skipBytes(4);
+
+            switch (opcode) {
+                case Frames.OPTIONS:
+                    reply(ctx, stream, Frames.SUPPORTED, body -> Frames.writeStringMultimap(body,
+                            Collections.singletonMap("CQL_VERSION", Collections.singletonList("3.4.4"))));
+                    break;
+                case Frames.STARTUP:
+                    if (credentials == null) {
+                        reply(ctx, stream, Frames.READY, body -> {
+                        });
+                    } else {
+                        reply(ctx, stream, Frames.AUTHENTICATE, body -> Frames.writeString(body, "org.apache.cassandra.auth.PasswordAuthenticator"));
+                    }
+                    break;
+                case Frames.AUTH_RESPONSE:
+                    final byte[] token = new byte[frame.readInt()];
+                    frame.readBytes(token);
+                    if (Arrays.equals(token, credentials)) {
+                        reply(ctx, stream, Frames.AUTH_SUCCESS, body -> Frames.writeBytes(body, null));
+                    } else {
+                        error(ctx, stream, 0x0100, "Provided username and/or password are incorrect");
+                    }
+                    break;
+                case Frames.QUERY:
+                    final String query = Frames.readLongString(frame);
+                    queries.add(query);
+                    if (query.contains("system.peers")) {
+                        reply(ctx, stream, Frames.RESULT, this::writePeers);
+                    } else if (query.contains("WHERE key='local'")) {
+                        reply(ctx, stream, Frames.RESULT, this::writeLocal);
+                    } else if (probeErrorCode != 0) {
+                        error(ctx, stream, probeErrorCode, "Probe failed");
+                    } else {
+                        reply(ctx, stream, Frames.RESULT, body -> body.writeInt(Frames.RESULT_VOID));
+                    }
+                    break;
+                default:
+                    error(ctx, stream, 0x000A, "Unexpected opcode " + opcode);
+            }
+        }
+
+        private void writeLocal(final ByteBuf body) {
+            writeRowsHeader(body, "local", 1, "data_center", 0x000D, "rack", 0x000D);
+            writeText(body, datacenter);
+            writeText(body, rack);
+        }
+
+        private void writePeers(final ByteBuf body) {
+            writeRowsHeader(body, "peers", peers.size(), "peer", 0x0010, "rpc_address", 0x0010, "data_center", 0x000D, "rack", 0x000D);
+            peers.forEach((peer, location) -> {
+                Frames.writeBytes(body, peer.getAddress());
+                Frames.writeBytes(body, peer.getAddress());
+                writeText(body, location[0]);
+                writeText(body, location[1]);
+            });
+        }
+
+        private void writeRowsHeader(final ByteBuf body, final String table, final int rowCount, final Object... columns) {
+            body.writeInt(Frames.RESULT_ROWS);
+            body.writeInt(Frames.ROWS_GLOBAL_TABLES_SPEC);
+            body.writeInt(columns.length / 2);
+            Frames.writeString(body, "system");
+            Frames.writeString(body, table);
+            for (int i = 0; i < columns.length; i += 2) {
+                Frames.writeString(body, (String) columns[i]);
+                body.writeShort((Integer) columns[i + 1]);
+            }
+            body.writeInt(rowCount);
+        }
+
+        private void writeText(final ByteBuf body, final String value) {
+            Frames.writeBytes(body, value.getBytes(StandardCharsets.UTF_8));
+        }
+
+        private void error(final ChannelHandlerContext ctx, final int stream, final int code, final String message) {
+            reply(ctx, stream, Frames.ERROR, body -> {
+                body.writeInt(code);
+                Frames.writeString(body, message);
+            });
+        }
+
+        private void reply(final ChannelHandlerContext ctx, final int stream, final byte opcode, final Consumer<ByteBuf> body) {
+            ctx.writeAndFlush(Frames.frame(ctx.alloc(), (byte) (Frames.VERSION | Frames.RESPONSE), stream, opcode, body));
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package com.criteo.nosql.casspoke.cassandra.nativeprotocol;
+
+import com.criteo.nosql.casspoke.cassandra.CassandraNode;
+import com.criteo.nosql.casspoke.cassandra.IMonitor;
+import com.criteo.nosql.casspoke.cassandra.ProbeError;
+import com.criteo.nosql.casspoke.config.Config;
+import com.criteo.nosql.casspoke.discovery.Service;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+public class NativeMonitorTest {
+
+    private static final Service SERVICE = new Service("cstars01", Collections.emptyList());
+
+    private FakeCqlServer node1;
+    private FakeCqlServer node2;
+    private NativeProbeEngine engine;
+    private final List<CassandraNode> removedNodes = new CopyOnWriteArrayList<>();
+    private final List<String> probeErrors = new CopyOnWriteArrayList<>();
+
+    @Before
+    public void setup() throws Exception {
+        node1 = new FakeCqlServer("127.0.0.1", 0).local("dc1", "rack1");
+        // Peers are expected on the same port as the contact point
+        node2 = new FakeCqlServer("127.0.0.2", node1.getAddress().getPort()).local("dc1", "rack2");
+        node1.peer("127.0.0.2", "dc1", "rack2");
+        node2.peer("127.0.0.1", "dc1", "rack1");
+    }
+
+    @After
+    public void tearDown() {
+        node1.close();
+        node2.close();
+        if (engine != null) {
+            engine.close();
+        }
+    }
+
+    @Test
+    public void testProbeAllTheNodes() {
+        try (IMonitor monitor = monitor(Collections.emptyMap())) {
+            final Map<CassandraNode, Boolean> availabilities = monitor.collectAvailability();
+            Assert.assertEquals(2, availabilities.size());
+            Assert.assertTrue(availabilities.values().stream().allMatch(Boolean::booleanValue));
+            final CassandraNode second = node(availabilities.keySet(), node2.getAddress());
+            Assert.assertEquals("dc1", second.getDatacenter());
+            Assert.assertEquals("rack2", second.getRack());
+
+            final Map<CassandraNode, Long> getLatencies = monitor.collectGetLatencies();
+            Assert.assertEquals(availabilities.keySet(), getLatencies.keySet());
+            Assert.assertTrue(getLatencies.values().stream().allMatch(latency -> latency > 0));
+            Assert.assertEquals(availabilities.keySet(), monitor.collectSetLatencies().keySet());
+
+            // Each probe is sent on the connection of its node
+            Assert.assertTrue(node2.queries.contains("SELECT * FROM system.local LIMIT 1"));
+            Assert.assertTrue(node2.queries.stream().anyMatch(query -> query.startsWith("INSERT INTO system_traces.events")));
+        }
+    }
+
+    @Test
+    public void testNodeLeavingTheCluster() throws Exception {
+        try (IMonitor monitor = monitor(Collections.emptyMap())) {
+            node1.removePeer("127.0.0.2");
+
+            final Map<CassandraNode, Boolean> availabilities = monitor.collectAvailability();
+            Assert.assertEquals(1, availabilities.size());
+            Assert.assertEquals(1, removedNodes.size());
+            Assert.assertEquals(node2.getAddress(), removedNodes.get(0).getAddress());
+            Assert.assertEquals(1, monitor.collectGetLatencies().size());
+        }
+    }
+
+    @Test
+    public void testNodeDown() throws Exception {
+        try (IMonitor monitor = monitor(Collections.emptyMap())) {
+            node2.close();
+
+            Map<CassandraNode, Boolean> availabilities = monitor.collectAvailability();
+            for (int i = 0; i < 50 && availabilities.get(node(availabilities.keySet(), node2.getAddress())); i++) {
+                Thread.sleep(100);
+                availabilities = monitor.collectAvailability();
+            }
+            Assert.assertFalse(availabilities.get(node(availabilities.keySet(), node2.getAddress())));
+            Assert.assertTrue(availabilities.get(node(availabilities.keySet(), node1.getAddress())));
+            Assert.assertEquals(1, monitor.collectGetLatencies().size());
+            Assert.assertTrue(monitor.isReachable());
+        }
+    }
+
+    @Test
+    public void testFailedProbesAreNotLatencies() {
+        node2.failProbes(0x1001);
+        try (IMonitor monitor = monitor(Collections.emptyMap())) {
+            final Map<CassandraNode, Long> latencies = monitor.collectGetLatencies();
+            Assert.assertEquals(1, latencies.size());
+            Assert.assertEquals(node1.getAddress(), latencies.keySet().iterator().next().getAddress());
+            Assert.assertEquals(Collections.singletonList(node2.getAddress() + "/get/OVERLOADED"), probeErrors);
+        }
+    }
+
+    @Test
+    public void testProbeTable() throws Exception {
+        final Map<String, String> app = new HashMap<>();
+        app.put("probeTable", "casspoke.probes");
+        app.put("createProbeSchema", "true");
+        try (IMonitor monitor = monitor(app)) {
+            Assert.assertTrue(node1.queries.stream().anyMatch(query -> query.startsWith("CREATE TABLE IF NOT EXISTS casspoke.probes")));
+            monitor.collectSetLatencies();
+            // The ticks are in ms
+            Thread.sleep(5);
+            monitor.collectSetLatencies();
+
+            // One partition per node and per tick
+            final long inserts = node2.queries.stream()
+                    .filter(query -> query.startsWith("INSERT INTO casspoke.probes (id, written_at) VALUES ('127.0.0.2:"))
+                    .distinct().count();
+            Assert.assertEquals(2, inserts);
+            Assert.assertTrue(node2.queries.stream().noneMatch(query -> query.contains("system_traces")));
+        }
+    }
+
+    @Test
+    public void testAuthentication() {
+        node1.requireAuthentication("casspoke", "secret");
+        node2.requireAuthentication("casspoke", "secret");
+        final Map<String, String> credentials = new HashMap<>();
+        credentials.put("username", "casspoke");
+        credentials.put("password", "secret");
+
+        try (IMonitor monitor = monitor(credentials)) {
+            Assert.assertEquals(2, monitor.collectGetLatencies().size());
+        }
+
+        credentials.put("password", "wrong");
+        Assert.assertFalse(engine(credentials).fromNodes(false, SERVICE, Collections.singleton(node1.getAddress()), removedNodes::add, this::onProbeError).isPresent());
+    }
+
+    @Test
+    public void testUnreachableCluster() {
+        final InetSocketAddress address = node1.getAddress();
+        node1.close();
+
+        Assert.assertFalse(engine(Collections.emptyMap()).fromNodes(false, SERVICE, Collections.singleton(address), removedNodes::add, this::onProbeError).isPresent());
+    }
+
+    private IMonitor monitor(final Map<String, String> app) {
+        final Optional<IMonitor> monitor = engine(app).fromNodes(false, SERVICE, Collections.singleton(node1.getAddress()), removedNodes::add, this::onProbeError);
+        Assert.assertTrue(monitor.isPresent());
+        return monitor.get();
+    }
+
+    private NativeProbeEngine engine(final Map<String, String> app) {
+        if (engine != null) {
+            engine.close();
+        }
+        final Map<String, String> settings = new HashMap<>(app);
+        settings.put("timeoutInSec", "2");
+        final Config cfg = new ObjectMapper().convertValue(Collections.singletonMap("app", settings), Config.class);
+        engine = new NativeProbeEngine(cfg);
+        return engine;
+    }
+
+    private void onProbeError(final CassandraNode node, final String command, final Throwable error) {
+        probeErrors.add(node.getAddress() + "/" + command + "/" + ProbeError.classify(error));
+    }
+
+    private static CassandraNode node(final Set<CassandraNode> nodes, final InetSocketAddress address) {
+        return nodes.stream().filter(node -> node.getAddress().equals(address)).findFirst()
+                .orElseThrow(() -> new AssertionError(address + " not found in " + nodes));
+    }
+}
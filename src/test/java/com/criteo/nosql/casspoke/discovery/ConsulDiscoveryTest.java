@@ -0,0 +1,160 @@
+package com.criteo.nosql.casspoke.discovery;
+
+import com.criteo.nosql.casspoke.config.Config;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BooleanSupplier;
+
+public class ConsulDiscoveryTest {
+
+    private static final List<String> TAGS = Collections.singletonList("cassandra");
+    private static final InetSocketAddress NODE1 = new InetSocketAddress("10.0.0.1", 9042);
+    private static final InetSocketAddress NODE2 = new InetSocketAddress("10.0.0.2", 9042);
+
+    private FakeConsul consul;
+    private ConsulDiscovery discovery;
+
+    @Before
+    public void setup() throws Exception {
+        consul = new FakeConsul()
+                .service("cassandra-cstars01", "cstars01", TAGS, NODE1)
+                .service("cassandra-cstars02", "cstars02", TAGS, NODE2);
+    }
+
+    @After
+    public void tearDown() {
+        if (discovery != null) {
+            discovery.close();
+        }
+        consul.close();
+    }
+
+    @Test
+    public void testFetchServices() {
+        discovery = discovery(Collections.emptyMap());
+
+        final Map<Service, Set<InetSocketAddress>> services = discovery.getServicesNodes();
+        Assert.assertEquals(2, services.size());
+        Assert.assertEquals(Collections.singleton(NODE1), services.get(new Service("cstars01", TAGS)));
+    }
+
+    @Test
+    public void testFailedFetchKeepsLastKnownNodes() {
+        discovery = discovery(Collections.emptyMap());
+        Assert.assertEquals(2, discovery.getServicesNodes().size());
+
+        consul.fail("cassandra-cstars01", true);
+        final Map<Service, Set<InetSocketAddress>> services = discovery.getServicesNodes();
+        Assert.assertEquals("A failed fetch must not remove the service", 2, services.size());
+        Assert.assertEquals(Collections.singleton(NODE1), services.get(new Service("cstars01", TAGS)));
+    }
+
+    @Test
+    public void testFailedFirstFetchIsNotKnown() {
+        consul.fail("cassandra-cstars01", true);
+        discovery = discovery(Collections.emptyMap());
+
+        Assert.assertEquals(Collections.singleton(new Service("cstars02", TAGS)), discovery.getServicesNodes().keySet());
+    }
+
+    @Test
+    public void testWatchPushesTheServices() throws Exception {
+        discovery = discovery(watchSettings());
+        final Map<Service, Set<InetSocketAddress>> pushed = new ConcurrentHashMap<>();
+        Assert.assertTrue(discovery.watch(pushed::put));
+
+        waitFor(() -> pushed.size() == 2);
+        Assert.assertEquals(Collections.singleton(NODE1), pushed.get(new Service("cstars01", TAGS)));
+        Assert.assertEquals(2, discovery.getServicesNodes().size());
+    }
+
+    @Test
+    public void testWatchIsThrottledWhenAnsweredAtOnce() throws Exception {
+        discovery = discovery(watchSettings());
+        discovery.watch((service, nodes) -> { });
+
+        // The fake agent answers every blocking query at once, with the same index
+        Thread.sleep(2_500);
+        final long polls = consul.count("/v1/health/service/cassandra-cstars01");
+        Assert.assertTrue("Polled " + polls + " times", polls >= 2 && polls <= 4);
+    }
+
+    @Test
+    public void testWatchResetsTheIndexWhenItGoesBackward() throws Exception {
+        consul.index(100);
+        discovery = discovery(watchSettings());
+        discovery.watch((service, nodes) -> { });
+        waitFor(() -> consul.requests.contains("/v1/catalog/services?index=100"));
+
+        consul.index(50);
+        consul.requests.clear();
+        waitFor(() -> consul.requests.contains("/v1/catalog/services?index=0"));
+        waitFor(() -> consul.requests.contains("/v1/catalog/services?index=50"));
+    }
+
+    @Test
+    public void testLateHealthDoesNotBringBackARemovedService() throws Exception {
+        discovery = discovery(watchSettings());
+        final Map<Service, Set<InetSocketAddress>> pushed = new ConcurrentHashMap<>();
+        discovery.watch(pushed::put);
+        final Service cstars01 = new Service("cstars01", TAGS);
+        waitFor(() -> Collections.singleton(NODE1).equals(pushed.get(cstars01)));
+
+        // The service is removed while its health query is pending
+        consul.hold("cassandra-cstars01");
+        waitFor(() -> consul.holding.contains("cassandra-cstars01"));
+        consul.remove("cassandra-cstars01");
+        waitFor(() -> pushed.get(cstars01).isEmpty());
+
+        consul.release("cassandra-cstars01");
+        waitFor(() -> !consul.holding.contains("cassandra-cstars01"));
+        Thread.sleep(500);
+        Assert.assertEquals(Collections.emptySet(), pushed.get(cstars01));
+        Assert.assertEquals(Collections.singleton(new Service("cstars02", TAGS)), discovery.getServicesNodes().keySet());
+    }
+
+    @Test
+    public void testServicesTakeTurnsOnTheWatchThreads() throws Exception {
+        final Map<String, Object> settings = watchSettings();
+        settings.put("watchThreads", 1);
+        discovery = discovery(settings);
+        final Map<Service, Set<InetSocketAddress>> pushed = new ConcurrentHashMap<>();
+        discovery.watch(pushed::put);
+
+        waitFor(() -> pushed.size() == 2);
+        // The threads of the discoveries closed by the previous tests may take a while to stop
+        waitFor(() -> Thread.getAllStackTraces().keySet().stream()
+                .filter(thread -> thread.getName().startsWith("consul-watch-") && !thread.getName().startsWith("consul-watch-catalog-"))
+                .count() == 1);
+    }
+
+    private static Map<String, Object> watchSettings() {
+        final Map<String, Object> settings = new HashMap<>();
+        settings.put("watch", true);
+        settings.put("watchWaitInSec", 1);
+        return settings;
+    }
+
+    private static void waitFor(final BooleanSupplier condition) throws InterruptedException {
+        for (int i = 0; i < 100 && !condition.getAsBoolean(); i++) {
+            Thread.sleep(50);
+        }
+        Assert.assertTrue(condition.getAsBoolean());
+    }
+
+    ConsulDiscovery discovery(final Map<String, Object> settings) {
+        final Map<String, Object> consulCfg = new HashMap<>(settings);
+        consulCfg.put("host", "127.0.0.1");
+        consulCfg.put("port", consul.getPort());
+        consulCfg.put("timeoutInSec", 2);
+        consulCfg.put("tags", TAGS);
+        return new ConsulDiscovery(new ObjectMapper().convertValue(consulCfg, Config.ConsulDiscovery.class));
+    }
+}
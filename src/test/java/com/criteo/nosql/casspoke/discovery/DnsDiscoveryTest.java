@@ -0,0 +1,166 @@
+package com.criteo.nosql.casspoke.discovery;
+
+import com.criteo.nosql.casspoke.config.Config;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class DnsDiscoveryTest {
+
+    private static final Service CLUSTER = new Service("cstars01", Collections.emptyList());
+
+    private final StubResolver resolver = new StubResolver();
+    private long nowInNs;
+
+    @Before
+    public void setup() {
+        resolver.addresses.put("seed1.fqdn", answer(60, "10.0.0.1"));
+        resolver.addresses.put("seed2.fqdn", answer(60, "10.0.0.2", "::2"));
+        resolver.addresses.put("node3.fqdn", answer(60, "10.0.0.3"));
+        resolver.srvs.put("_cql._tcp.cstars01.fqdn", new DnsResolver.Answer<>(
+                Collections.singleton(InetSocketAddress.createUnresolved("node3.fqdn", 9142)), 30));
+    }
+
+    @Test
+    public void testResolveHostsAndSrv() {
+        final DnsDiscovery discovery = discovery("seed1.fqdn:9042,seed2.fqdn, 10.0.0.4:19042", "_cql._tcp.cstars01.fqdn");
+
+        final Set<InetSocketAddress> expected = new HashSet<>(Arrays.asList(
+                address("10.0.0.1", 9042),
+                address("10.0.0.2", 9042),
+                address("::2", 9042),
+                address("10.0.0.4", 19042),
+                address("10.0.0.3", 9142)));
+        Assert.assertEquals(Collections.singletonMap(CLUSTER, expected), discovery.getServicesNodes());
+    }
+
+    @Test
+    public void testCacheHonoursTtl() {
+        final DnsDiscovery discovery = discovery("seed1.fqdn", "_cql._tcp.cstars01.fqdn");
+
+        discovery.getServicesNodes();
+        Assert.assertEquals(3, resolver.queries.get());
+
+        nowInNs += TimeUnit.SECONDS.toNanos(29);
+        discovery.getServicesNodes();
+        Assert.assertEquals("Nothing should be resolved before the first TTL expires", 3, resolver.queries.get());
+
+        nowInNs += TimeUnit.SECONDS.toNanos(2);
+        discovery.getServicesNodes();
+        Assert.assertEquals("Only the SRV record should be resolved again", 4, resolver.queries.get());
+
+        nowInNs += TimeUnit.SECONDS.toNanos(30);
+        discovery.getServicesNodes();
+        Assert.assertEquals("All the records should be resolved again", 7, resolver.queries.get());
+    }
+
+    @Test
+    public void testSameNodesWhenUnchanged() {
+        final DnsDiscovery discovery = discovery("seed1.fqdn,seed2.fqdn", null);
+
+        final Set<InetSocketAddress> first = discovery.getServicesNodes().get(CLUSTER);
+        nowInNs += TimeUnit.SECONDS.toNanos(120);
+        final Set<InetSocketAddress> second = discovery.getServicesNodes().get(CLUSTER);
+        Assert.assertSame("An unchanged resolution should not look like a change", first, second);
+
+        resolver.addresses.put("seed1.fqdn", answer(60, "10.0.0.10"));
+        nowInNs += TimeUnit.SECONDS.toNanos(120);
+        final Set<InetSocketAddress> third = discovery.getServicesNodes().get(CLUSTER);
+        Assert.assertNotSame(first, third);
+        Assert.assertTrue(third.contains(address("10.0.0.10", 9042)));
+        Assert.assertFalse(third.contains(address("10.0.0.1", 9042)));
+    }
+
+    @Test
+    public void testKeepLastNodesOnFailure() {
+        final DnsDiscovery discovery = discovery("seed1.fqdn", null);
+
+        final Set<InetSocketAddress> first = discovery.getServicesNodes().get(CLUSTER);
+        resolver.addresses.remove("seed1.fqdn");
+        nowInNs += TimeUnit.SECONDS.toNanos(120);
+        Assert.assertEquals(first, discovery.getServicesNodes().get(CLUSTER));
+    }
+
+    @Test
+    public void testFailingSrvTargetDoesNotHideTheOthers() {
+        resolver.addresses.put("node4.fqdn", answer(60, "10.0.0.4"));
+        resolver.srvs.put("_cql._tcp.cstars01.fqdn", new DnsResolver.Answer<>(new HashSet<>(Arrays.asList(
+                InetSocketAddress.createUnresolved("node3.fqdn", 9142),
+                InetSocketAddress.createUnresolved("unknown.fqdn", 9142),
+                InetSocketAddress.createUnresolved("node4.fqdn", 9142))), 30));
+        final DnsDiscovery discovery = discovery(null, "_cql._tcp.cstars01.fqdn");
+
+        final Set<InetSocketAddress> expected = new HashSet<>(Arrays.asList(
+                address("10.0.0.3", 9142),
+                address("10.0.0.4", 9142)));
+        Assert.assertEquals(Collections.singletonMap(CLUSTER, expected), discovery.getServicesNodes());
+    }
+
+    @Test
+    public void testUnknownCluster() {
+        final DnsDiscovery discovery = discovery("unknown.fqdn", null);
+
+        Assert.assertTrue(discovery.getServicesNodes().isEmpty());
+    }
+
+    private DnsDiscovery discovery(final String host, final String srv) {
+        final Map<String, String> entry = new HashMap<>();
+        entry.put("clustername", CLUSTER.getClusterName());
+        entry.put("host", host);
+        entry.put("srv", srv);
+        final Config.DnsEntry dnsEntry = new ObjectMapper().convertValue(entry, Config.DnsEntry.class);
+        return new DnsDiscovery(Collections.singletonList(dnsEntry), resolver, () -> nowInNs);
+    }
+
+    private static InetSocketAddress address(final String ip, final int port) {
+        try {
+            return new InetSocketAddress(InetAddress.getByName(ip), port);
+        } catch (UnknownHostException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    private static DnsResolver.Answer<InetAddress> answer(final long ttlInSec, final String... ips) {
+        final Set<InetAddress> addresses = new HashSet<>();
+        for (String ip : ips) {
+            addresses.add(address(ip, 0).getAddress());
+        }
+        return new DnsResolver.Answer<>(addresses, ttlInSec);
+    }
+
+    private static final class StubResolver implements DnsResolver {
+        private final Map<String, Answer<InetAddress>> addresses = new HashMap<>();
+        private final Map<String, Answer<InetSocketAddress>> srvs = new HashMap<>();
+        private final AtomicInteger queries = new AtomicInteger();
+
+        @Override
+        public CompletableFuture<Answer<InetAddress>> lookupAddresses(final String name) {
+            return lookup(addresses, name);
+        }
+
+        @Override
+        public CompletableFuture<Answer<InetSocketAddress>> lookupSrv(final String name) {
+            return lookup(srvs, name);
+        }
+
+        private <T> CompletableFuture<Answer<T>> lookup(final Map<String, Answer<T>> answers, final String name) {
+            queries.incrementAndGet();
+            final CompletableFuture<Answer<T>> answer = new CompletableFuture<>();
+            if (answers.containsKey(name)) {
+                answer.complete(answers.get(name));
+            } else {
+                answer.completeExceptionally(new UnknownHostException(name));
+            }
+            return answer;
+        }
+    }
+}
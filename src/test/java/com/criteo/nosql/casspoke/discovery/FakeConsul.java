@@ -0,0 +1,179 @@
+package com.criteo.nosql.casspoke.discovery;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * An agent answering the catalog and health queries of ConsulDiscovery, blocking queries are answered at once
+ */
+final class FakeConsul implements AutoCloseable {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final Map<String, List<String>> catalog = new ConcurrentHashMap<>();
+    private final Map<String, List<InetSocketAddress>> nodes = new ConcurrentHashMap<>();
+    private final Set<String> failingServices = ConcurrentHashMap.newKeySet();
+    private final Map<String, CountDownLatch> heldServices = new ConcurrentHashMap<>();
+    // The services whose health answer is held right now
+    final Set<String> holding = ConcurrentHashMap.newKeySet();
+    private volatile long index = 1;
+    // The path and the index of every request
+    final Queue<String> requests = new ConcurrentLinkedQueue<>();
+
+    FakeConsul() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.setExecutor(executor);
+        server.createContext("/v1/catalog/services", this::catalog);
+        server.createContext("/v1/health/service/", this::health);
+        server.start();
+    }
+
+    int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Register a service of the cluster, with the given tags and nodes
+     */
+    FakeConsul service(final String name, final String cluster, final List<String> tags, final InetSocketAddress... addresses) {
+        final List<String> serviceTags = new ArrayList<>(tags);
+        serviceTags.add("cluster-" + cluster);
+        catalog.put(name, serviceTags);
+        nodes.put(name, Arrays.asList(addresses));
+        return this;
+    }
+
+    /**
+     * Unregister the service
+     */
+    FakeConsul remove(final String name) {
+        catalog.remove(name);
+        nodes.remove(name);
+        return this;
+    }
+
+    /**
+     * Keep the health answers of the service pending until release, with the nodes it had when queried
+     */
+    FakeConsul hold(final String name) {
+        heldServices.put(name, new CountDownLatch(1));
+        return this;
+    }
+
+    FakeConsul release(final String name) {
+        final CountDownLatch held = heldServices.remove(name);
+        if (held != null) {
+            held.countDown();
+        }
+        return this;
+    }
+
+    /**
+     * Answer the health of the service with an error
+     */
+    FakeConsul fail(final String name, final boolean fail) {
+        if (fail) {
+            failingServices.add(name);
+        } else {
+            failingServices.remove(name);
+        }
+        return this;
+    }
+
+    /**
+     * The X-Consul-Index of the next answers
+     */
+    FakeConsul index(final long index) {
+        this.index = index;
+        return this;
+    }
+
+    long count(final String prefix) {
+        return requests.stream().filter(request -> request.startsWith(prefix)).count();
+    }
+
+    private void catalog(final HttpExchange exchange) throws IOException {
+        record(exchange);
+        reply(exchange, 200, MAPPER.writeValueAsBytes(catalog));
+    }
+
+    private void health(final HttpExchange exchange) throws IOException {
+        record(exchange);
+        final String name = exchange.getRequestURI().getPath().substring("/v1/health/service/".length());
+        if (failingServices.contains(name)) {
+            reply(exchange, 500, "Unavailable".getBytes());
+            return;
+        }
+        final List<Map<String, Object>> healthServices = new ArrayList<>();
+        for (InetSocketAddress address : nodes.getOrDefault(name, Collections.emptyList())) {
+            final Map<String, Object> node = new HashMap<>();
+            node.put("Node", address.getHostString());
+            node.put("Address", address.getHostString());
+            final Map<String, Object> service = new HashMap<>();
+            service.put("ID", name);
+            service.put("Service", name);
+            service.put("Tags", catalog.get(name));
+            service.put("Address", address.getHostString());
+            service.put("Port", address.getPort());
+            final Map<String, Object> healthService = new HashMap<>();
+            healthService.put("Node", node);
+            healthService.put("Service", service);
+            healthService.put("Checks", Collections.emptyList());
+            healthServices.add(healthService);
+        }
+        final byte[] body = MAPPER.writeValueAsBytes(healthServices);
+
+        final CountDownLatch held = heldServices.get(name);
+        if (held != null) {
+            holding.add(name);
+            try {
+                held.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                holding.remove(name);
+            }
+        }
+        reply(exchange, 200, body);
+    }
+
+    private void record(final HttpExchange exchange) {
+        final String query = exchange.getRequestURI().getQuery();
+        String requestIndex = "0";
+        for (String param : query == null ? new String[0] : query.split("&")) {
+            if (param.startsWith("index=")) {
+                requestIndex = param.substring("index=".length());
+            }
+        }
+        requests.add(exchange.getRequestURI().getPath() + "?index=" + requestIndex);
+    }
+
+    private void reply(final HttpExchange exchange, final int status, final byte[] body) throws IOException {
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.getResponseHeaders().add("X-Consul-Index", String.valueOf(index));
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,105 @@
+package com.criteo.nosql.casspoke.exporter;
+
+import io.prometheus.client.CollectorRegistry;
+import io.prometheus.client.Gauge;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.zip.GZIPInputStream;
+
+public class CachedScrapeServerTest {
+
+    private final CollectorRegistry registry = new CollectorRegistry();
+    private Gauge gauge;
+    private CachedScrapeServer server;
+
+    @Before
+    public void setup() throws IOException {
+        gauge = Gauge.build().name("test_gauge").help("help").register(registry);
+        Gauge.build().name("other_gauge").help("help").register(registry).set(7);
+        gauge.set(1);
+        // Rendered once at creation, then not before the end of the test
+        server = new CachedScrapeServer(0, registry, 3_600_000);
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+    }
+
+    @Test
+    public void testServesTheSnapshot() throws IOException {
+        gauge.set(2);
+        final String body = scrape("/metrics", null, false);
+        Assert.assertTrue(body, body.contains("test_gauge 1.0"));
+        Assert.assertTrue(body, body.contains("other_gauge 7.0"));
+    }
+
+    @Test
+    public void testGzip() throws IOException {
+        final String body = scrape("/metrics", "deflate, gzip;q=0.8", true);
+        Assert.assertTrue(body, body.contains("test_gauge 1.0"));
+    }
+
+    @Test
+    public void testGzipRefused() throws IOException {
+        final String body = scrape("/metrics", "gzip;q=0, *", false);
+        Assert.assertTrue(body, body.contains("test_gauge 1.0"));
+    }
+
+    @Test
+    public void testNamesAreRenderedLive() throws IOException {
+        gauge.set(2);
+        final String body = scrape("/metrics?name[]=test_gauge", "gzip", true);
+        Assert.assertTrue(body, body.contains("test_gauge 2.0"));
+        Assert.assertFalse(body, body.contains("other_gauge"));
+    }
+
+    @Test
+    public void testAcceptsGzip() {
+        Assert.assertFalse(CachedScrapeServer.acceptsGzip(null));
+        Assert.assertTrue(CachedScrapeServer.acceptsGzip(Collections.singletonList("gzip")));
+        Assert.assertTrue(CachedScrapeServer.acceptsGzip(Collections.singletonList("deflate, GZIP ; q=0.5")));
+        Assert.assertTrue(CachedScrapeServer.acceptsGzip(Arrays.asList("identity", "x-gzip")));
+        Assert.assertTrue(CachedScrapeServer.acceptsGzip(Collections.singletonList("*")));
+        Assert.assertFalse(CachedScrapeServer.acceptsGzip(Collections.singletonList("gzip;q=0")));
+        Assert.assertFalse(CachedScrapeServer.acceptsGzip(Collections.singletonList("gzip;q=0.0, *;q=1")));
+        Assert.assertFalse(CachedScrapeServer.acceptsGzip(Collections.singletonList("*;q=0")));
+        Assert.assertFalse(CachedScrapeServer.acceptsGzip(Collections.singletonList("gzipped, deflate")));
+    }
+
+    /**
+     * @return the body of the response, once checked it is gzipped as expected
+     */
+    private String scrape(final String path, final String acceptEncoding, final boolean expectGzip) throws IOException {
+        final HttpURLConnection connection = (HttpURLConnection) new URL("http://127.0.0.1:" + server.getPort() + path).openConnection();
+        if (acceptEncoding != null) {
+            connection.setRequestProperty("Accept-Encoding", acceptEncoding);
+        }
+        try {
+            Assert.assertEquals(200, connection.getResponseCode());
+            final boolean gzipped = "gzip".equals(connection.getHeaderField("Content-Encoding"));
+            Assert.assertEquals(expectGzip, gzipped);
+            try (InputStream in = gzipped ? new GZIPInputStream(connection.getInputStream()) : connection.getInputStream()) {
+                final ByteArrayOutputStream body = new ByteArrayOutputStream();
+                final byte[] buffer = new byte[4096];
+                for (int read = in.read(buffer); read != -1; read = in.read(buffer)) {
+                    body.write(buffer, 0, read);
+                }
+                return new String(body.toByteArray(), StandardCharsets.UTF_8);
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package com.criteo.nosql.casspoke.exporter;
+
+import com.criteo.nosql.casspoke.config.Config;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpServer;
+import io.prometheus.client.CollectorRegistry;
+import io.prometheus.client.Gauge;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.xerial.snappy.Snappy;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class PushExporterTest {
+
+    private final CollectorRegistry registry = new CollectorRegistry();
+    private final BlockingQueue<byte[]> requests = new LinkedBlockingQueue<>();
+    private final Queue<Integer> statuses = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger requestCount = new AtomicInteger();
+    private volatile long responseDelayInMs;
+    private HttpServer sink;
+    private PushExporter exporter;
+
+    @Before
+    public void setup() throws IOException {
+        Gauge.build().name("test_gauge").help("help").labelNames("cluster").register(registry).labels("c1:a").set(42);
+
+        sink = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        sink.createContext("/api/v1/write", exchange -> {
+            try {
+                requestCount.incrementAndGet();
+                Thread.sleep(responseDelayInMs);
+                final ByteArrayOutputStream body = new ByteArrayOutputStream();
+                final byte[] buffer = new byte[4096];
+                for (int read = exchange.getRequestBody().read(buffer); read != -1; read = exchange.getRequestBody().read(buffer)) {
+                    body.write(buffer, 0, read);
+                }
+                final Integer status = statuses.poll();
+                exchange.sendResponseHeaders(status == null ? 204 : status, -1);
+                requests.add(body.toByteArray());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                exchange.close();
+            }
+        });
+        sink.setExecutor(Executors.newCachedThreadPool());
+        sink.start();
+    }
+
+    @After
+    public void tearDown() {
+        if (exporter != null) {
+            exporter.close();
+        }
+        sink.stop(0);
+    }
+
+    @Test
+    public void testRemoteWrite() throws Exception {
+        exporter = remoteWrite(push(10, 0));
+        exporter.start();
+        exporter.tick();
+
+        final List<Map<String, String>> series = decodeWriteRequest(requests.poll(5, TimeUnit.SECONDS));
+        Assert.assertEquals(1, series.size());
+        Assert.assertEquals("test_gauge", series.get(0).get("__name__"));
+        Assert.assertEquals("c1:a", series.get(0).get("cluster"));
+        Assert.assertEquals("42.0", series.get(0).get("value"));
+    }
+
+    @Test
+    public void testRemoteWriteRetriesServerErrors() throws Exception {
+        statuses.add(503);
+        statuses.add(500);
+        exporter = remoteWrite(push(10, 2));
+        exporter.start();
+        exporter.tick();
+
+        for (int i = 0; i < 3; i++) {
+            Assert.assertEquals(1, decodeWriteRequest(requests.poll(5, TimeUnit.SECONDS)).size());
+        }
+        Assert.assertEquals(3, requestCount.get());
+    }
+
+    @Test
+    public void testRemoteWriteDoesNotRetryRejectedBatches() throws Exception {
+        statuses.add(400);
+        exporter = remoteWrite(push(10, 2));
+        exporter.start();
+        exporter.tick();
+        exporter.tick();
+
+        // The first batch is rejected once, the second one is sent
+        Assert.assertNotNull(requests.poll(5, TimeUnit.SECONDS));
+        Assert.assertNotNull(requests.poll(5, TimeUnit.SECONDS));
+        Assert.assertNull(requests.poll(500, TimeUnit.MILLISECONDS));
+        Assert.assertEquals(2, requestCount.get());
+    }
+
+    @Test
+    public void testSlowSinkNeitherBlocksNorGrowsTheQueue() throws Exception {
+        responseDelayInMs = 1000;
+        exporter = remoteWrite(push(1, 0));
+        exporter.start();
+        final double dropped = droppedBatches();
+
+        final long start = System.nanoTime();
+        for (int i = 0; i < 10; i++) {
+            exporter.tick();
+        }
+        Assert.assertTrue("Ticks should not wait for the sink", System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(500));
+        // One batch is being sent, one is queued, the others were dropped
+        Assert.assertTrue(droppedBatches() - dropped >= 8);
+    }
+
+    @Test
+    public void testGraphite() throws Exception {
+        try (ServerSocket graphite = new ServerSocket(0, 1, java.net.InetAddress.getByName("127.0.0.1"))) {
+            final Map<String, Object> settings = new HashMap<>();
+            settings.put("host", "127.0.0.1");
+            settings.put("port", graphite.getLocalPort());
+            exporter = new GraphiteExporter(new ObjectMapper().convertValue(settings, Config.Graphite.class), registry, push(10, 0), 3_600_000);
+            exporter.start();
+            final long before = System.currentTimeMillis() / 1000;
+            exporter.tick();
+
+            graphite.setSoTimeout(5000);
+            try (Socket client = graphite.accept();
+                 BufferedReader reader = new BufferedReader(new InputStreamReader(client.getInputStream(), StandardCharsets.UTF_8))) {
+                final String[] line = reader.readLine().split(" ");
+                Assert.assertEquals("casspoke.test_gauge.cluster.c1_a", line[0]);
+                Assert.assertEquals("42.0", line[1]);
+                Assert.assertTrue(Long.parseLong(line[2]) >= before);
+                Assert.assertNull(reader.readLine());
+            }
+        }
+    }
+
+    private RemoteWriteExporter remoteWrite(final Config.Push push) {
+        final Config.RemoteWrite remoteWrite = new ObjectMapper().convertValue(
+                Collections.singletonMap("url", "http://127.0.0.1:" + sink.getAddress().getPort() + "/api/v1/write"),
+                Config.RemoteWrite.class);
+        return new RemoteWriteExporter(remoteWrite, registry, push, 3_600_000);
+    }
+
+    private static Config.Push push(final int queueSize, final int retries) {
+        final Map<String, Object> settings = new HashMap<>();
+        settings.put("queueSize", queueSize);
+        settings.put("retries", retries);
+        settings.put("retryBackoffInMs", 10);
+        settings.put("timeoutInSec", 5);
+        return new ObjectMapper().convertValue(settings, Config.Push.class);
+    }
+
+    private static double droppedBatches() {
+        final Double value = CollectorRegistry.defaultRegistry.getSampleValue("casspoke_push_batches_total",
+                new String[]{"exporter", "result"}, new String[]{"remote-write", "dropped"});
+        return value == null ? 0 : value;
+    }
+
+    /**
+     * @return the labels of each time series, with the value of its sample under the "value" key
+     */
+    private static List<Map<String, String>> decodeWriteRequest(final byte[] body) throws IOException {
+        Assert.assertNotNull("No request received", body);
+        final List<Map<String, String>> series = new ArrayList<>();
+        for (ByteBuffer timeSeries : fields(ByteBuffer.wrap(Snappy.uncompress(body)), 1)) {
+            final Map<String, String> labels = new HashMap<>();
+            for (ByteBuffer label : fields(timeSeries.duplicate(), 1)) {
+                final List<ByteBuffer> name = fields(label.duplicate(), 1);
+                final List<ByteBuffer> value = fields(label.duplicate(), 2);
+                labels.put(StandardCharsets.UTF_8.decode(name.get(0)).toString(), StandardCharsets.UTF_8.decode(value.get(0)).toString());
+            }
+            final ByteBuffer sample = fields(timeSeries.duplicate(), 2).get(0).order(ByteOrder.LITTLE_ENDIAN);
+            Assert.assertEquals(0x09, sample.get());
+            labels.put("value", String.valueOf(sample.getDouble()));
+            series.add(labels);
+        }
+        return series;
+    }
+
+    /**
+     * @return the length-delimited fields with the given number, the other fields are skipped
+     */
+    private static List<ByteBuffer> fields(final ByteBuffer message, final int field) {
+        final List<ByteBuffer> values = new ArrayList<>();
+        while (message.hasRemaining()) {
+            final long tag = varint(message);
+            switch ((int) (tag & 7)) {
+                case 0:
+                    varint(message);
+                    break;
+                case 1:
+                    message.position(message.position() + 8);
+                    break;
+                case 2:
+                    final int length = (int) varint(message);
+                    final ByteBuffer value = message.slice();
+                    value.limit(length);
+                    message.position(message.position() + length);
+                    if (tag >>> 3 == field) {
+                        values.add(value);
+                    }
+                    break;
+                default:
+                    throw new AssertionError("Unexpected wire type in " + tag);
+            }
+        }
+        return values;
+    }
+
+    private static long varint(final ByteBuffer buffer) {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            final byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.criteo.nosql.casspoke.sharding;
+
+import com.criteo.nosql.casspoke.discovery.Service;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.*;
+
+public class ShardingTest {
+
+    private static final List<String> CLUSTERS = new ArrayList<>();
+    static {
+        for (int i = 0; i < 1000; i++) {
+            CLUSTERS.add("cstars" + i);
+        }
+    }
+
+    @Test
+    public void testBalance() {
+        final Map<String, Integer> owned = new HashMap<>();
+        owners(Arrays.asList("casspoke-1", "casspoke-2", "casspoke-3", "casspoke-4"))
+                .values().forEach(owner -> owned.merge(owner, 1, Integer::sum));
+
+        Assert.assertEquals(4, owned.size());
+        owned.forEach((replica, count) -> Assert.assertTrue(replica + " owns " + count, count > 200 && count < 300));
+    }
+
+    @Test
+    public void testOnlyTheClustersOfTheNewReplicaMove() {
+        final Map<String, String> before = owners(Arrays.asList("casspoke-1", "casspoke-2", "casspoke-3"));
+        final Map<String, String> after = owners(Arrays.asList("casspoke-1", "casspoke-2", "casspoke-3", "casspoke-4"));
+
+        int moved = 0;
+        for (String cluster : CLUSTERS) {
+            if (!before.get(cluster).equals(after.get(cluster))) {
+                Assert.assertEquals("casspoke-4", after.get(cluster));
+                moved++;
+            }
+        }
+        Assert.assertTrue("Moved " + moved, moved > 200 && moved < 300);
+    }
+
+    @Test
+    public void testOnlyTheClustersOfTheRemovedReplicaMove() {
+        final Map<String, String> before = owners(Arrays.asList("casspoke-1", "casspoke-2", "casspoke-3"));
+        final Map<String, String> after = owners(Arrays.asList("casspoke-1", "casspoke-3"));
+
+        for (String cluster : CLUSTERS) {
+            if (!before.get(cluster).equals("casspoke-2")) {
+                Assert.assertEquals(before.get(cluster), after.get(cluster));
+            }
+        }
+    }
+
+    @Test
+    public void testOwnsAllUntilTheReplicasAreKnown() {
+        final List<String> replicas = new ArrayList<>();
+        final Sharding sharding = new Sharding("casspoke-1", () -> replicas);
+        final Service service = CLUSTERS.stream().map(cluster -> new Service(cluster, Collections.emptyList()))
+                .filter(srv -> !Sharding.ownerOf(srv.getClusterName(), Arrays.asList("casspoke-1", "casspoke-2")).equals("casspoke-1"))
+                .findFirst().get();
+
+        sharding.refresh();
+        Assert.assertTrue(sharding.owns(service));
+
+        replicas.addAll(Arrays.asList("casspoke-1", "casspoke-2"));
+        sharding.refresh();
+        Assert.assertFalse(sharding.owns(service));
+
+        // A failed read keeps the last known replicas
+        replicas.clear();
+        sharding.refresh();
+        Assert.assertFalse(sharding.owns(service));
+    }
+
+    private static Map<String, String> owners(final List<String> replicas) {
+        final Map<String, String> owners = new HashMap<>();
+        CLUSTERS.forEach(cluster -> owners.put(cluster, Sharding.ownerOf(cluster, replicas)));
+        return owners;
+    }
+}